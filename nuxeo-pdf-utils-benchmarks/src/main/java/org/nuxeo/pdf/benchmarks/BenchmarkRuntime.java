@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+
+/**
+ * Starts a minimal Nuxeo runtime in the benchmark JVM, once: The operations then create and track their temporary
+ * files as they do on a server, and run on the {@link org.nuxeo.pdf.service.PDFExecutionService} pool, behind the
+ * {@link org.nuxeo.pdf.PDFAdmissionGate}.
+ *
+ * @since 8.10
+ */
+public class BenchmarkRuntime {
+
+    protected static NXRuntimeTestCase harness;
+
+    private BenchmarkRuntime() {
+    }
+
+    public static synchronized void start() throws Exception {
+
+        if (harness != null) {
+            return;
+        }
+
+        NXRuntimeTestCase runtime = new NXRuntimeTestCase();
+        runtime.start();
+        runtime.deployBundle("org.nuxeo.runtime");
+        runtime.deployContrib("nuxeo-pdf-utils-plugin", "OSGI-INF/execution-service-contrib.xml");
+        runtime.fireFrameworkStarted();
+        harness = runtime;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                runtime.stop();
+            } catch (Exception e) {
+                // The JVM is exiting
+            }
+        }, "nuxeo-pdfutils-benchmarks-shutdown"));
+    }
+
+}
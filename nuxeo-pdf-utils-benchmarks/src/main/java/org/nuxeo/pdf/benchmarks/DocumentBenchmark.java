@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFInfo;
+import org.nuxeo.pdf.PDFMerge;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.pdf.PDFUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading, information, merge and page extraction.
+ *
+ * @since 8.10
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class DocumentBenchmark {
+
+    /**
+     * Parsing only, outside of the admission gate and of the pool
+     */
+    @Benchmark
+    public int load(PDFState inState) throws IOException {
+        try (PDDocument pdfDoc = PDFUtils.load(inState.pdf, null)) {
+            return pdfDoc.getNumberOfPages();
+        }
+    }
+
+    @Benchmark
+    public int info(PDFState inState) {
+        PDFInfo info = new PDFInfo(inState.pdf);
+        info.run();
+        return info.getNumberOfPages();
+    }
+
+    /**
+     * Merges the PDF with itself
+     */
+    @Benchmark
+    public long merge(PDFState inState) throws IOException, COSVisitorException {
+        PDFMerge merge = new PDFMerge(inState.pdf);
+        merge.addBlob(inState.pdf);
+        Blob result = merge.merge("merged.pdf");
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+    /**
+     * Extracts the second half of the pages
+     */
+    @Benchmark
+    public long extract(PDFState inState) {
+        Blob result = new PDFPageExtractor(inState.pdf).extract(inState.pages / 2 + 1, inState.pages);
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+}
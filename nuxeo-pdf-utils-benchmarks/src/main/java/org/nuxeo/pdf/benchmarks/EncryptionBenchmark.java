@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFEncryption;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encryption (read only permissions) and removal of the encryption, with RC4 128 bits and AES-256 keys.
+ *
+ * @since 8.10
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class EncryptionBenchmark {
+
+    /**
+     * The key length, and the synthetic PDF encrypted with it. Kept out of {@link PDFState}, where the parameter would
+     * run every other benchmark once per key length.
+     */
+    @State(Scope.Benchmark)
+    public static class KeyState {
+
+        @Param({ "128", "256" })
+        public int keyLength;
+
+        public Blob encryptedPdf;
+
+        @Setup(Level.Trial)
+        public void setUp(PDFState inState) {
+            encryptedPdf = encryptReadOnly(inState.pdf, keyLength);
+        }
+    }
+
+    protected static Blob encryptReadOnly(Blob inPdf, int inKeyLength) {
+        PDFEncryption encryption = new PDFEncryption(inPdf);
+        encryption.setKeyLength(inKeyLength);
+        encryption.setOwnerPwd(PDFState.OWNER_PWD);
+        return encryption.encryptReadOnly();
+    }
+
+    @Benchmark
+    public long encrypt(PDFState inState, KeyState inKey) {
+        Blob result = encryptReadOnly(inState.pdf, inKey.keyLength);
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+    @Benchmark
+    public long decrypt(KeyState inKey) {
+        PDFEncryption encryption = new PDFEncryption(inKey.encryptedPdf);
+        encryption.setOriginalOwnerPwd(PDFState.OWNER_PWD);
+        Blob result = encryption.removeEncryption();
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmarks jar. Same command line as the JMH one, but the allocation rate ({@link GCProfiler})
+ * and the peak RSS ({@link PeakRssProfiler}) are always reported with the throughput.
+ *
+ * @since 8.10
+ */
+public class PDFBenchmarks {
+
+    public static void main(String[] inArgs) throws Exception {
+
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(inArgs))
+                                              .addProfiler(GCProfiler.class)
+                                              .addProfiler(PeakRssProfiler.class)
+                                              .build();
+        new Runner(options).run();
+    }
+
+}
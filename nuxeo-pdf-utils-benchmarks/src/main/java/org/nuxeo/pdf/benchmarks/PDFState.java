@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.benchmarks.SyntheticPDFs.Content;
+import org.nuxeo.runtime.api.Framework;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The input of the benchmarks: A synthetic PDF (see {@link SyntheticPDFs}) of each size and content, and a watermark
+ * image.
+ *
+ * @since 8.10
+ */
+@State(Scope.Benchmark)
+public class PDFState {
+
+    public static final String OWNER_PWD = "owner";
+
+    @Param({ "10", "1000", "10000" })
+    public int pages;
+
+    @Param({ "TEXT", "IMAGE" })
+    public Content content;
+
+    public Blob pdf;
+
+    public Blob image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        BenchmarkRuntime.start();
+
+        pdf = new FileBlob(SyntheticPDFs.get(content, pages), "application/pdf");
+        pdf.setFilename("synthetic.pdf");
+
+        image = createImage();
+    }
+
+    protected static Blob createImage() throws Exception {
+
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(new Color(200, 0, 0, 128));
+            g.fillRoundRect(0, 0, 200, 100, 20, 20);
+            g.setColor(Color.WHITE);
+            g.drawString("CONFIDENTIAL", 60, 55);
+        } finally {
+            g.dispose();
+        }
+
+        File file = Framework.createTempFile("nuxeo-pdfutils-watermark-", ".png");
+        ImageIO.write(image, "png", file);
+        Blob blob = new FileBlob(file, "image/png");
+        Framework.trackFile(file, blob);
+        return blob;
+    }
+
+    /**
+     * Deletes the file of a result, so a long run does not fill the temporary directory.
+     */
+    public static void discard(Blob inBlob) {
+        if (inBlob != null && inBlob.getFile() != null) {
+            inBlob.getFile().delete();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports the peak resident set size of the benchmark JVM during each iteration, read from
+ * <code>/proc/self/status</code>. The peak is reset before each iteration through <code>/proc/self/clear_refs</code>
+ * when the kernel allows it, otherwise it is the peak since the start of the JVM. Nothing is reported on systems
+ * without <code>/proc</code>.
+ *
+ * @since 8.10
+ */
+public class PeakRssProfiler implements InternalProfiler {
+
+    protected static final Path STATUS = Paths.get("/proc/self/status");
+
+    protected static final Path CLEAR_REFS = Paths.get("/proc/self/clear_refs");
+
+    @Override
+    public String getDescription() {
+        return "Peak resident set size of the benchmark JVM";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams inBenchmarkParams, IterationParams inIterationParams) {
+        try {
+            // "5" resets the peak RSS to the current RSS
+            Files.write(CLEAR_REFS, "5".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException | SecurityException e) {
+            // Not Linux, or an old kernel
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams inBenchmarkParams,
+            IterationParams inIterationParams, IterationResult inResult) {
+
+        long peakKb = readPeakKb();
+        if (peakKb < 0) {
+            return Collections.emptyList();
+        }
+        // JMH prefixes the secondary results with a middle dot
+        return Collections.singletonList(
+                new ScalarResult("\u00b7rss.peak", peakKb / 1024.0, "MB", AggregationPolicy.MAX));
+    }
+
+    protected static long readPeakKb() {
+        try {
+            for (String line : Files.readAllLines(STATUS, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    // VmHWM:    123456 kB
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Ignore
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.pdf.benchmarks.SyntheticPDFs.Content;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rasterization of every page to PNG, at 300 dpi. The cost is the same for each page, so only the small PDFs are
+ * used: Rendering the 10000 pages would take hours. Another size can be set on the command line (<code>-p
+ * pages=1000</code>).
+ *
+ * @since 8.10
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class RasterizeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RasterizeState {
+
+        @Param({ "10" })
+        public int pages;
+
+        @Param({ "TEXT", "IMAGE" })
+        public Content content;
+
+        public Blob pdf;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            BenchmarkRuntime.start();
+            pdf = new FileBlob(SyntheticPDFs.get(content, pages), "application/pdf");
+        }
+    }
+
+    @Benchmark
+    public int rasterize(RasterizeState inState) {
+        BlobList images = new PDFPageExtractor(inState.pdf).getPagesAsImages("page");
+        for (Blob image : images) {
+            PDFState.discard(image);
+        }
+        return images.size();
+    }
+
+}
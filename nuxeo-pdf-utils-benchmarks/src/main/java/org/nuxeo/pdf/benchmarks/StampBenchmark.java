@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.PDFWatermarking;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Watermarks (text and image) and page numbering.
+ *
+ * @since 8.10
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class StampBenchmark {
+
+    @Benchmark
+    public long watermarkText(PDFState inState) {
+        Blob result = new PDFWatermarking(inState.pdf).setText("CONFIDENTIAL").watermark();
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+    @Benchmark
+    public long watermarkImage(PDFState inState) {
+        Blob result = new PDFWatermarking(inState.pdf).watermarkWithImage(inState.image, 100, 100, 1f);
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+    @Benchmark
+    public long pageNumbers(PDFState inState) {
+        Blob result = new PDFPageNumbering(inState.pdf).addPageNumbers(1, 1, null, 12, "#000000",
+                PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        long length = result.getLength();
+        PDFState.discard(result);
+        return length;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.benchmarks;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDJpeg;
+
+/**
+ * Generates the PDFs used by the benchmarks. The content is pseudo random but reproducible, and each file is generated
+ * once: It is kept in the directory set by the <code>nuxeo.pdfutils.benchmarks.dir</code> system property (default:
+ * <code>nuxeo-pdfutils-benchmarks</code> in the temporary directory).
+ *
+ * @since 8.10
+ */
+public class SyntheticPDFs {
+
+    public static final String DIR_PROPERTY = "nuxeo.pdfutils.benchmarks.dir";
+
+    public enum Content {
+        /** 50 lines of text per page */
+        TEXT,
+        /** A distinct JPEG image per page, with a caption */
+        IMAGE
+    }
+
+    protected static final String[] WORDS = { "nuxeo", "document", "invoice", "contract", "amount", "total", "date",
+            "customer", "reference", "page", "section", "clause", "the", "of", "and", "to", "in", "for", "with",
+            "agreement", "payment", "delivery", "signature", "annex", "2016", "EUR", "12.50", "#A-4521" };
+
+    protected static final int LINES_PER_PAGE = 50;
+
+    protected static final int IMAGE_WIDTH = 320;
+
+    protected static final int IMAGE_HEIGHT = 240;
+
+    private SyntheticPDFs() {
+    }
+
+    public static File getDirectory() {
+        String dir = System.getProperty(DIR_PROPERTY);
+        return dir == null ? new File(System.getProperty("java.io.tmpdir"), "nuxeo-pdfutils-benchmarks")
+                : new File(dir);
+    }
+
+    /**
+     * Returns the PDF with <code>inPages</code> pages of the given content, generating it if needed.
+     */
+    public static synchronized File get(Content inContent, int inPages) throws IOException {
+
+        File dir = getDirectory();
+        File file = new File(dir, "synthetic-" + inContent.name().toLowerCase() + "-" + inPages + ".pdf");
+        if (file.isFile()) {
+            return file;
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        // Generated under another name, so an interrupted run does not leave a truncated PDF
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        generate(inContent, inPages, tempFile);
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + tempFile + " to " + file);
+        }
+        return file;
+    }
+
+    public static void generate(Content inContent, int inPages, File inFile) throws IOException {
+
+        Random random = new Random(inPages);
+        try (PDDocument pdfDoc = new PDDocument()) {
+            PDFont font = PDType1Font.HELVETICA;
+            BufferedImage image = inContent == Content.IMAGE
+                    ? new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB) : null;
+
+            for (int i = 1; i <= inPages; i++) {
+                PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+                pdfDoc.addPage(page);
+
+                // Created before the content stream, which cannot be interleaved with another stream
+                PDJpeg jpeg = image == null ? null : new PDJpeg(pdfDoc, drawImage(image, random, i), 0.75f);
+
+                try (PDPageContentStream content = new PDPageContentStream(pdfDoc, page)) {
+                    if (jpeg != null) {
+                        content.drawXObject(jpeg, 50, 300, IMAGE_WIDTH * 1.5f, IMAGE_HEIGHT * 1.5f);
+                        writeLines(content, font, random, 1, 150);
+                    } else {
+                        writeLines(content, font, random, LINES_PER_PAGE, 800);
+                    }
+                }
+            }
+
+            pdfDoc.save(inFile);
+        } catch (COSVisitorException e) {
+            throw new IOException("Failed to save " + inFile, e);
+        }
+    }
+
+    protected static void writeLines(PDPageContentStream inContent, PDFont inFont, Random inRandom, int inLines,
+            float inTop) throws IOException {
+
+        inContent.beginText();
+        inContent.setFont(inFont, 10);
+        inContent.moveTextPositionByAmount(50, inTop);
+        for (int line = 0; line < inLines; line++) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 90) {
+                text.append(WORDS[inRandom.nextInt(WORDS.length)]).append(' ');
+            }
+            inContent.drawString(text.toString().trim());
+            inContent.moveTextPositionByAmount(0, -14);
+        }
+        inContent.endText();
+    }
+
+    protected static BufferedImage drawImage(BufferedImage inImage, Random inRandom, int inPageNumber) {
+
+        Graphics2D g = inImage.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, new Color(inRandom.nextInt(0xFFFFFF)), IMAGE_WIDTH, IMAGE_HEIGHT,
+                    new Color(inRandom.nextInt(0xFFFFFF))));
+            g.fillRect(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+            // Noise, so the JPEG does not compress to almost nothing
+            for (int i = 0; i < 400; i++) {
+                g.setColor(new Color(inRandom.nextInt(0xFFFFFF)));
+                g.fillOval(inRandom.nextInt(IMAGE_WIDTH), inRandom.nextInt(IMAGE_HEIGHT), 12, 12);
+            }
+            g.setColor(Color.BLACK);
+            g.drawString("Page " + inPageNumber, 10, 20);
+        } finally {
+            g.dispose();
+        }
+        return inImage;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * One entry of the manifest returned by {@link PDFBatesNumbering#produce()}: The numbers given to the pages of one
+ * document of the production.
+ *
+ * @since 8.10
+ */
+public class BatesRange {
+
+    protected int index;
+
+    protected String fileName;
+
+    protected int pageCount;
+
+    protected int firstNumber;
+
+    protected int lastNumber;
+
+    protected String firstLabel;
+
+    protected String lastLabel;
+
+    protected Blob blob;
+
+    public BatesRange(int index, String fileName, int pageCount, int firstNumber, int lastNumber, String firstLabel,
+            String lastLabel, Blob blob) {
+        this.index = index;
+        this.fileName = fileName;
+        this.pageCount = pageCount;
+        this.firstNumber = firstNumber;
+        this.lastNumber = lastNumber;
+        this.firstLabel = firstLabel;
+        this.lastLabel = lastLabel;
+        this.blob = blob;
+    }
+
+    /**
+     * @return the position of the document in the production, starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getFirstNumber() {
+        return firstNumber;
+    }
+
+    public int getLastNumber() {
+        return lastNumber;
+    }
+
+    public String getFirstLabel() {
+        return firstLabel;
+    }
+
+    public String getLastLabel() {
+        return lastLabel;
+    }
+
+    /**
+     * @return the numbered copy of the document
+     */
+    public Blob getBlob() {
+        return blob;
+    }
+
+    @Override
+    public String toString() {
+        return fileName + ": " + firstLabel + " - " + lastLabel + " (" + pageCount + " pages)";
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.service.PDFExecutionService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Admission control for the operations loading PDFs: Before an operation runs, the heap it needs (see
+ * {@link PDFHeapEstimator}) is reserved in a budget shared by all the operations. When the budget is exhausted, the
+ * operation waits until other operations release their part, or is rejected if it waited too long. An operation
+ * needing more than the whole budget runs alone.
+ * <p>
+ * When the estimate of an operation is above a threshold, its PDFs are loaded with a scratch file by
+ * {@link PDFUtils#load(java.io.InputStream)}: The data of the streams is then kept on disk, and only the estimate for
+ * the objects is reserved.
+ * <p>
+ * The default gate is configured with the following properties:
+ * <ul>
+ * <li><code>nuxeo.pdfutils.admission.budget</code>: the heap, in bytes, the running operations can reserve (default:
+ * half of the maximum heap)</li>
+ * <li><code>nuxeo.pdfutils.admission.timeout</code>: the maximum time, in milliseconds, an operation waits before being
+ * rejected. 0 rejects the operation at once, the default is to wait with no limit</li>
+ * <li><code>nuxeo.pdfutils.admission.scratchfile</code>: the estimate, in bytes, above which the PDFs are loaded with a
+ * scratch file. By default, scratch files are not used</li>
+ * </ul>
+ *
+ * @since 8.10
+ */
+public class PDFAdmissionGate {
+
+    private static final Log log = LogFactory.getLog(PDFAdmissionGate.class);
+
+    public static final String BUDGET_PROPERTY = "nuxeo.pdfutils.admission.budget";
+
+    public static final String TIMEOUT_PROPERTY = "nuxeo.pdfutils.admission.timeout";
+
+    public static final String SCRATCH_FILE_PROPERTY = "nuxeo.pdfutils.admission.scratchfile";
+
+    protected static final ThreadLocal<Permit> currentPermit = new ThreadLocal<>();
+
+    protected static PDFAdmissionGate defaultGate;
+
+    protected final long budget;
+
+    protected final long timeout;
+
+    protected final long scratchFileThreshold;
+
+    protected long reservedHeap = 0;
+
+    protected int waitingCount = 0;
+
+    protected long admittedCount = 0;
+
+    protected long rejectedCount = 0;
+
+    /**
+     * The heap reserved by a running operation. It is released by {@link #close()}.
+     */
+    public class Permit implements AutoCloseable {
+
+        protected final String operation;
+
+        protected final long heap;
+
+        protected final boolean scratchFile;
+
+        protected boolean closed;
+
+        protected Permit(String inOperation, long inHeap, boolean inScratchFile) {
+            operation = inOperation;
+            heap = inHeap;
+            scratchFile = inScratchFile;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the heap reserved, 0 for an operation called by another one
+         */
+        public long getHeap() {
+            return heap;
+        }
+
+        /**
+         * @return true if the PDFs must be loaded with a scratch file
+         */
+        public boolean isScratchFile() {
+            return scratchFile;
+        }
+
+        /**
+         * Runs the task with this permit as the permit of the current thread. Operations called by the task do not
+         * reserve heap again, and load their PDFs as this permit requires.
+         *
+         * @param inTask
+         * @return the result of the task
+         * @throws E the exception thrown by the task
+         */
+        public <T, E extends Exception> T run(PDFExecutionService.Task<T, E> inTask) throws E {
+
+            Permit previous = currentPermit.get();
+            currentPermit.set(this);
+            try {
+                return inTask.run();
+            } finally {
+                if (previous == null) {
+                    currentPermit.remove();
+                } else {
+                    currentPermit.set(previous);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(heap);
+        }
+    }
+
+    public PDFAdmissionGate(long inBudget, long inTimeout, long inScratchFileThreshold) {
+        budget = inBudget;
+        timeout = inTimeout;
+        scratchFileThreshold = inScratchFileThreshold;
+    }
+
+    public static synchronized PDFAdmissionGate getDefault() {
+
+        if (defaultGate == null) {
+            defaultGate = new PDFAdmissionGate(getLongProperty(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 2),
+                    getLongProperty(TIMEOUT_PROPERTY, -1), getLongProperty(SCRATCH_FILE_PROPERTY, -1));
+        }
+        return defaultGate;
+    }
+
+    protected static long getLongProperty(String inName, long inDefault) {
+        String value = Framework.getProperty(inName);
+        return StringUtils.isBlank(value) ? inDefault : Long.parseLong(value.trim());
+    }
+
+    /**
+     * @return the permit of the operation running on the current thread, null if none
+     */
+    public static Permit getCurrentPermit() {
+        return currentPermit.get();
+    }
+
+    /**
+     * @return true if the operation running on the current thread must load its PDFs with a scratch file
+     */
+    public static boolean isScratchFileRequired() {
+        Permit permit = currentPermit.get();
+        return permit != null && permit.isScratchFile();
+    }
+
+    /**
+     * Reserves the heap needed to load the blobs, waiting if needed.
+     *
+     * @param inOperation the name of the operation
+     * @param inBlobs
+     * @return the permit, to close when the operation ends
+     * @throws NuxeoException if the operation is rejected, or the thread interrupted
+     */
+    public Permit acquire(String inOperation, Blob... inBlobs) throws NuxeoException {
+        return acquire(inOperation, 1, inBlobs);
+    }
+
+    /**
+     * Same as {@link #acquire(String, Blob...)}, for an operation loading <code>inCopies</code> copies of the blobs at
+     * the same time.
+     *
+     * @param inOperation
+     * @param inCopies
+     * @param inBlobs
+     * @return the permit, to close when the operation ends
+     * @throws NuxeoException if the operation is rejected, or the thread interrupted
+     */
+    public Permit acquire(String inOperation, int inCopies, Blob... inBlobs) throws NuxeoException {
+
+        Permit current = currentPermit.get();
+        if (current != null) {
+            return new Permit(inOperation, 0, current.isScratchFile());
+        }
+
+        long heap = 0;
+        long scratchFileHeap = 0;
+        for (Blob blob : inBlobs) {
+            if (blob == null) {
+                continue;
+            }
+            try {
+                PDFHeapEstimator.Estimate estimate = PDFHeapEstimator.estimate(blob);
+                heap += estimate.getHeap(false);
+                scratchFileHeap += estimate.getHeap(true);
+            } catch (NuxeoException e) {
+                // The operation will fail on the same error
+                log.debug("Cannot estimate the heap for " + blob.getFilename(), e);
+                heap += Math.max(0, blob.getLength());
+                scratchFileHeap += Math.max(0, blob.getLength());
+            }
+        }
+        boolean scratchFile = scratchFileThreshold >= 0 && heap > scratchFileThreshold;
+        return acquire(inOperation, (scratchFile ? scratchFileHeap : heap) * Math.max(1, inCopies), scratchFile);
+    }
+
+    /**
+     * Reserves <code>inHeap</code> bytes, waiting if needed.
+     *
+     * @param inOperation the name of the operation
+     * @param inHeap
+     * @param inScratchFile true if the operation must load its PDFs with a scratch file
+     * @return the permit, to close when the operation ends
+     * @throws NuxeoException if the operation is rejected, or the thread interrupted
+     */
+    public Permit acquire(String inOperation, long inHeap, boolean inScratchFile) throws NuxeoException {
+
+        Permit current = currentPermit.get();
+        if (current != null) {
+            return new Permit(inOperation, 0, current.isScratchFile());
+        }
+
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            waitingCount++;
+            try {
+                while (reservedHeap > 0 && reservedHeap + inHeap > budget) {
+                    long wait = timeout < 0 ? 0 : deadline - System.currentTimeMillis();
+                    if (timeout >= 0 && wait <= 0) {
+                        rejectedCount++;
+                        throw new NuxeoException("Not enough heap to run " + inOperation + ": " + inHeap
+                                + " bytes needed, " + reservedHeap + "/" + budget + " in use");
+                    }
+                    wait(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NuxeoException("Interrupted while waiting to run " + inOperation, e);
+            } finally {
+                waitingCount--;
+            }
+            reservedHeap += inHeap;
+            admittedCount++;
+            if (log.isDebugEnabled()) {
+                log.debug(inOperation + " reserved " + inHeap + " bytes" + (inScratchFile ? " (scratch file)" : "")
+                        + ", " + reservedHeap + "/" + budget + " in use");
+            }
+        }
+        return new Permit(inOperation, inHeap, inScratchFile);
+    }
+
+    protected synchronized void release(long inHeap) {
+        if (inHeap > 0) {
+            reservedHeap -= inHeap;
+            notifyAll();
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getReservedHeap() {
+        return reservedHeap;
+    }
+
+    /**
+     * @return the number of operations waiting for the budget
+     */
+    public synchronized int getWaitingCount() {
+        return waitingCount;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return admittedCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Encrypts a list of PDFs with the same passwords and permissions.
+ * <p>
+ * The protection policy is built once and shared by all the documents. The documents are encrypted on a bounded pool
+ * of threads, and only a few of them are in progress at the same time, so a list of thousands of blobs does not keep
+ * thousands of results waiting. Each result is passed to the consumer as soon as it is available, in the order of
+ * the input list. A failure only affects its own item, the others are still encrypted.
+ * <p>
+ * With {@link #setVirtualThreads(boolean)}, each document is read on its own virtual thread, see
+ * {@link PDFBatchExecutor}.
+ *
+ * @since 8.10
+ */
+public class PDFBatchEncryption {
+
+    /**
+     * The result for one blob of the list: Either the encrypted copy or the error.
+     */
+    public static class Result {
+
+        protected int index;
+
+        protected Blob input;
+
+        protected Blob blob;
+
+        protected NuxeoException error;
+
+        public Result(int index, Blob input, Blob blob, NuxeoException error) {
+            this.index = index;
+            this.input = input;
+            this.blob = blob;
+            this.error = error;
+        }
+
+        /**
+         * @return the position of the blob in the input list, starting at 0
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Blob getInput() {
+            return input;
+        }
+
+        /**
+         * @return the encrypted copy of the blob, null if it failed
+         */
+        public Blob getBlob() {
+            return blob;
+        }
+
+        /**
+         * @return the error, null if the blob was encrypted
+         */
+        public NuxeoException getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    protected StandardProtectionPolicy policy;
+
+    protected String originalOwnerPwd;
+
+    protected int threadCount = Runtime.getRuntime().availableProcessors();
+
+    protected boolean virtualThreads = PDFBatchExecutor.isVirtualThreadsEnabled();
+
+    /**
+     * @param inOwnerPwd
+     * @param inUserPwd
+     * @param inKeyLength see {@link PDFEncryption#ALLOWED_LENGTH}. If <= 0, {@link PDFEncryption#DEFAULT_KEYLENGTH}
+     *            is used
+     * @param inPerm
+     * @throws NuxeoException if the key length is not allowed
+     */
+    public PDFBatchEncryption(String inOwnerPwd, String inUserPwd, int inKeyLength, AccessPermission inPerm)
+            throws NuxeoException {
+
+        policy = PDFEncryption.createProtectionPolicy(inOwnerPwd, inUserPwd, inKeyLength, inPerm);
+    }
+
+    /**
+     * Encrypts all the blobs and returns the results, in the same order as <code>inBlobs</code>
+     *
+     * @param inBlobs
+     * @return the list of results
+     */
+    public List<Result> encrypt(List<Blob> inBlobs) {
+
+        final List<Result> results = new ArrayList<>(inBlobs.size());
+        encrypt(inBlobs, new Consumer<Result>() {
+            @Override
+            public void accept(Result inResult) {
+                results.add(inResult);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Encrypts all the blobs and passes each result to <code>inConsumer</code>, in the same order as
+     * <code>inBlobs</code>. The consumer is called from the calling thread.
+     *
+     * @param inBlobs
+     * @param inConsumer
+     * @throws NuxeoException if the thread is interrupted
+     */
+    public void encrypt(List<Blob> inBlobs, Consumer<Result> inConsumer) throws NuxeoException {
+
+        if (inBlobs.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.max(1, Math.min(threadCount, inBlobs.size()));
+        final PDFBatchExecutor executor = new PDFBatchExecutor(threads, virtualThreads);
+        int maxInProgress = executor.getMaxInProgress();
+        Deque<Future<Result>> inProgress = new ArrayDeque<>();
+        try {
+            int next = 0;
+            while (next < inBlobs.size() || !inProgress.isEmpty()) {
+                while (next < inBlobs.size() && inProgress.size() < maxInProgress) {
+                    final int index = next;
+                    final Blob blob = inBlobs.get(index);
+                    inProgress.add(executor.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() {
+                            return encryptOne(index, blob, executor);
+                        }
+                    }));
+                    next += 1;
+                }
+                inConsumer.accept(inProgress.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while encrypting the PDFs", e);
+        } catch (ExecutionException e) {
+            // encryptOne() catches its errors
+            throw new NuxeoException("Failed to encrypt the PDFs", e.getCause());
+        } finally {
+            executor.close();
+        }
+    }
+
+    protected Result encryptOne(int inIndex, Blob inBlob, PDFBatchExecutor inExecutor) {
+
+        try {
+            Blob local = inExecutor.prepare(inBlob);
+            Blob result = inExecutor.runCpuBound(() -> PDFUtils.execute("encrypt", () -> {
+                PDDocument pdfDoc = null;
+                try {
+                    pdfDoc = PDFUtils.load(local, originalOwnerPwd);
+                    pdfDoc.protect(policy);
+                    return PDFUtils.saveInTempFile(pdfDoc, inBlob.getFilename());
+                } finally {
+                    PDFUtils.closeSilently(pdfDoc);
+                }
+            }, local));
+            return new Result(inIndex, inBlob, result, null);
+
+        } catch (NuxeoException e) {
+            return new Result(inIndex, inBlob, null, e);
+        } catch (Exception e) {
+            return new Result(inIndex, inBlob, null, new NuxeoException("Failed to encrypt the PDF", e));
+        }
+    }
+
+    /**
+     * Set the password to use when opening a protected PDF of the list.
+     *
+     * @param inValue
+     */
+    public void setOriginalOwnerPwd(String inValue) {
+        originalOwnerPwd = inValue;
+    }
+
+    /**
+     * @param inValue the number of PDFs encrypted at the same time. Default is the number of processors
+     */
+    public void setThreadCount(int inValue) {
+        threadCount = inValue < 1 ? Runtime.getRuntime().availableProcessors() : inValue;
+    }
+
+    /**
+     * @param inValue true to encrypt each PDF on its own virtual thread, see {@link PDFBatchExecutor}. Default is the
+     *            <code>nuxeo.pdfutils.batch.virtualthreads</code> property
+     */
+    public void setVirtualThreads(boolean inValue) {
+        virtualThreads = inValue;
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.service.PDFExecutionService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * The threads running the items of a batch ({@link PDFBatchEncryption}, {@link PDFBatchLinks},
+ * {@link PDFBatesNumbering}).
+ * <p>
+ * By default, the items run on a fixed pool of platform threads. In virtual thread mode, each item runs on its own
+ * virtual thread: The items spend most of their time reading the binary store and writing temporary files, so
+ * thousands of them can be in flight without thousands of OS threads. The input blobs are copied to local files on
+ * the virtual thread ({@link #prepare(Blob)}), while the parsing and saving, which use the CPU and the heap, are still
+ * bounded by a semaphore shared by all the batches ({@link #runCpuBound(PDFExecutionService.Task)}).
+ * <p>
+ * Virtual threads need Java 21. On an older runtime the virtual thread mode falls back to the platform pool. The
+ * default mode is set by the <code>nuxeo.pdfutils.batch.virtualthreads</code> property, and the number of CPU bound
+ * phases running at the same time in virtual thread mode by <code>nuxeo.pdfutils.batch.cputhreads</code> (default:
+ * the number of processors).
+ *
+ * @since 8.10
+ */
+public class PDFBatchExecutor implements AutoCloseable {
+
+    private static final Log log = LogFactory.getLog(PDFBatchExecutor.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "nuxeo.pdfutils.batch.virtualthreads";
+
+    public static final String CPU_THREADS_PROPERTY = "nuxeo.pdfutils.batch.cputhreads";
+
+    /**
+     * Maximum number of items in flight in virtual thread mode
+     */
+    public static final int MAX_VIRTUAL_IN_PROGRESS = 1024;
+
+    protected static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    protected static Semaphore cpuPermits;
+
+    protected final ExecutorService executor;
+
+    protected final boolean virtual;
+
+    protected final int maxInProgress;
+
+    /**
+     * @param inThreadCount the number of platform threads
+     * @param inVirtualThreads true to run each item on a virtual thread, if available
+     */
+    public PDFBatchExecutor(int inThreadCount, boolean inVirtualThreads) {
+
+        int threads = Math.max(1, inThreadCount);
+        ExecutorService virtualExecutor = inVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtual = true;
+            maxInProgress = MAX_VIRTUAL_IN_PROGRESS;
+        } else {
+            executor = Executors.newFixedThreadPool(threads);
+            virtual = false;
+            maxInProgress = threads * 2;
+        }
+    }
+
+    protected static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    protected static ExecutorService newVirtualThreadExecutor() {
+
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            log.debug("Virtual threads are not available, using platform threads");
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Cannot create virtual threads, using platform threads", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * @return the default mode of the batches, see <code>nuxeo.pdfutils.batch.virtualthreads</code>
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        return Framework.isBooleanPropertyTrue(VIRTUAL_THREADS_PROPERTY);
+    }
+
+    protected static synchronized Semaphore getCpuPermits() {
+
+        if (cpuPermits == null) {
+            String value = Framework.getProperty(CPU_THREADS_PROPERTY);
+            int permits = StringUtils.isBlank(value) ? Runtime.getRuntime().availableProcessors()
+                    : Math.max(1, Integer.parseInt(value.trim()));
+            cpuPermits = new Semaphore(permits, true);
+        }
+        return cpuPermits;
+    }
+
+    /**
+     * @return true if the items run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return the number of items a batch should keep in flight
+     */
+    public int getMaxInProgress() {
+        return maxInProgress;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public <T> Future<T> submit(Callable<T> inTask) {
+        return executor.submit(inTask);
+    }
+
+    /**
+     * In virtual thread mode, copies a blob which is not a local file to a temporary file, so the parsing does not
+     * wait for the binary store. Otherwise returns the blob.
+     *
+     * @param inBlob
+     * @return a blob with the same content
+     * @throws NuxeoException
+     */
+    public Blob prepare(Blob inBlob) throws NuxeoException {
+
+        if (!virtual || inBlob.getFile() != null) {
+            return inBlob;
+        }
+        try {
+            File file = Framework.createTempFile("nuxeo-pdfutils-batch-", ".pdf");
+            inBlob.transferTo(file);
+            FileBlob local = new FileBlob(file, inBlob.getMimeType(), inBlob.getEncoding());
+            local.setFilename(inBlob.getFilename());
+            // Keeps the caches based on the digest working
+            local.setDigest(inBlob.getDigest());
+            Framework.trackFile(file, local);
+            return local;
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to read the PDF", e);
+        }
+    }
+
+    /**
+     * Runs the CPU bound phase of an item. In virtual thread mode, waits for one of the permits shared by all the
+     * batches.
+     *
+     * @param inTask
+     * @return the result of the task
+     * @throws E the exception thrown by the task
+     * @throws NuxeoException if the thread is interrupted while waiting
+     */
+    public <T, E extends Exception> T runCpuBound(PDFExecutionService.Task<T, E> inTask) throws E {
+
+        if (!virtual) {
+            return inTask.run();
+        }
+        Semaphore permits = getCpuPermits();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while waiting for a CPU permit", e);
+        }
+        try {
+            return inTask.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
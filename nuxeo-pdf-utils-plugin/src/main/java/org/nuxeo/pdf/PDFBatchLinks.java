@@ -0,0 +1,231 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.function.Consumer;
+
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionJavaScript;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionLaunch;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionNamed;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionRemoteGoTo;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionURI;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Extracts the links of a set of PDFs.
+ * <p>
+ * Each PDF is handled by its own {@link PDFLinks} (which is not thread safe), on a bounded pool of threads. Only a
+ * few PDFs are in progress at the same time, whatever the size of the set, and the links of a PDF are passed to the
+ * consumer as soon as this PDF is done, one {@link Result} per link. So the results are not in the order of the
+ * input, use {@link Result#getIndex()} to know which blob a link comes from. A failure only affects its own blob, it
+ * is passed to the consumer and the others are still processed.
+ *
+ * @since 8.10
+ */
+public class PDFBatchLinks {
+
+    /**
+     * One link of a blob of the set, or the error for this blob.
+     */
+    public static class Result {
+
+        protected int index;
+
+        protected Blob input;
+
+        protected LinkInfo link;
+
+        protected NuxeoException error;
+
+        public Result(int index, Blob input, LinkInfo link, NuxeoException error) {
+            this.index = index;
+            this.input = input;
+            this.link = link;
+            this.error = error;
+        }
+
+        /**
+         * @return the position of the blob in the input, starting at 0
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Blob getInput() {
+            return input;
+        }
+
+        /**
+         * @return the link, null if the blob failed
+         */
+        public LinkInfo getLink() {
+            return link;
+        }
+
+        /**
+         * @return the error, null if this is a link
+         */
+        public NuxeoException getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    protected List<String> subTypes = Arrays.asList(PDActionRemoteGoTo.SUB_TYPE, PDActionLaunch.SUB_TYPE,
+            PDActionURI.SUB_TYPE, PDActionGoTo.SUB_TYPE, PDActionNamed.SUB_TYPE, PDActionJavaScript.SUB_TYPE);
+
+    protected String password;
+
+    protected int threadCount = Runtime.getRuntime().availableProcessors();
+
+    protected boolean virtualThreads = PDFBatchExecutor.isVirtualThreadsEnabled();
+
+    /**
+     * Extracts the links of all the blobs and passes them to <code>inConsumer</code>. The consumer is called from the
+     * calling thread.
+     * <p>
+     * The blobs are read from <code>inBlobs</code> only when a thread is available, so it can be a lazy iterable
+     * over a large set.
+     *
+     * @param inBlobs
+     * @param inConsumer
+     * @throws NuxeoException if the thread is interrupted
+     */
+    public void extract(Iterable<Blob> inBlobs, Consumer<Result> inConsumer) throws NuxeoException {
+
+        Iterator<Blob> blobs = inBlobs.iterator();
+        if (!blobs.hasNext()) {
+            return;
+        }
+
+        final PDFBatchExecutor executor = new PDFBatchExecutor(threadCount, virtualThreads);
+        int maxInProgress = executor.getMaxInProgress();
+        CompletionService<List<Result>> completion = new ExecutorCompletionService<List<Result>>(
+                executor.getExecutor());
+        try {
+            int next = 0;
+            int inProgress = 0;
+            while (blobs.hasNext() || inProgress > 0) {
+                while (blobs.hasNext() && inProgress < maxInProgress) {
+                    final int index = next;
+                    final Blob blob = blobs.next();
+                    completion.submit(new Callable<List<Result>>() {
+                        @Override
+                        public List<Result> call() {
+                            return extractOne(index, blob, executor);
+                        }
+                    });
+                    next += 1;
+                    inProgress += 1;
+                }
+                List<Result> results = completion.take().get();
+                inProgress -= 1;
+                for (Result result : results) {
+                    inConsumer.accept(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while extracting the links", e);
+        } catch (ExecutionException e) {
+            // extractOne() catches its errors
+            throw new NuxeoException("Failed to extract the links", e.getCause());
+        } finally {
+            executor.close();
+        }
+    }
+
+    protected List<Result> extractOne(int inIndex, Blob inBlob, PDFBatchExecutor inExecutor) {
+
+        List<Result> results = new ArrayList<Result>();
+        PDFLinks pdfl = null;
+        try {
+            Blob local = inExecutor.prepare(inBlob);
+            pdfl = new PDFLinks(local);
+            pdfl.setPassword(password);
+            final PDFLinks links = pdfl;
+            inExecutor.runCpuBound(() -> PDFUtils.execute("links", () -> {
+                for (String subType : subTypes) {
+                    for (LinkInfo li : links.parseForLinks(subType)) {
+                        results.add(new Result(inIndex, inBlob, li, null));
+                    }
+                }
+                return null;
+            }, local));
+        } catch (NuxeoException e) {
+            results.clear();
+            results.add(new Result(inIndex, inBlob, null, e));
+        } catch (IOException | RuntimeException e) {
+            results.clear();
+            results.add(new Result(inIndex, inBlob, null, new NuxeoException("Failed to extract the links", e)));
+        } finally {
+            if (pdfl != null) {
+                pdfl.close();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Set the password to use when opening a protected PDF of the set.
+     *
+     * @param inValue
+     */
+    public void setPassword(String inValue) {
+        password = inValue;
+    }
+
+    /**
+     * @param inValues the subtypes of the links to extract ("GoToR", "Launch", "URI", ...). Default is all the types
+     *            handled by {@link PDFLinks}
+     */
+    public void setSubTypes(String... inValues) {
+        subTypes = Arrays.asList(inValues);
+    }
+
+    /**
+     * @param inValue the number of PDFs handled at the same time. Default is the number of processors
+     */
+    public void setThreadCount(int inValue) {
+        threadCount = inValue < 1 ? Runtime.getRuntime().availableProcessors() : inValue;
+    }
+
+    /**
+     * @param inValue true to handle each PDF on its own virtual thread, see {@link PDFBatchExecutor}. Default is the
+     *            <code>nuxeo.pdfutils.batch.virtualthreads</code> property
+     */
+    public void setVirtualThreads(boolean inValue) {
+        virtualThreads = inValue;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.pipeline.PDFPipeline;
+import org.nuxeo.pdf.pipeline.PageLabelTemplate;
+import org.nuxeo.pdf.pipeline.PageNumberStage;
+
+/**
+ * Numbers a set of PDFs with one continuous counter (Bates numbering), as done for legal productions.
+ * <p>
+ * The page count of every document is read first, from the root of its page tree only (see
+ * {@link PDFUtils#countPages(Blob, String)}), so the first number of each document is known before any of them is
+ * stamped. The documents are then stamped in
+ * parallel, and {@link #produce()} returns the manifest of the numbers given to each one.
+ * <p>
+ * The label is built from a {@link PageLabelTemplate}, "{n:6}" by default. In the template, <code>{total}</code> is
+ * the last number of the whole production.
+ *
+ * @since 8.10
+ */
+public class PDFBatesNumbering {
+
+    public static final String DEFAULT_TEMPLATE = "{n:6}";
+
+    protected List<Blob> blobs;
+
+    protected String template = DEFAULT_TEMPLATE;
+
+    protected int startAtNumber = 1;
+
+    protected String fontName;
+
+    protected float fontSize;
+
+    protected String hex255Color;
+
+    protected PAGE_NUMBER_POSITION position = PAGE_NUMBER_POSITION.BOTTOM_RIGHT;
+
+    protected String password;
+
+    protected boolean writePageLabels = false;
+
+    protected int threadCount = Runtime.getRuntime().availableProcessors();
+
+    protected boolean virtualThreads = PDFBatchExecutor.isVirtualThreadsEnabled();
+
+    public PDFBatesNumbering(List<Blob> inBlobs) {
+        blobs = inBlobs;
+    }
+
+    /**
+     * Numbers all the documents.
+     *
+     * @return the manifest, one entry per document, in the order of the blobs passed to the constructor
+     * @throws NuxeoException
+     */
+    public List<BatesRange> produce() throws NuxeoException {
+
+        PageLabelTemplate labelTemplate = PageLabelTemplate.parse(template);
+        final PDFBatchExecutor executor = new PDFBatchExecutor(Math.min(threadCount, blobs.size()), virtualThreads);
+        try {
+            // 1. The page counts, to know the ranges up front. The blobs are made local for the stamping
+            final Blob[] locals = new Blob[blobs.size()];
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (int i = 0; i < locals.length; i++) {
+                final int index = i;
+                counts.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        locals[index] = executor.prepare(blobs.get(index));
+                        return executor.runCpuBound(() -> PDFUtils.countPages(locals[index], password));
+                    }
+                }));
+            }
+            int[] pageCounts = new int[blobs.size()];
+            int[] firstNumbers = new int[blobs.size()];
+            int next = startAtNumber;
+            for (int i = 0; i < pageCounts.length; i++) {
+                pageCounts[i] = get(counts.get(i), i);
+                firstNumbers[i] = next;
+                next += pageCounts[i];
+            }
+            final int lastNumber = next - 1;
+
+            // 2. The stamping, each document with its own start number
+            List<Future<Blob>> stamped = new ArrayList<>();
+            for (int i = 0; i < pageCounts.length; i++) {
+                final Blob blob = locals[i];
+                if (pageCounts[i] == 0) {
+                    stamped.add(null);
+                    continue;
+                }
+                final PageNumberStage stage = new PageNumberStage(template, 1, firstNumbers[i], fontName, fontSize,
+                        hex255Color, position).setTotal(lastNumber).setWritePageLabels(writePageLabels);
+                stamped.add(executor.submit(new Callable<Blob>() {
+                    @Override
+                    public Blob call() {
+                        return executor.runCpuBound(
+                                () -> new PDFPipeline(blob).setPassword(password).addPageStage(stage).run());
+                    }
+                }));
+            }
+
+            // 3. The manifest
+            List<BatesRange> manifest = new ArrayList<>();
+            for (int i = 0; i < pageCounts.length; i++) {
+                Blob blob = blobs.get(i);
+                Blob result = stamped.get(i) == null ? blob : get(stamped.get(i), i);
+                int first = firstNumbers[i];
+                int last = first + pageCounts[i] - 1;
+                String firstLabel = pageCounts[i] == 0 ? null : labelTemplate.format(first, lastNumber);
+                String lastLabel = pageCounts[i] == 0 ? null : labelTemplate.format(last, lastNumber);
+                manifest.add(new BatesRange(i, blob.getFilename(), pageCounts[i], first, last, firstLabel, lastLabel,
+                        result));
+            }
+            return manifest;
+
+        } finally {
+            executor.close();
+        }
+    }
+
+    protected <T> T get(Future<T> inFuture, int inIndex) throws NuxeoException {
+
+        try {
+            return inFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while numbering the documents", e);
+        } catch (ExecutionException e) {
+            String fileName = blobs.get(inIndex).getFilename();
+            throw new NuxeoException("Failed to number the document #" + inIndex + " (" + fileName + ")",
+                    e.getCause());
+        }
+    }
+
+    /**
+     * @param inValue the label template, see {@link PageLabelTemplate}. {@link #DEFAULT_TEMPLATE} if null or empty
+     */
+    public void setTemplate(String inValue) {
+        template = inValue == null || inValue.isEmpty() ? DEFAULT_TEMPLATE : inValue;
+    }
+
+    /**
+     * @param inValue the number of the first page of the first document. Set to 1 if < 1
+     */
+    public void setStartAtNumber(int inValue) {
+        startAtNumber = inValue < 1 ? 1 : inValue;
+    }
+
+    /**
+     * Font name, size and color, see {@link PDFPageNumbering#addPageNumbers} for the default values
+     */
+    public void setFont(String inFontName, float inFontSize, String inHex255Color) {
+        fontName = inFontName;
+        fontSize = inFontSize;
+        hex255Color = inHex255Color;
+    }
+
+    /**
+     * @param inValue the position of the label. <code>BOTTOM_RIGHT</code> if null
+     */
+    public void setPosition(PAGE_NUMBER_POSITION inValue) {
+        position = inValue == null ? PAGE_NUMBER_POSITION.BOTTOM_RIGHT : inValue;
+    }
+
+    /**
+     * @param inValue the password of the documents, if they are encrypted
+     */
+    public void setPassword(String inValue) {
+        password = inValue;
+    }
+
+    /**
+     * @param inValue when true, each document also gets a /PageLabels tree with the Bates labels
+     */
+    public void setWritePageLabels(boolean inValue) {
+        writePageLabels = inValue;
+    }
+
+    /**
+     * @param inValue the number of documents handled at the same time. Default is the number of processors
+     */
+    public void setThreadCount(int inValue) {
+        threadCount = inValue < 1 ? Runtime.getRuntime().availableProcessors() : inValue;
+    }
+
+    /**
+     * @param inValue true to handle each document on its own virtual thread, see {@link PDFBatchExecutor}. Default is
+     *            the <code>nuxeo.pdfutils.batch.virtualthreads</code> property
+     */
+    public void setVirtualThreads(boolean inValue) {
+        virtualThreads = inValue;
+    }
+
+}
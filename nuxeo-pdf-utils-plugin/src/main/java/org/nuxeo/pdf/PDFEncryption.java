@@ -18,6 +18,11 @@
  */
 package org.nuxeo.pdf;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 
@@ -26,7 +31,11 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.encryption.AES256ProtectionPolicy;
+import org.nuxeo.pdf.encryption.StreamingDecryption;
 
 /**
  * Encrypt/Decrypt a PDF.
@@ -45,7 +54,7 @@ public class PDFEncryption {
 
     protected PDDocument pdfDoc;
 
-    public static final List<Integer> ALLOWED_LENGTH = Arrays.asList(40, 128);
+    public static final List<Integer> ALLOWED_LENGTH = Arrays.asList(40, 128, 256);
 
     public static final int DEFAULT_KEYLENGTH = 128;
 
@@ -57,6 +66,8 @@ public class PDFEncryption {
 
     String ownerPwd;
 
+    boolean streaming = false;
+
     /**
      * Basic constructor
      * 
@@ -146,27 +157,22 @@ public class PDFEncryption {
      */
     public Blob encrypt(AccessPermission inPerm) {
 
-        Blob result = null;
+        return PDFUtils.execute("encrypt", () -> doEncrypt(inPerm), pdfBlob);
+    }
 
-        if (keyLength < 1) {
-            keyLength = DEFAULT_KEYLENGTH;
-        } else {
-            if (!ALLOWED_LENGTH.contains(keyLength)) {
-                throw new NuxeoException("Cannot use " + keyLength + " is not allowed as lenght for the encrytion key");
-            }
-        }
+    protected Blob doEncrypt(AccessPermission inPerm) {
+
+        Blob result = null;
 
         if (StringUtils.isBlank(ownerPwd)) {
             ownerPwd = originalOwnerPwd;
         }
 
+        StandardProtectionPolicy spp = createProtectionPolicy(ownerPwd, userPwd, keyLength, inPerm);
+
         try {
             loadPdf();
 
-            StandardProtectionPolicy spp = new StandardProtectionPolicy(ownerPwd, userPwd, inPerm);
-            spp.setEncryptionKeyLength(keyLength);
-            spp.setPermissions(inPerm);
-
             pdfDoc.protect(spp);
 
             result = PDFUtils.saveInTempFile(pdfDoc, pdfBlob.getFilename());
@@ -204,6 +210,15 @@ public class PDFEncryption {
      */
     public Blob removeEncryption() {
 
+        return PDFUtils.execute("removeEncryption", () -> doRemoveEncryption(), pdfBlob);
+    }
+
+    protected Blob doRemoveEncryption() {
+
+        if (streaming) {
+            return removeEncryptionStreaming();
+        }
+
         Blob result = null;
 
         try {
@@ -222,6 +237,75 @@ public class PDFEncryption {
         return result;
     }
 
+    /*
+     * See StreamingDecryption. The non sequential parser needs a file
+     */
+    protected Blob removeEncryptionStreaming() {
+
+        File tempFile = null;
+        try {
+            File pdfFile = pdfBlob.getFile();
+            if (pdfFile == null) {
+                tempFile = File.createTempFile("nuxeo-pdfutils-", ".pdf");
+                try (InputStream in = pdfBlob.getStream()) {
+                    Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                pdfFile = tempFile;
+            }
+
+            Blob tempBlob = Blobs.createBlobWithExtension(".pdf");
+            new StreamingDecryption(pdfFile, originalOwnerPwd).writeTo(tempBlob.getFile());
+
+            FileBlob result = new FileBlob(tempBlob.getFile());
+            result.setMimeType("application/pdf");
+            result.setFilename(pdfBlob.getFilename());
+            return result;
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to remove encryption of the PDF", e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Builds the protection policy used to encrypt a PDF. The policy is only read when protecting a document, so the
+     * same instance can be used to encrypt several documents, from several threads.
+     *
+     * @param inOwnerPwd
+     * @param inUserPwd
+     * @param inKeyLength see {@link #ALLOWED_LENGTH}. If <= 0, {@link #DEFAULT_KEYLENGTH} is used
+     * @param inPerm
+     * @return the policy
+     * @throws NuxeoException if the key length is not allowed
+     * @since 8.10
+     */
+    public static StandardProtectionPolicy createProtectionPolicy(String inOwnerPwd, String inUserPwd,
+            int inKeyLength, AccessPermission inPerm) throws NuxeoException {
+
+        if (inKeyLength < 1) {
+            inKeyLength = DEFAULT_KEYLENGTH;
+        } else {
+            if (!ALLOWED_LENGTH.contains(inKeyLength)) {
+                throw new NuxeoException("Cannot use " + inKeyLength
+                        + " is not allowed as lenght for the encrytion key");
+            }
+        }
+
+        StandardProtectionPolicy spp;
+        if (inKeyLength == AES256ProtectionPolicy.KEY_LENGTH) {
+            spp = new AES256ProtectionPolicy(inOwnerPwd, inUserPwd, inPerm);
+        } else {
+            spp = new StandardProtectionPolicy(inOwnerPwd, inUserPwd, inPerm);
+            spp.setEncryptionKeyLength(inKeyLength);
+        }
+        spp.setPermissions(inPerm);
+
+        return spp;
+    }
+
     public int getKeyLength() {
         return keyLength;
     }
@@ -229,7 +313,8 @@ public class PDFEncryption {
     /**
      * Set the lentgh of the key to be used for encryption.
      * <p>
-     * Possible values are 40 and 128. Default value is 128 if <code>keyLength</code> is <= 0.
+     * Possible values are 40, 128 (RC4) and 256 (AES, see {@link AES256ProtectionPolicy}). Default value is 128 if
+     * <code>keyLength</code> is <= 0.
      * 
      * @param keyLength
      * @throws NuxeoException
@@ -248,6 +333,22 @@ public class PDFEncryption {
         this.keyLength = keyLength;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * When <code>true</code>, {@link #removeEncryption()} does not load the document: Objects are decrypted and written
+     * one at a time (see {@link StreamingDecryption}), so memory use does not depend on the size of the file. Default
+     * value is <code>false</code>.
+     *
+     * @param streaming
+     * @since 8.10
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     /**
      * Set the password to use when opening a protected PDF. Must be call <i>before</i> encrypting the PDF.
      * 
@@ -0,0 +1,506 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.persistence.util.COSObjectKey;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.encryption.LazyPDFParser;
+
+/**
+ * Estimates the heap needed to load a PDF with {@link PDFUtils#load(Blob, String)}, without loading it.
+ * <p>
+ * The estimator counts the objects (including the ones stored in object streams), measures the streams and reads the
+ * size of the images from their dictionary. PDFBox keeps every object in memory, and the data of every stream in a
+ * buffer allocated by blocks of 16KB, unless the PDF is loaded with a scratch file. Rendering a page decodes its
+ * images, so the largest image is added to the estimate.
+ * <p>
+ * When the blob has a file, the objects are found with the cross-reference table (see {@link LazyPDFParser}): Only
+ * the beginning of each object is read, the data of the streams is not. Else, or if the table cannot be parsed, the
+ * PDF is read once, without being parsed. The estimates are cached by blob digest.
+ *
+ * @since 8.10
+ */
+public class PDFHeapEstimator {
+
+    private static final Log log = LogFactory.getLog(PDFHeapEstimator.class);
+
+    /**
+     * Average heap used by a parsed object (dictionary, array, names, numbers and the cross-reference entry)
+     */
+    public static final long OBJECT_SIZE = 640;
+
+    /**
+     * PDFBox stores the data of each stream in a <code>RandomAccessBuffer</code>, which allocates blocks of 16KB
+     */
+    public static final long STREAM_BLOCK_SIZE = 16384;
+
+    // Dictionaries are only analyzed for their first bytes, a stream dictionary is rarely longer
+    protected static final int MAX_DICTIONARY_LENGTH = 4096;
+
+    protected static final Pattern TYPE_OBJECT_STREAM = Pattern.compile("/Type\\s*/ObjStm\\b");
+
+    protected static final Pattern SUBTYPE_IMAGE = Pattern.compile("/Subtype\\s*/Image\\b");
+
+    protected static final Pattern COUNT = Pattern.compile("/N\\s+(\\d+)");
+
+    protected static final Pattern WIDTH = Pattern.compile("/Width\\s+(\\d+)");
+
+    protected static final Pattern HEIGHT = Pattern.compile("/Height\\s+(\\d+)");
+
+    protected static final Pattern SIZE = Pattern.compile("/Size\\s+(\\d+)");
+
+    // A direct length, not followed by a generation number and R
+    protected static final Pattern LENGTH = Pattern.compile("/Length\\s+(\\d++)(?!\\s+\\d+\\s+R)");
+
+    protected static final byte[] STREAM = "stream".getBytes();
+
+    protected static final byte[] END_STREAM = "endstream".getBytes();
+
+    public static final int MAX_CACHED_ESTIMATES = 1000;
+
+    protected static final Map<String, Estimate> cache = new LinkedHashMap<String, Estimate>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Estimate> eldest) {
+            return size() > MAX_CACHED_ESTIMATES;
+        }
+    };
+
+    /**
+     * What the estimator found in the PDF
+     */
+    public static class Estimate {
+
+        protected long fileSize;
+
+        protected long objectCount;
+
+        protected long streamCount;
+
+        protected long streamSize;
+
+        protected long imageCount;
+
+        protected long largestImageSize;
+
+        /**
+         * @return the size of the PDF, in bytes
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /**
+         * @return the number of objects, the largest of the objects found and the size of the cross-reference table
+         */
+        public long getObjectCount() {
+            return objectCount;
+        }
+
+        public long getStreamCount() {
+            return streamCount;
+        }
+
+        /**
+         * @return the size of all the streams, rounded to the blocks used by PDFBox
+         */
+        public long getStreamSize() {
+            return streamSize;
+        }
+
+        public long getImageCount() {
+            return imageCount;
+        }
+
+        /**
+         * @return the size in bytes of the largest image once decoded
+         */
+        public long getLargestImageSize() {
+            return largestImageSize;
+        }
+
+        /**
+         * @param inScratchFile true if the PDF is loaded with a scratch file, which holds the data of the streams
+         * @return the estimated peak heap, in bytes
+         */
+        public long getHeap(boolean inScratchFile) {
+            long heap = objectCount * OBJECT_SIZE + largestImageSize;
+            if (!inScratchFile) {
+                heap += streamSize;
+            }
+            return heap;
+        }
+
+        @Override
+        public String toString() {
+            return "fileSize=" + fileSize + ", objects=" + objectCount + ", streams=" + streamCount + ", streamSize="
+                    + streamSize + ", images=" + imageCount + ", largestImage=" + largestImageSize + ", heap="
+                    + getHeap(false);
+        }
+    }
+
+    /**
+     * @param inBlob
+     * @return the estimate for the blob
+     * @throws NuxeoException if the blob cannot be read
+     */
+    public static Estimate estimate(Blob inBlob) throws NuxeoException {
+
+        String cacheKey = StringUtils.isBlank(inBlob.getDigest()) ? null
+                : inBlob.getDigestAlgorithm() + ":" + inBlob.getDigest();
+        if (cacheKey != null) {
+            synchronized (cache) {
+                Estimate cached = cache.get(cacheKey);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
+        Estimate estimate = null;
+        File file = inBlob.getFile();
+        if (file != null) {
+            try {
+                estimate = estimate(file);
+            } catch (IOException e) {
+                log.debug("Cannot use the cross-reference table of " + inBlob.getFilename() + ", reading the PDF", e);
+            }
+        }
+        if (estimate == null) {
+            try (InputStream in = inBlob.getStream()) {
+                estimate = estimate(in);
+            } catch (IOException e) {
+                throw new NuxeoException("Failed to read the PDF", e);
+            }
+        }
+
+        if (cacheKey != null) {
+            synchronized (cache) {
+                cache.put(cacheKey, estimate);
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Finds the objects with the cross-reference table, and only reads their dictionary.
+     *
+     * @param inFile
+     * @return the estimate for the PDF
+     * @throws IOException if the cross-reference table cannot be parsed
+     */
+    public static Estimate estimate(File inFile) throws IOException {
+
+        long[] offsets;
+        long tableSize;
+        LazyPDFParser parser = new LazyPDFParser(inFile, null, null);
+        try {
+            parser.open();
+            Map<COSObjectKey, Long> xref = parser.getXrefTable();
+            tableSize = Math.max(xref.size(), parser.getTrailer().getLong(COSName.SIZE));
+            offsets = new long[xref.size()];
+            int count = 0;
+            for (Long offset : xref.values()) {
+                // Negative for an object stored in an object stream
+                if (offset != null && offset > 0) {
+                    offsets[count++] = offset;
+                }
+            }
+            offsets = Arrays.copyOf(offsets, count);
+        } finally {
+            parser.close();
+        }
+        if (offsets.length == 0) {
+            throw new IOException("No object found in the cross-reference table");
+        }
+        Arrays.sort(offsets);
+
+        long fileSize = inFile.length();
+        Scanner scanner = new Scanner(null);
+        scanner.tableSize = tableSize;
+        byte[] header = new byte[MAX_DICTIONARY_LENGTH + 64];
+        try (RandomAccessFile raf = new RandomAccessFile(inFile, "r")) {
+            for (int i = 0; i < offsets.length; i++) {
+                long span = (i + 1 < offsets.length ? offsets[i + 1] : fileSize) - offsets[i];
+                if (span <= 0 || offsets[i] >= fileSize) {
+                    continue;
+                }
+                int length = (int) Math.min(span, header.length);
+                raf.seek(offsets[i]);
+                raf.readFully(header, 0, length);
+                scanner.reset(new ByteArrayInputStream(header, 0, length), span);
+                scanner.scanObjects();
+            }
+        }
+        return scanner.finish(fileSize);
+    }
+
+    /**
+     * @param inStream the PDF. It is not closed.
+     * @return the estimate for the PDF
+     * @throws IOException
+     */
+    public static Estimate estimate(InputStream inStream) throws IOException {
+        return new Scanner(inStream).scan();
+    }
+
+    /**
+     * Reads the PDF once, tracking the dictionaries and the <code>obj</code> and <code>stream</code> keywords. The data
+     * of a stream is skipped using its length, or scanned for <code>endstream</code> when the length is an indirect
+     * object. It can also scan the objects one by one (see {@link #reset(InputStream, long)}).
+     */
+    protected static class Scanner {
+
+        protected InputStream in;
+
+        protected final byte[] buffer = new byte[65536];
+
+        protected int position = 0;
+
+        protected int limit = 0;
+
+        protected long offset = 0;
+
+        protected final Estimate estimate = new Estimate();
+
+        protected long objects = 0;
+
+        protected long tableSize = 0;
+
+        protected long objectsInStreams = 0;
+
+        // The length of the stream that follows the last dictionary, -1 if unknown or not a stream dictionary
+        protected long pendingLength = -1;
+
+        // The size of the object being scanned, -1 when scanning the whole PDF
+        protected long objectSpan = -1;
+
+        protected Scanner(InputStream inStream) {
+            in = inStream;
+        }
+
+        /**
+         * Starts the scan of one object, the counts are added to the ones of the previous objects.
+         *
+         * @param inStream the beginning of the object
+         * @param inObjectSpan the size of the object, up to the next one in the file
+         */
+        protected void reset(InputStream inStream, long inObjectSpan) {
+            in = inStream;
+            objectSpan = inObjectSpan;
+            position = 0;
+            limit = 0;
+            offset = 0;
+            pendingLength = -1;
+        }
+
+        protected int read() throws IOException {
+            if (position == limit) {
+                offset += limit;
+                position = 0;
+                limit = Math.max(0, in.read(buffer, 0, buffer.length));
+                if (limit == 0) {
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        protected int peek() throws IOException {
+            int c = read();
+            if (c != -1) {
+                position--;
+            }
+            return c;
+        }
+
+        protected void skip(long inCount) throws IOException {
+            long remaining = inCount;
+            int buffered = Math.min(limit - position, (int) Math.min(remaining, Integer.MAX_VALUE));
+            position += buffered;
+            remaining -= buffered;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                offset += skipped;
+                remaining -= skipped;
+            }
+        }
+
+        protected Estimate scan() throws IOException {
+            scanObjects();
+            return finish(offset + limit);
+        }
+
+        protected Estimate finish(long inFileSize) {
+            estimate.fileSize = inFileSize;
+            estimate.objectCount = Math.max(objects + objectsInStreams, tableSize);
+            return estimate;
+        }
+
+        protected void scanObjects() throws IOException {
+
+            StringBuilder dictionary = new StringBuilder();
+            int depth = 0;
+            int streamMatch = 0;
+            int c;
+            int previous = ' ';
+            // Last 4 bytes, to find " obj"
+            int window = 0;
+
+            while ((c = read()) != -1) {
+                if (c == '<' && peek() == '<') {
+                    read();
+                    if (depth++ == 0) {
+                        dictionary.setLength(0);
+                    } else if (dictionary.length() < MAX_DICTIONARY_LENGTH) {
+                        dictionary.append("<<");
+                    }
+                } else if (c == '>' && depth > 0 && peek() == '>') {
+                    read();
+                    if (--depth == 0) {
+                        analyze(dictionary);
+                    } else if (dictionary.length() < MAX_DICTIONARY_LENGTH) {
+                        dictionary.append(">>");
+                    }
+                } else if (depth > 0) {
+                    if (dictionary.length() < MAX_DICTIONARY_LENGTH) {
+                        dictionary.append((char) c);
+                    }
+                } else {
+                    window = (window << 8) | c;
+                    if ((window & 0xFFFFFF) == ('o' << 16 | 'b' << 8 | 'j') && isWhiteSpace(window >>> 24)) {
+                        objects++;
+                        pendingLength = -1;
+                    }
+                    // "stream", but not "endstream"
+                    if (c == STREAM[streamMatch] && (streamMatch > 0 || previous != 'd')) {
+                        if (++streamMatch == STREAM.length) {
+                            streamMatch = 0;
+                            skipStream();
+                        }
+                    } else {
+                        streamMatch = 0;
+                    }
+                }
+                previous = c;
+            }
+        }
+
+        protected void analyze(CharSequence inDictionary) {
+
+            pendingLength = -1;
+            String dictionary = inDictionary.toString();
+            Matcher m = LENGTH.matcher(dictionary);
+            if (m.find()) {
+                pendingLength = Long.parseLong(m.group(1));
+            } else if (dictionary.contains("/Length")) {
+                pendingLength = Long.MAX_VALUE;
+            }
+            if (TYPE_OBJECT_STREAM.matcher(dictionary).find()) {
+                m = COUNT.matcher(dictionary);
+                if (m.find()) {
+                    objectsInStreams += Long.parseLong(m.group(1));
+                }
+            }
+            m = SIZE.matcher(dictionary);
+            if (m.find()) {
+                tableSize = Math.max(tableSize, Long.parseLong(m.group(1)));
+            }
+            if (SUBTYPE_IMAGE.matcher(dictionary).find()) {
+                Matcher w = WIDTH.matcher(dictionary);
+                Matcher h = HEIGHT.matcher(dictionary);
+                if (w.find() && h.find()) {
+                    estimate.imageCount++;
+                    // Decoded as a 4 bytes per pixel image
+                    long size = Long.parseLong(w.group(1)) * Long.parseLong(h.group(1)) * 4;
+                    estimate.largestImageSize = Math.max(estimate.largestImageSize, size);
+                }
+            }
+        }
+
+        protected void skipStream() throws IOException {
+
+            if (pendingLength < 0) {
+                // Not after a stream dictionary
+                return;
+            }
+            estimate.streamCount++;
+
+            int c = read();
+            if (c == '\r' && peek() == '\n') {
+                read();
+            }
+
+            long length;
+            if (pendingLength != Long.MAX_VALUE) {
+                length = pendingLength;
+                skip(length);
+            } else if (objectSpan >= 0) {
+                // The stream ends with the object, whose size is known from the cross-reference table
+                length = Math.max(0, objectSpan - offset - position);
+            } else {
+                length = 0;
+                int match = 0;
+                while ((c = read()) != -1) {
+                    length++;
+                    if (c == END_STREAM[match]) {
+                        if (++match == END_STREAM.length) {
+                            length -= END_STREAM.length;
+                            break;
+                        }
+                    } else {
+                        match = c == END_STREAM[0] ? 1 : 0;
+                    }
+                }
+            }
+            estimate.streamSize += (length / STREAM_BLOCK_SIZE + 1) * STREAM_BLOCK_SIZE;
+            pendingLength = -1;
+        }
+
+        protected static boolean isWhiteSpace(int inChar) {
+            return inChar == ' ' || inChar == '\n' || inChar == '\r' || inChar == '\t' || inChar == '\f'
+                    || inChar == 0;
+        }
+    }
+
+}
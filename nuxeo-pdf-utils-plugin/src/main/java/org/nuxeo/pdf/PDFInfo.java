@@ -36,11 +36,11 @@ import org.apache.pdfbox.pdmodel.common.PDMetadata;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import org.apache.pdfbox.pdmodel.encryption.BadSecurityHandlerException;
-import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.pdf.encryption.PasswordVerifier;
 
 /**
  * The class will parse the info embedded in a PDF, and return them either
@@ -199,6 +199,14 @@ public class PDFInfo {
      */
     public void run() throws NuxeoException {
 
+        PDFUtils.execute("info", () -> {
+            doRun();
+            return null;
+        }, pdfBlob);
+    }
+
+    protected void doRun() throws NuxeoException {
+
         // In case the caller calls several time the run() method
         if (!alreadyParsed) {
 
@@ -211,12 +219,11 @@ public class PDFInfo {
             }
 
             try {
-                pdfDoc = PDDocument.load(pdfBlob.getStream());
+                pdfDoc = PDFUtils.load(pdfBlob.getStream());
 
                 isEncrypted = pdfDoc.isEncrypted();
                 if (isEncrypted) {
-                    pdfDoc.openProtection(new StandardDecryptionMaterial(
-                            password));
+                    PasswordVerifier.getInstance().openProtection(pdfDoc, pdfBlob, password);
                 }
 
                 numberOfPages = pdfDoc.getNumberOfPages();
@@ -0,0 +1,449 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Index of the links between PDFs ("GoToR" and "Launch" links, see {@link PDFLinks}), stored in a file.
+ * <p>
+ * The links of a PDF are extracted only once per blob digest. After that, "what does this PDF link to"
+ * ({@link #getLinksFrom(String)}) and "who links to this file" ({@link #getLinksTo(String)}) are answered from the
+ * index, without opening any PDF.
+ * <p>
+ * Links usually are relative paths ("linked-pdf/linked-pdf-3.pdf", "../Chap3.pdf"), so {@link #getLinksTo(String)}
+ * matches the file name of the target, without its path.
+ * <p>
+ * The index is kept in memory as a table of unique strings and one <code>int</code> array per column, and is written
+ * with the same layout (gzipped) by {@link #save()}. Methods are thread safe, several threads can add PDFs at the
+ * same time.
+ *
+ * @since 8.10
+ */
+public class PDFLinkIndex {
+
+    /**
+     * A link read from the index: The {@link LinkInfo}, plus the PDF containing it.
+     */
+    public static class IndexedLink extends LinkInfo {
+
+        protected String sourceDigest;
+
+        protected String sourceFilename;
+
+        public IndexedLink(String sourceDigest, String sourceFilename, int page, String subType, String text,
+                String link) {
+            super(page, subType, text, link);
+            this.sourceDigest = sourceDigest;
+            this.sourceFilename = sourceFilename;
+        }
+
+        public String getSourceDigest() {
+            return sourceDigest;
+        }
+
+        public String getSourceFilename() {
+            return sourceFilename;
+        }
+
+        @Override
+        public String toString() {
+            return sourceFilename + " (" + sourceDigest + "), " + super.toString();
+        }
+    }
+
+    /*
+     * Growable list of link indexes
+     */
+    protected static class Postings {
+
+        protected int[] values = new int[4];
+
+        protected int size;
+
+        protected void add(int inValue) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = inValue;
+        }
+    }
+
+    protected static final int MAGIC = 0x504C4E4B; // "PLNK"
+
+    protected static final int VERSION = 1;
+
+    protected File file;
+
+    protected String password;
+
+    protected ArrayList<String> strings = new ArrayList<String>();
+
+    protected HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+
+    // Indexed PDFs: id of the digest => id of the file name
+    protected HashMap<Integer, Integer> documents = new HashMap<Integer, Integer>();
+
+    // The links, one array per column. Values are ids in the string table, except for the page
+    protected int[] sources = new int[64];
+
+    protected int[] pages = new int[64];
+
+    protected int[] subTypes = new int[64];
+
+    protected int[] texts = new int[64];
+
+    protected int[] targets = new int[64];
+
+    protected int size;
+
+    // Id of the digest => links of the PDF
+    protected HashMap<Integer, Postings> linksFrom = new HashMap<Integer, Postings>();
+
+    // Id of the file name of the target => links to this file
+    protected HashMap<Integer, Postings> linksTo = new HashMap<Integer, Postings>();
+
+    /**
+     * Loads the index if <code>inFile</code> exists. The index is written to <code>inFile</code> by {@link #save()}
+     *
+     * @param inFile
+     * @throws NuxeoException if the file exists and cannot be read
+     */
+    public PDFLinkIndex(File inFile) throws NuxeoException {
+
+        file = inFile;
+        if (file.exists() && file.length() > 0) {
+            try {
+                load();
+            } catch (IOException e) {
+                throw new NuxeoException("Cannot read the link index " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Extracts the links of the blob and adds them to the index. Does nothing if a blob with the same digest is
+     * already indexed.
+     *
+     * @param inBlob
+     * @return true if the blob was indexed, false if it already was
+     * @throws NuxeoException
+     */
+    public boolean add(Blob inBlob) throws NuxeoException {
+
+        String digest = getDigest(inBlob);
+        if (contains(digest)) {
+            return false;
+        }
+
+        // Extracted outside the lock, so other threads can query or index meanwhile
+        PDFLinks pdfl = new PDFLinks(inBlob);
+        try {
+            pdfl.setPassword(password);
+            List<LinkInfo> links = new ArrayList<LinkInfo>(pdfl.getRemoteGoToLinks());
+            links.addAll(pdfl.getLaunchLinks());
+            return add(digest, inBlob.getFilename(), links);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot extract the links of " + inBlob.getFilename(), e);
+        } finally {
+            pdfl.close();
+        }
+    }
+
+    /**
+     * Adds links already extracted from a PDF. Does nothing if the digest is already indexed.
+     *
+     * @param inDigest
+     * @param inFilename
+     * @param inLinks
+     * @return true if the links were added, false if the digest already was indexed
+     */
+    public synchronized boolean add(String inDigest, String inFilename, List<LinkInfo> inLinks) {
+
+        int digestId = getStringId(inDigest);
+        if (documents.containsKey(digestId)) {
+            return false;
+        }
+        documents.put(digestId, getStringId(inFilename));
+
+        for (LinkInfo li : inLinks) {
+            addLink(digestId, li.getPage(), getStringId(li.getSubType()), getStringId(li.getText()),
+                    getStringId(li.getLink()));
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(String inDigest) {
+
+        Integer id = stringIds.get(inDigest);
+        return id != null && documents.containsKey(id);
+    }
+
+    /**
+     * @return the number of indexed PDFs
+     */
+    public synchronized int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * @return the number of indexed links
+     */
+    public synchronized int getLinkCount() {
+        return size;
+    }
+
+    /**
+     * What does the PDF link to
+     *
+     * @param inDigest
+     * @return the links of the PDF, empty if it is not indexed
+     */
+    public synchronized List<IndexedLink> getLinksFrom(String inDigest) {
+
+        Integer id = stringIds.get(inDigest);
+        return toLinks(id == null ? null : linksFrom.get(id));
+    }
+
+    /**
+     * What does the PDF link to. The blob is not indexed if it is not already.
+     *
+     * @param inBlob
+     * @return the links of the PDF, empty if it is not indexed
+     */
+    public List<IndexedLink> getLinksFrom(Blob inBlob) {
+        return getLinksFrom(getDigest(inBlob));
+    }
+
+    /**
+     * Who links to this file. Only the file name is used: "a/b/file.pdf" and "file.pdf" return the same links.
+     *
+     * @param inFileName
+     * @return the links whose target has this file name
+     */
+    public synchronized List<IndexedLink> getLinksTo(String inFileName) {
+
+        Integer id = stringIds.get(getFileName(inFileName));
+        return toLinks(id == null ? null : linksTo.get(id));
+    }
+
+    /**
+     * Who links to this file, using the file name of the blob
+     *
+     * @param inBlob
+     * @return the links whose target has the file name of the blob
+     */
+    public List<IndexedLink> getLinksTo(Blob inBlob) {
+        return getLinksTo(inBlob.getFilename());
+    }
+
+    /**
+     * Writes the index to its file. The previous file is replaced only once the new one is complete.
+     *
+     * @throws NuxeoException
+     */
+    public synchronized void save() throws NuxeoException {
+
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                out.writeInt(strings.size());
+                for (String s : strings) {
+                    byte[] bytes = s.getBytes("UTF-8");
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+
+                out.writeInt(documents.size());
+                for (Integer digestId : documents.keySet()) {
+                    out.writeInt(digestId);
+                    out.writeInt(documents.get(digestId));
+                }
+
+                out.writeInt(size);
+                for (int[] column : new int[][] { sources, pages, subTypes, texts, targets }) {
+                    for (int i = 0; i < size; i++) {
+                        out.writeInt(column[i]);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new NuxeoException("Cannot write the link index " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Set the password to use when extracting the links of a protected PDF
+     *
+     * @param inValue
+     */
+    public void setPassword(String inValue) {
+        password = inValue;
+    }
+
+    protected void load() throws IOException {
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a link index, or unsupported version");
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                getStringId(new String(bytes, "UTF-8"));
+            }
+
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                documents.put(in.readInt(), in.readInt());
+            }
+
+            count = in.readInt();
+            int[][] columns = new int[5][count];
+            for (int[] column : columns) {
+                for (int i = 0; i < count; i++) {
+                    column[i] = in.readInt();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                addLink(columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i]);
+            }
+        }
+    }
+
+    protected void addLink(int inSource, int inPage, int inSubType, int inText, int inTarget) {
+
+        if (size == sources.length) {
+            int newLength = size * 2;
+            sources = Arrays.copyOf(sources, newLength);
+            pages = Arrays.copyOf(pages, newLength);
+            subTypes = Arrays.copyOf(subTypes, newLength);
+            texts = Arrays.copyOf(texts, newLength);
+            targets = Arrays.copyOf(targets, newLength);
+        }
+        sources[size] = inSource;
+        pages[size] = inPage;
+        subTypes[size] = inSubType;
+        texts[size] = inText;
+        targets[size] = inTarget;
+
+        getPostings(linksFrom, inSource).add(size);
+        getPostings(linksTo, getStringId(getFileName(strings.get(inTarget)))).add(size);
+
+        size += 1;
+    }
+
+    protected Postings getPostings(HashMap<Integer, Postings> inMap, int inKey) {
+
+        Postings p = inMap.get(inKey);
+        if (p == null) {
+            p = new Postings();
+            inMap.put(inKey, p);
+        }
+        return p;
+    }
+
+    protected int getStringId(String inValue) {
+
+        String value = inValue == null ? "" : inValue;
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    protected List<IndexedLink> toLinks(Postings inPostings) {
+
+        List<IndexedLink> links = new ArrayList<IndexedLink>();
+        if (inPostings != null) {
+            for (int i = 0; i < inPostings.size; i++) {
+                int idx = inPostings.values[i];
+                links.add(new IndexedLink(strings.get(sources[idx]), strings.get(documents.get(sources[idx])),
+                        pages[idx], strings.get(subTypes[idx]), strings.get(texts[idx]), strings.get(targets[idx])));
+            }
+        }
+        return links;
+    }
+
+    /*
+     * The target without its path
+     */
+    protected static String getFileName(String inPath) {
+
+        if (inPath == null) {
+            return "";
+        }
+        int pos = Math.max(inPath.lastIndexOf('/'), inPath.lastIndexOf('\\'));
+        return pos < 0 ? inPath : inPath.substring(pos + 1);
+    }
+
+    /**
+     * The digest of the blob, or the MD5 of its content if it has none
+     *
+     * @param inBlob
+     * @return the digest
+     * @throws NuxeoException
+     */
+    public static String getDigest(Blob inBlob) throws NuxeoException {
+
+        if (StringUtils.isNotBlank(inBlob.getDigest())) {
+            return inBlob.getDigest();
+        }
+        try (InputStream in = inBlob.getStream()) {
+            return DigestUtils.md5Hex(in);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot compute the digest of " + inBlob.getFilename(), e);
+        }
+    }
+
+}
@@ -21,19 +21,29 @@ package org.nuxeo.pdf;
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDTextStream;
 import org.apache.pdfbox.pdmodel.common.filespecification.PDFileSpecification;
 import org.apache.pdfbox.pdmodel.interactive.action.type.PDAction;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionJavaScript;
 import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionLaunch;
+import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionNamed;
 import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionRemoteGoTo;
 import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionURI;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
 import org.apache.pdfbox.util.PDFTextStripperByArea;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.NuxeoException;
@@ -41,8 +51,9 @@ import org.nuxeo.ecm.core.api.NuxeoException;
 /**
  * Extract links as list of @ LinkInfo} from a pdf.
  * <p>
- * In this first version, extracts only the links of type PDActionRemoteGoTo and PDActionLaunch (typically, when a PDF
- * has a <i>relative</i> link to an external pdf)
+ * Extracts the links of type PDActionRemoteGoTo and PDActionLaunch (typically, when a PDF has a <i>relative</i> link
+ * to an external pdf), PDActionURI, PDActionGoTo, PDActionNamed and PDActionJavaScript. All the types are collected
+ * in a single pass on the document, the first time a get...Links() method is called.
  * <p>
  * If the pdf is encrypted, a call to <code>setPassword</code> must be done before any attempt to get the links.
  * <p>
@@ -67,6 +78,12 @@ public class PDFLinks {
 
     protected ArrayList<LinkInfo> uriLinks;
 
+    protected ArrayList<LinkInfo> goToLinks;
+
+    protected ArrayList<LinkInfo> namedLinks;
+
+    protected ArrayList<LinkInfo> javaScriptLinks;
+
     PDFTextStripperByArea stripper;
 
     public PDFLinks(Blob inBlob) {
@@ -89,53 +106,50 @@ public class PDFLinks {
         password = null;
         remoteGoToLinks = null;
         launchLinks = null;
+        uriLinks = null;
+        goToLinks = null;
+        namedLinks = null;
+        javaScriptLinks = null;
         stripper = null;
     }
 
     /*
-     * Here, we not only open and load the PDF? we also prepare regions, to get the text behing the annotation
-     * rectangles
+     * Open and load the PDF. The regions used to get the text behind the annotation rectangles are prepared page by
+     * page, when parsing the links
      */
     protected void loadAndPreflightPdf() throws NuxeoException {
 
         if (pdfDoc == null) {
             pdfDoc = PDFUtils.load(pdfBlob, password);
-
-            @SuppressWarnings("unchecked")
-            List<PDPage> allPages = pdfDoc.getDocumentCatalog().getAllPages();
             try {
                 stripper = new PDFTextStripperByArea();
-                for (PDPage page : allPages) {
-                    List<PDAnnotation> annotations = page.getAnnotations();
-                    for (int j = 0; j < annotations.size(); j++) {
-                        PDAnnotation annot = (PDAnnotation) annotations.get(j);
-                        if (annot instanceof PDAnnotationLink) {
-                            PDAnnotationLink link = (PDAnnotationLink) annot;
-                            PDRectangle rect = link.getRectangle();
-                            // need to reposition link rectangle to match text space
-                            float x = rect.getLowerLeftX();
-                            float y = rect.getUpperRightY();
-                            float width = rect.getWidth();
-                            float height = rect.getHeight();
-                            int rotation = page.findRotation();
-                            if (rotation == 0) {
-                                PDRectangle pageSize = page.findMediaBox();
-                                y = pageSize.getHeight() - y;
-                            } else if (rotation == 90) {
-                                // do nothing
-                            }
-
-                            Rectangle2D.Float awtRect = new Rectangle2D.Float(x, y, width, height);
-                            stripper.addRegion("" + j, awtRect);
-                        }
-                    }
-                }
             } catch (IOException e) {
                 throw new NuxeoException("Cannot prefilght and prepare regions", e);
             }
         }
     }
 
+    /*
+     * Link rectangle, repositioned to match the text space
+     */
+    protected Rectangle2D.Float getTextRectangle(PDPage inPage, PDAnnotationLink inLink) {
+
+        PDRectangle rect = inLink.getRectangle();
+        float x = rect.getLowerLeftX();
+        float y = rect.getUpperRightY();
+        float width = rect.getWidth();
+        float height = rect.getHeight();
+        int rotation = inPage.findRotation();
+        if (rotation == 0) {
+            PDRectangle pageSize = inPage.findMediaBox();
+            y = pageSize.getHeight() - y;
+        } else if (rotation == 90) {
+            // do nothing
+        }
+
+        return new Rectangle2D.Float(x, y, width, height);
+    }
+
     /**
      * Return all links of type "GoToR" ({@link PDActionRemoteGoTo.SUB_TYPE})
      * 
@@ -145,12 +159,7 @@ public class PDFLinks {
      */
     public ArrayList<LinkInfo> getRemoteGoToLinks() throws IOException {
 
-        if (remoteGoToLinks == null) {
-
-            loadAndPreflightPdf();
-            remoteGoToLinks = parseForLinks(PDActionRemoteGoTo.SUB_TYPE);
-        }
-
+        parseForAllLinks();
         return remoteGoToLinks;
 
     }
@@ -164,12 +173,7 @@ public class PDFLinks {
      */
     public ArrayList<LinkInfo> getLaunchLinks() throws IOException {
 
-        if (launchLinks == null) {
-
-            loadAndPreflightPdf();
-            launchLinks = parseForLinks(PDActionLaunch.SUB_TYPE);
-        }
-
+        parseForAllLinks();
         return launchLinks;
 
     }
@@ -183,33 +187,131 @@ public class PDFLinks {
      */
     public ArrayList<LinkInfo> getURILinks() throws IOException {
 
-        if (uriLinks == null) {
+        parseForAllLinks();
+        return uriLinks;
 
-            loadAndPreflightPdf();
-            uriLinks = parseForLinks(PDActionURI.SUB_TYPE);
-        }
+    }
 
-        return uriLinks;
+    /**
+     * Return all links of type "GoTo" ({@link PDActionGoTo.SUB_TYPE}), including link annotations having a
+     * destination and no action.
+     * <p>
+     * The link value is the target page number (starting at 1), or the name of the destination for a named
+     * destination.
+     * 
+     * @return
+     * @throws IOException
+     * @since 8.10
+     */
+    public ArrayList<LinkInfo> getGoToLinks() throws IOException {
+
+        parseForAllLinks();
+        return goToLinks;
 
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Return all links of type "Named" ({@link PDActionNamed.SUB_TYPE}). The link value is the name of the action
+     * (NextPage, PrevPage, ...)
+     * 
+     * @return
+     * @throws IOException
+     * @since 8.10
+     */
+    public ArrayList<LinkInfo> getNamedLinks() throws IOException {
+
+        parseForAllLinks();
+        return namedLinks;
+
+    }
+
+    /**
+     * Return all links of type "JavaScript" ({@link PDActionJavaScript.SUB_TYPE}). The link value is the script.
+     * 
+     * @return
+     * @throws IOException
+     * @since 8.10
+     */
+    public ArrayList<LinkInfo> getJavaScriptLinks() throws IOException {
+
+        parseForAllLinks();
+        return javaScriptLinks;
+
+    }
+
+    /**
+     * Return the links of the given subtype. All the link types are collected by the same pass on the document, so
+     * getting several types costs one pass.
+     * 
+     * @param inSubType
+     * @return
+     * @throws IOException
+     * @since 8.1
+     */
     protected ArrayList<LinkInfo> parseForLinks(String inSubType) throws IOException {
 
-        PDActionRemoteGoTo goTo;
-        PDActionLaunch launch;
-        PDActionURI uri;
-        PDFileSpecification fspec;
+        parseForAllLinks();
+        switch (inSubType) {
+        case PDActionRemoteGoTo.SUB_TYPE:
+            return remoteGoToLinks;
+
+        case PDActionLaunch.SUB_TYPE:
+            return launchLinks;
+
+        case PDActionURI.SUB_TYPE:
+            return uriLinks;
+
+        case PDActionGoTo.SUB_TYPE:
+            return goToLinks;
 
-        ArrayList<LinkInfo> li = new ArrayList<LinkInfo>();
+        case PDActionNamed.SUB_TYPE:
+            return namedLinks;
+
+        case PDActionJavaScript.SUB_TYPE:
+            return javaScriptLinks;
+        }
+
+        return new ArrayList<LinkInfo>();
+    }
+
+    /*
+     * Walks the pages only once, and dispatches every link to the list of its subtype. The text is extracted only on
+     * pages having links, and only for the link rectangles of the page.
+     */
+    @SuppressWarnings("unchecked")
+    protected void parseForAllLinks() throws IOException {
+
+        if (remoteGoToLinks != null) {
+            return;
+        }
+
+        loadAndPreflightPdf();
+
+        ArrayList<LinkInfo> remoteGoTo = new ArrayList<LinkInfo>();
+        ArrayList<LinkInfo> launch = new ArrayList<LinkInfo>();
+        ArrayList<LinkInfo> uri = new ArrayList<LinkInfo>();
+        ArrayList<LinkInfo> goTo = new ArrayList<LinkInfo>();
+        ArrayList<LinkInfo> named = new ArrayList<LinkInfo>();
+        ArrayList<LinkInfo> javaScript = new ArrayList<LinkInfo>();
 
         List<PDPage> allPages;
         allPages = pdfDoc.getDocumentCatalog().getAllPages();
+
+        // Page numbers of the "GoTo" destinations, without walking the page tree for each link
+        Map<COSDictionary, Integer> pageNumbers = new IdentityHashMap<COSDictionary, Integer>();
         int pageNum = 0;
         for (PDPage page : allPages) {
             pageNum += 1;
+            pageNumbers.put(page.getCOSDictionary(), pageNum);
+        }
+
+        // Links of the current page (without their text yet) and their list. Region names are the indexes.
+        ArrayList<ArrayList<LinkInfo>> pageLists = new ArrayList<ArrayList<LinkInfo>>();
+        ArrayList<LinkInfo> pageLinks = new ArrayList<LinkInfo>();
 
-            stripper.extractRegions(page);
+        pageNum = 0;
+        for (PDPage page : allPages) {
+            pageNum += 1;
 
             List<PDAnnotation> annotations = page.getAnnotations();
             for (int j = 0; j < annotations.size(); j++) {
@@ -218,40 +320,116 @@ public class PDFLinks {
 
                     PDAnnotationLink link = (PDAnnotationLink) annot;
                     PDAction action = link.getAction();
-                    if (action.getSubType().equals(inSubType)) {
-                        String urlText = stripper.getTextForRegion("" + j);
-                        String urlValue = null;
-                        switch (inSubType) {
+                    String subType;
+                    String urlValue = null;
+                    ArrayList<LinkInfo> li;
+                    if (action == null) {
+                        if (link.getDestination() == null) {
+                            continue;
+                        }
+                        subType = PDActionGoTo.SUB_TYPE;
+                        urlValue = getDestinationValue(link.getDestination(), pageNumbers);
+                        li = goTo;
+                    } else {
+                        subType = action.getSubType();
+                        if (subType == null) {
+                            continue;
+                        }
+                        switch (subType) {
                         case PDActionRemoteGoTo.SUB_TYPE:
-                            goTo = (PDActionRemoteGoTo) action;
-                            fspec = goTo.getFile();
-                            urlValue = fspec.getFile();
+                            urlValue = getFileValue(((PDActionRemoteGoTo) action).getFile());
+                            li = remoteGoTo;
                             break;
 
                         case PDActionLaunch.SUB_TYPE:
-                            launch = (PDActionLaunch) action;
-                            fspec = launch.getFile();
-                            urlValue = fspec.getFile();
+                            urlValue = getFileValue(((PDActionLaunch) action).getFile());
+                            li = launch;
                             break;
 
                         case PDActionURI.SUB_TYPE:
-                            uri = (PDActionURI) action;
-                            urlValue = uri.getURI();
+                            urlValue = ((PDActionURI) action).getURI();
+                            li = uri;
+                            break;
+
+                        case PDActionGoTo.SUB_TYPE:
+                            urlValue = getDestinationValue(((PDActionGoTo) action).getDestination(), pageNumbers);
+                            li = goTo;
+                            break;
+
+                        case PDActionNamed.SUB_TYPE:
+                            urlValue = ((PDActionNamed) action).getN();
+                            li = named;
+                            break;
+
+                        case PDActionJavaScript.SUB_TYPE:
+                            PDTextStream script = ((PDActionJavaScript) action).getAction();
+                            urlValue = script == null ? null : script.getAsString();
+                            li = javaScript;
                             break;
-                            
+
                         // . . . Others . . .
+                        default:
+                            continue;
                         }
+                    }
 
-                        if (StringUtils.isNotBlank(urlValue)) {
-                            li.add(new LinkInfo(pageNum, inSubType, urlText, urlValue));
-                        }
+                    if (StringUtils.isNotBlank(urlValue)) {
+                        stripper.addRegion("" + pageLinks.size(), getTextRectangle(page, link));
+                        pageLinks.add(new LinkInfo(pageNum, subType, null, urlValue));
+                        pageLists.add(li);
                     }
                 }
             }
 
+            // Pages without links are not processed at all
+            if (pageLinks.size() > 0) {
+                stripper.extractRegions(page);
+                for (int i = 0; i < pageLinks.size(); i++) {
+                    LinkInfo info = pageLinks.get(i);
+                    String region = "" + i;
+                    pageLists.get(i).add(new LinkInfo(pageNum, info.getSubType(), stripper.getTextForRegion(region),
+                            info.getLink()));
+                    stripper.removeRegion(region);
+                }
+                pageLinks.clear();
+                pageLists.clear();
+            }
+
+        }
+
+        launchLinks = launch;
+        uriLinks = uri;
+        goToLinks = goTo;
+        namedLinks = named;
+        javaScriptLinks = javaScript;
+        // Set last, it flags the parsing as done
+        remoteGoToLinks = remoteGoTo;
+    }
+
+    protected String getFileValue(PDFileSpecification inFileSpec) {
+
+        return inFileSpec == null ? null : inFileSpec.getFile();
+    }
+
+    protected String getDestinationValue(PDDestination inDest, Map<COSDictionary, Integer> inPageNumbers) {
+
+        if (inDest instanceof PDNamedDestination) {
+            return ((PDNamedDestination) inDest).getNamedDestination();
+        }
+
+        if (inDest instanceof PDPageDestination) {
+            PDPageDestination pageDest = (PDPageDestination) inDest;
+            PDPage page = pageDest.getPage();
+            if (page == null) {
+                // Destination in another document, or page given as a number (0-based)
+                int num = pageDest.getPageNumber();
+                return num < 0 ? null : "" + (num + 1);
+            }
+            Integer num = inPageNumbers.get(page.getCOSDictionary());
+            return num == null ? null : num.toString();
         }
 
-        return li;
+        return null;
     }
 
     public void setPassword(String password) {
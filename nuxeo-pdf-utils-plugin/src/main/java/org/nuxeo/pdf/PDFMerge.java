@@ -30,6 +30,7 @@ import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.runtime.api.Framework;
 
@@ -157,6 +158,20 @@ public class PDFMerge {
     public Blob merge(String inFileName, String inTitle, String inSubject,
             String inAuthor) throws IOException, COSVisitorException {
 
+        try {
+            return PDFUtils.execute("merge", () -> doMerge(inFileName, inTitle, inSubject, inAuthor),
+                    blobs.toArray(new Blob[blobs.size()]));
+        } catch (IOException | COSVisitorException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Not thrown by doMerge
+            throw new NuxeoException(e);
+        }
+    }
+
+    protected Blob doMerge(String inFileName, String inTitle, String inSubject,
+            String inAuthor) throws IOException, COSVisitorException {
+
         Blob finalBlob = null;
 
         switch (blobs.size()) {
@@ -174,10 +189,13 @@ public class PDFMerge {
                 ut.addSource(b.getStream());
             }
 
+            long start = System.nanoTime();
             File tempFile = File.createTempFile("mergepdf", ".pdf");
             ut.setDestinationFileName(tempFile.getAbsolutePath());
 
+            // The merger parses the sources and writes the result in one go
             ut.mergeDocuments();
+            PDFMetrics.saved(start, tempFile.length());
 
             if (inTitle != null || inAuthor != null || inSubject != null) {
                 PDDocument finalDoc = PDDocument.load(tempFile);
@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
+/**
+ * Metrics of the PDF operations, reported in the Nuxeo metrics registry. The name of each metric contains the
+ * operation it measures: <code>nuxeo.pdfutils.&lt;operation&gt;.&lt;metric&gt;</code>, where the operation is the one
+ * running on the current thread (see {@link PDFAdmissionGate#getCurrentPermit()}), or <code>direct</code> when the
+ * code is called outside of an operation.
+ * <ul>
+ * <li><code>total</code>: timer, the duration of the operation, including the wait for the admission gate and the
+ * pool</li>
+ * <li><code>failures</code>: counter, the operations which failed</li>
+ * <li><code>parse</code>: timer, the time to load a PDF</li>
+ * <li><code>page</code>: timer, the time to process one page. Its count is the number of pages processed</li>
+ * <li><code>save</code>: timer, the time to save a PDF</li>
+ * <li><code>bytesIn</code>, <code>bytesOut</code>: histograms, the size of the input and output PDFs</li>
+ * <li><code>pages</code>: histogram, the number of pages of the loaded PDFs</li>
+ * </ul>
+ *
+ * @since 8.10
+ */
+public class PDFMetrics {
+
+    public static final String PREFIX = "nuxeo.pdfutils";
+
+    public static final String DIRECT_OPERATION = "direct";
+
+    public static final String TOTAL = "total";
+
+    public static final String FAILURES = "failures";
+
+    public static final String PARSE = "parse";
+
+    public static final String PAGE = "page";
+
+    public static final String SAVE = "save";
+
+    public static final String BYTES_IN = "bytesIn";
+
+    public static final String BYTES_OUT = "bytesOut";
+
+    public static final String PAGES = "pages";
+
+    protected static final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    public static MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return the operation running on the current thread, or {@link #DIRECT_OPERATION}
+     */
+    public static String getCurrentOperation() {
+        PDFAdmissionGate.Permit permit = PDFAdmissionGate.getCurrentPermit();
+        return permit == null ? DIRECT_OPERATION : permit.getOperation();
+    }
+
+    public static String name(String inOperation, String inMetric) {
+        return MetricRegistry.name(PREFIX, inOperation, inMetric);
+    }
+
+    public static Timer timer(String inOperation, String inMetric) {
+        return registry.timer(name(inOperation, inMetric));
+    }
+
+    public static Histogram histogram(String inOperation, String inMetric) {
+        return registry.histogram(name(inOperation, inMetric));
+    }
+
+    /**
+     * Returns the timer of the pages processed by the current operation. Callers looping on the pages get it once and
+     * call {@link Timer#time()} for each page.
+     */
+    public static Timer pageTimer() {
+        return timer(getCurrentOperation(), PAGE);
+    }
+
+    public static void parsed(long inStartNanos, int inPageCount) {
+        String operation = getCurrentOperation();
+        timer(operation, PARSE).update(System.nanoTime() - inStartNanos, TimeUnit.NANOSECONDS);
+        histogram(operation, PAGES).update(inPageCount);
+    }
+
+    public static void saved(long inStartNanos, long inSize) {
+        String operation = getCurrentOperation();
+        timer(operation, SAVE).update(System.nanoTime() - inStartNanos, TimeUnit.NANOSECONDS);
+        histogram(operation, BYTES_OUT).update(inSize);
+    }
+
+}
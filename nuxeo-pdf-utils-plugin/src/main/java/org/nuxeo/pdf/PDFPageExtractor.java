@@ -32,6 +32,8 @@ import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.runtime.api.Framework;
 
+import com.codahale.metrics.Timer;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -106,6 +108,13 @@ public class PDFPageExtractor {
     public Blob extract(int inStartPage, int inEndPage, String inFileName, String inTitle, String inSubject,
                         String inAuthor) throws NuxeoException {
 
+        return PDFUtils.execute("extract",
+                () -> doExtract(inStartPage, inEndPage, inFileName, inTitle, inSubject, inAuthor), pdfBlob);
+    }
+
+    protected Blob doExtract(int inStartPage, int inEndPage, String inFileName, String inTitle, String inSubject,
+                        String inAuthor) throws NuxeoException {
+
         Blob result = null;
         PDDocument pdfDoc = null;
         PDDocument extracted = null;
@@ -156,6 +165,11 @@ public class PDFPageExtractor {
     }
 
     public BlobList getPagesAsImages(String inFileName) throws NuxeoException {
+
+        return PDFUtils.execute("pagesAsImages", () -> doGetPagesAsImages(inFileName), pdfBlob);
+    }
+
+    protected BlobList doGetPagesAsImages(String inFileName) throws NuxeoException {
         // See https://github.com/levigo/jbig2-imageio#what-if-the-plugin-is-on-classpath-but-not-seen
         ImageIO.scanForPlugins();
 
@@ -188,7 +202,9 @@ public class PDFPageExtractor {
             int page = 0;
 
             // Convert each page to PNG.
+            Timer pageTimer = PDFMetrics.pageTimer();
             for (PDPage pdPage : pages) {
+                Timer.Context pageTime = pageTimer.time();
                 ++page;
 
                 resultFileName = inFileName + "-" + page;
@@ -207,6 +223,7 @@ public class PDFPageExtractor {
                 results.add(result);
 
                 Framework.trackFile(resultFile, result);
+                pageTime.stop();
             }
             pdfDoc.close();
 
@@ -23,16 +23,17 @@ import java.util.List;
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.pipeline.PageLabelTemplate;
+import org.nuxeo.pdf.pipeline.PageNumberStage;
+import org.nuxeo.pdf.pipeline.ParallelPageStamper;
 import org.nuxeo.runtime.api.Framework;
 
+import com.codahale.metrics.Timer;
+
 /**
  * Add page numbers to a PDF, with misc. parameters (font, size, color,
  * position)
@@ -51,6 +52,12 @@ public class PDFPageNumbering {
     
     protected String password;
 
+    protected boolean incrementalSave = false;
+
+    protected boolean parallel = false;
+
+    protected boolean writePageLabels = false;
+
     public PDFPageNumbering(Blob inBlob) {
         blob = inBlob;
     }
@@ -103,107 +110,84 @@ public class PDFPageNumbering {
             String inFontName, float inFontSize, String inHex255Color,
             PAGE_NUMBER_POSITION inPosition) throws NuxeoException {
 
+        return addPageNumbers(null, inStartAtPage, inStartAtNumber, inFontName, inFontSize, inHex255Color,
+                inPosition);
+    }
+
+    /**
+     * Same as {@link #addPageNumbers(int, int, String, float, String, PAGE_NUMBER_POSITION)}, but the label drawn on
+     * each page is built from a template, such as "Page {n} of {total}", "ACME{n:6}" or "{n:i}". See
+     * {@link PageLabelTemplate} for the syntax.
+     *
+     * @param inTemplate
+     * @param inStartAtPage
+     * @param inStartAtNumber
+     * @param inFontName
+     * @param inFontSize
+     * @param inHex255Color
+     * @param inPosition
+     * @return Blob
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public Blob addPageNumbers(String inTemplate, int inStartAtPage, int inStartAtNumber, String inFontName,
+            float inFontSize, String inHex255Color, PAGE_NUMBER_POSITION inPosition) throws NuxeoException {
+
+        return PDFUtils.execute("addPageNumbers", () -> doAddPageNumbers(inTemplate, inStartAtPage, inStartAtNumber,
+                inFontName, inFontSize, inHex255Color, inPosition), blob);
+    }
+
+    protected Blob doAddPageNumbers(String inTemplate, int inStartAtPage, int inStartAtNumber, String inFontName,
+            float inFontSize, String inHex255Color, PAGE_NUMBER_POSITION inPosition) throws NuxeoException {
+
         Blob result = null;
         PDDocument doc = null;
 
-        inStartAtPage = inStartAtPage < 1 ? 1 : inStartAtPage;
-        int pageNumber = inStartAtNumber < 1 ? 1 : inStartAtNumber;
-        inFontSize = inFontSize <= 0 ? DEFAULT_FONT_SIZE : inFontSize;
-
-        int[] rgb = PDFUtils.hex255ToRGB(inHex255Color);
+        PageNumberStage stage = new PageNumberStage(inTemplate, inStartAtPage, inStartAtNumber, inFontName,
+                inFontSize, inHex255Color, inPosition);
+        stage.setWritePageLabels(writePageLabels);
 
         try {
             doc = PDFUtils.load(blob, password);
-            
-            List<?> allPages;
-            PDFont font;
-            int max;
 
-            if (inFontName == null || inFontName.isEmpty()) {
-                font = PDType1Font.HELVETICA;
+            stage.begin(doc);
+
+            if (parallel) {
+                stage.stamp(doc, new ParallelPageStamper(doc).setMarkForIncrementalUpdate(incrementalSave));
             } else {
-                font = PDType1Font.getStandardFont(inFontName);
-                if (font == null) {
-                    font = new PDType1Font(inFontName);
+                List<?> allPages = doc.getDocumentCatalog().getAllPages();
+                int max = allPages.size();
+                Timer pageTimer = PDFMetrics.pageTimer();
+                for (int i = 1; i <= max; i++) {
+                    if (stage.isNumbered(i)) {
+                        Timer.Context pageTime = pageTimer.time();
+                        PDPage page = (PDPage) allPages.get(i - 1);
+                        stage.apply(doc, page, i);
+
+                        if (incrementalSave) {
+                            PDFUtils.markPageForIncrementalUpdate(doc, page);
+                        }
+                        pageTime.stop();
+                    }
                 }
             }
 
-            allPages = doc.getDocumentCatalog().getAllPages();
-            max = allPages.size();
-            inStartAtPage = inStartAtPage > max ? 1 : inStartAtPage;
-            for (int i = inStartAtPage; i <= max; i++) {
-                String pageNumAsStr = "" + pageNumber;
-                pageNumber += 1;
-
-                PDPage page = (PDPage) allPages.get(i - 1);
-                PDPageContentStream footercontentStream = new PDPageContentStream(
-                        doc, page, true, true);
-
-                float stringWidth = font.getStringWidth(pageNumAsStr)
-                        * inFontSize / 1000f;
-                float stringHeight = font.getFontDescriptor().getFontBoundingBox().getHeight()
-                        * inFontSize / 1000;
-                PDRectangle pageRect = page.findMediaBox();
-
-                float xMoveAmount, yMoveAmount;
-
-                if (inPosition == null) {
-                    inPosition = PAGE_NUMBER_POSITION.BOTTOM_RIGHT;
-                }
-                switch (inPosition) {
-                case BOTTOM_LEFT:
-                    xMoveAmount = 10;
-                    yMoveAmount = pageRect.getLowerLeftY() + 10;
-                    break;
-
-                case BOTTOM_CENTER:
-                    xMoveAmount = (pageRect.getUpperRightX() / 2)
-                            - (stringWidth / 2);
-                    yMoveAmount = pageRect.getLowerLeftY() + 10;
-                    break;
-
-                case TOP_LEFT:
-                    xMoveAmount = 10;
-                    yMoveAmount = pageRect.getHeight() - stringHeight - 10;
-                    break;
-
-                case TOP_CENTER:
-                    xMoveAmount = (pageRect.getUpperRightX() / 2)
-                            - (stringWidth / 2);
-                    yMoveAmount = pageRect.getHeight() - stringHeight - 10;
-                    break;
-
-                case TOP_RIGHT:
-                    xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
-                    yMoveAmount = pageRect.getHeight() - stringHeight - 10;
-                    break;
-
-                // Bottom-right is the default
-                default:
-                    xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
-                    yMoveAmount = pageRect.getLowerLeftY() + 10;
-                    break;
-                }
-
-                footercontentStream.beginText();
-                footercontentStream.setFont(font, inFontSize);
-                footercontentStream.moveTextPositionByAmount(xMoveAmount,
-                        yMoveAmount);
-                footercontentStream.setNonStrokingColor(rgb[0], rgb[1], rgb[2]);
-                footercontentStream.drawString(pageNumAsStr);
-                footercontentStream.endText();
-                footercontentStream.close();
+            if (incrementalSave) {
+                result = PDFUtils.saveIncrementalInTempFile(doc, blob, null);
+            } else {
+                long start = System.nanoTime();
+                File tempFile = File.createTempFile("pdfutils-", ".pdf");
+                doc.save(tempFile);
+                PDFMetrics.saved(start, tempFile.length());
+                result = new FileBlob(tempFile);
+                Framework.trackFile(tempFile, result);
             }
 
-            File tempFile = File.createTempFile("pdfutils-", ".pdf");
-            doc.save(tempFile);
-            result = new FileBlob(tempFile);
-            Framework.trackFile(tempFile, result);
-
         } catch (IOException | COSVisitorException e) {
             throw new NuxeoException("Failed to handle the pdf", e);
         } finally {
             PDFUtils.closeSilently(doc);
+            stage.end();
         }
 
         return result;
@@ -212,4 +196,38 @@ public class PDFPageNumbering {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    /**
+     * When true, the result is saved as an incremental update of the original blob: The original bytes are copied and
+     * only the numbered pages and the new objects are appended. See
+     * {@link PDFUtils#saveIncrementalInTempFile(PDDocument, Blob, String)}. Not supported for an encrypted PDF
+     *
+     * @param incrementalSave
+     * @since 8.10
+     */
+    public void setIncrementalSave(boolean incrementalSave) {
+        this.incrementalSave = incrementalSave;
+    }
+
+    /**
+     * When true, the content streams of the pages are generated on all the available cores, see
+     * {@link ParallelPageStamper}
+     *
+     * @param parallel
+     * @since 8.10
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * When true, a /PageLabels tree is also written, so viewers display the same labels as the ones drawn on the
+     * pages
+     *
+     * @param writePageLabels
+     * @since 8.10
+     */
+    public void setWritePageLabels(boolean writePageLabels) {
+        this.writePageLabels = writePageLabels;
+    }
 }
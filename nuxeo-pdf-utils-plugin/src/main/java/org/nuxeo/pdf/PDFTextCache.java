@@ -0,0 +1,533 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.encryption.PasswordVerifier;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Disk cache of the text extracted from PDFs, one file per blob digest (see {@link PDFLinkIndex#getDigest(Blob)}).
+ * <p>
+ * The text of each page is compressed separately, and the file ends with the offset of each page, so the text of one
+ * page can be read without reading the others. When the size of the cache goes above its maximum, the least recently
+ * used files are deleted. The order of use is kept across restarts, using the date of the files.
+ * <p>
+ * The text of encrypted PDFs is never cached: The cache would give it to callers without checking their password, and
+ * it would be written in clear on the disk. It is extracted each time, after the password was checked.
+ * <p>
+ * The text is the same as {@link PDFTextExtractor#getAllExtractedLines()}, see
+ * {@link PDFTextExtractor#setTextCache(PDFTextCache)}.
+ *
+ * @since 8.10
+ */
+public class PDFTextCache {
+
+    public static final String DIRECTORY_PROPERTY = "nuxeo.pdfutils.textcache.dir";
+
+    public static final String MAX_SIZE_PROPERTY = "nuxeo.pdfutils.textcache.maxsize";
+
+    public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+    protected static final String EXTENSION = ".pdftext";
+
+    protected static final int MAGIC = 0x50445458; // "PDTX"
+
+    // Trailer: position of the page offsets (long), magic (int)
+    protected static final int TRAILER_SIZE = 12;
+
+    protected static PDFTextCache defaultCache;
+
+    protected File directory;
+
+    protected long maxSize;
+
+    protected long size;
+
+    // File name => file size, in access order
+    protected final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * @param inDirectory created if it does not exist. Files already there are kept
+     * @param inMaxSize maximum size of the cache, in bytes
+     * @throws NuxeoException if the directory cannot be created
+     */
+    public PDFTextCache(File inDirectory, long inMaxSize) throws NuxeoException {
+
+        directory = inDirectory;
+        maxSize = inMaxSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new NuxeoException("Cannot create the text cache directory " + directory.getAbsolutePath());
+        }
+
+        File[] files = directory.listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (f.getName().endsWith(EXTENSION)) {
+                entries.put(f.getName(), f.length());
+                size += f.length();
+            } else if (f.getName().endsWith(".tmp")) {
+                // Left by a stopped server
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * The cache shared by the plug-in. Its directory is the <code>nuxeo.pdfutils.textcache.dir</code> configuration
+     * property (default: "nuxeo-pdfutils-text-cache" in the temporary directory), and its maximum size is the
+     * <code>nuxeo.pdfutils.textcache.maxsize</code> property, in bytes (default: 512MB)
+     *
+     * @return the default cache
+     */
+    public static synchronized PDFTextCache getDefault() throws NuxeoException {
+
+        if (defaultCache == null) {
+            String dir = Framework.getProperty(DIRECTORY_PROPERTY);
+            File directory = StringUtils.isBlank(dir)
+                    ? new File(System.getProperty("java.io.tmpdir"), "nuxeo-pdfutils-text-cache") : new File(dir);
+            String max = Framework.getProperty(MAX_SIZE_PROPERTY);
+            defaultCache = new PDFTextCache(directory,
+                    StringUtils.isBlank(max) ? DEFAULT_MAX_SIZE : Long.parseLong(max.trim()));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * @param inBlob
+     * @return true if the text of the blob is in the cache
+     */
+    public synchronized boolean contains(Blob inBlob) {
+        return entries.containsKey(getFileName(inBlob));
+    }
+
+    /**
+     * Returns the text of the PDF, extracting it and adding it to the cache if it is not there.
+     *
+     * @param inBlob
+     * @param inPassword used only if the PDF is encrypted
+     * @return the text of the PDF
+     * @throws NuxeoException if the password of an encrypted PDF is wrong
+     */
+    public String getText(Blob inBlob, String inPassword) throws NuxeoException {
+
+        final StringBuilder text = new StringBuilder();
+        extractPages(inBlob, inPassword, 1, Integer.MAX_VALUE, new PDFTextExtractor.PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) {
+                text.append(inText);
+                return true;
+            }
+        });
+        return text.toString();
+    }
+
+    /**
+     * Same as {@link PDFTextExtractor#extractPages(int, int, PDFTextExtractor.PageTextHandler)}, reading the text
+     * from the cache. The text of the PDF is extracted and added to the cache if it is not there.
+     *
+     * @param inBlob
+     * @param inPassword used only if the PDF is encrypted
+     * @param inFirstPage
+     * @param inLastPage
+     * @param inHandler
+     * @return the number of pages passed to the handler
+     * @throws NuxeoException if the password of an encrypted PDF is wrong
+     */
+    public int extractPages(Blob inBlob, String inPassword, int inFirstPage, int inLastPage,
+            PDFTextExtractor.PageTextHandler inHandler) throws NuxeoException {
+
+        File file = getFile(inBlob, inPassword);
+        if (file == null) {
+            PDFTextExtractor extractor = new PDFTextExtractor(inBlob);
+            extractor.setPassword(inPassword);
+            return extractor.extractPages(inFirstPage, inLastPage, inHandler);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long[] offsets = readOffsets(raf);
+            int last = Math.min(inLastPage, offsets.length - 1);
+            int count = 0;
+            Inflater inflater = new Inflater();
+            try {
+                for (int pageNum = Math.max(1, inFirstPage); pageNum <= last; pageNum++) {
+                    count += 1;
+                    if (!inHandler.handlePage(pageNum, readPage(raf, offsets, pageNum - 1, inflater))) {
+                        break;
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+            return count;
+        } catch (IOException | DataFormatException e) {
+            throw new NuxeoException("Cannot read the cached text of " + inBlob.getFilename(), e);
+        }
+    }
+
+    /**
+     * Returns the text of one page of the PDF, extracting the text of the whole PDF and adding it to the cache if it
+     * is not there.
+     *
+     * @param inBlob
+     * @param inPageNumber starting at 1
+     * @param inPassword used only if the PDF is encrypted
+     * @return the text of the page
+     * @throws NuxeoException if the page does not exist, or if the password of an encrypted PDF is wrong
+     */
+    public String getPageText(Blob inBlob, int inPageNumber, String inPassword) throws NuxeoException {
+
+        File file = getFile(inBlob, inPassword);
+        if (file == null) {
+            final String[] text = { null };
+            extractPages(inBlob, inPassword, inPageNumber, inPageNumber, new PDFTextExtractor.PageTextHandler() {
+                @Override
+                public boolean handlePage(int inPage, String inText) {
+                    text[0] = inText;
+                    return false;
+                }
+            });
+            if (text[0] == null) {
+                throw new NuxeoException("Page " + inPageNumber + " does not exist, the PDF has "
+                        + PDFUtils.countPages(inBlob, inPassword) + " pages");
+            }
+            return text[0];
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long[] offsets = readOffsets(raf);
+            if (inPageNumber < 1 || inPageNumber >= offsets.length) {
+                throw new NuxeoException("Page " + inPageNumber + " does not exist, the PDF has "
+                        + (offsets.length - 1) + " pages");
+            }
+            Inflater inflater = new Inflater();
+            try {
+                return readPage(raf, offsets, inPageNumber - 1, inflater);
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException | DataFormatException e) {
+            throw new NuxeoException("Cannot read the cached text of " + inBlob.getFilename(), e);
+        }
+    }
+
+    /**
+     * Returns the text of one page, only if it is in the cache: The PDF is never parsed
+     *
+     * @param inDigest the digest of the blob, see {@link PDFLinkIndex#getDigest(Blob)}
+     * @param inPageNumber starting at 1
+     * @return the text of the page, null if the text of the PDF is not in the cache or the page does not exist
+     * @throws NuxeoException if the file cannot be read
+     */
+    public String getCachedPageText(String inDigest, int inPageNumber) throws NuxeoException {
+
+        String name = getFileName(inDigest);
+        File file = new File(directory, name);
+        synchronized (this) {
+            if (entries.get(name) == null || !file.exists()) {
+                return null;
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long[] offsets = readOffsets(raf);
+            if (inPageNumber < 1 || inPageNumber >= offsets.length) {
+                return null;
+            }
+            Inflater inflater = new Inflater();
+            try {
+                return readPage(raf, offsets, inPageNumber - 1, inflater);
+            } finally {
+                inflater.end();
+            }
+        } catch (FileNotFoundException e) {
+            // Evicted meanwhile
+            return null;
+        } catch (IOException | DataFormatException e) {
+            throw new NuxeoException("Cannot read the cached text of " + inDigest, e);
+        }
+    }
+
+    /**
+     * @param inBlob
+     * @param inPassword used only if the PDF is encrypted
+     * @return the number of pages of the PDF
+     * @throws NuxeoException if the password of an encrypted PDF is wrong
+     */
+    public int getPageCount(Blob inBlob, String inPassword) throws NuxeoException {
+
+        File file = getFile(inBlob, inPassword);
+        if (file == null) {
+            return PDFUtils.countPages(inBlob, inPassword);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return readOffsets(raf).length - 1;
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot read the cached text of " + inBlob.getFilename(), e);
+        }
+    }
+
+    /**
+     * Removes the text of the blob from the cache
+     *
+     * @param inBlob
+     */
+    public synchronized void remove(Blob inBlob) {
+
+        String name = getFileName(inBlob);
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            new File(directory, name).delete();
+        }
+    }
+
+    /**
+     * Removes all the files of the cache
+     */
+    public synchronized void clear() {
+
+        for (String name : entries.keySet()) {
+            new File(directory, name).delete();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the size of the cache, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized void setMaxSize(long inValue) {
+        maxSize = inValue;
+        evict(null);
+    }
+
+    /*
+     * The file of the blob, created if needed. Null for an encrypted PDF, whose text is not cached: A file in the cache
+     * is then always the text of a PDF which is not encrypted, and can be read without a password.
+     */
+    protected File getFile(Blob inBlob, String inPassword) throws NuxeoException {
+
+        String name = getFileName(inBlob);
+        File file = new File(directory, name);
+        synchronized (this) {
+            if (entries.get(name) != null) {
+                if (file.exists()) {
+                    file.setLastModified(System.currentTimeMillis());
+                    return file;
+                }
+                // Deleted by someone else
+                size -= entries.remove(name);
+            }
+        }
+
+        if (isEncrypted(inBlob, inPassword)) {
+            return null;
+        }
+
+        // Extracted outside the lock. Two threads may extract the same PDF, the second one just replaces the file
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(name, ".tmp", directory);
+            write(inBlob, inPassword, tmp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot write the cached text of " + inBlob.getFilename(), e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+
+        synchronized (this) {
+            Long previous = entries.put(name, file.length());
+            size += file.length() - (previous == null ? 0 : previous);
+            evict(name);
+        }
+        return file;
+    }
+
+    /*
+     * Only reads the trailer and the /Encrypt dictionary. A wrong password fails here, so the text of the PDF is not
+     * extracted at all
+     */
+    protected boolean isEncrypted(Blob inBlob, String inPassword) throws NuxeoException {
+
+        PasswordVerifier.Result result = PasswordVerifier.getInstance().verify(inBlob, inPassword);
+        if (result == PasswordVerifier.Result.INVALID) {
+            throw new NuxeoException("Invalid password for " + inBlob.getFilename());
+        }
+        return result != PasswordVerifier.Result.NOT_ENCRYPTED;
+    }
+
+    /*
+     * Pages one after the other, each compressed, then the offset of each page, then the trailer
+     */
+    protected void write(Blob inBlob, String inPassword, File inFile) throws IOException {
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(inFile)))) {
+            final Deflater deflater = new Deflater();
+            final long[][] offsets = { new long[256] };
+            final int[] count = { 0 };
+            final byte[] buffer = new byte[8192];
+            try {
+                PDFTextExtractor extractor = new PDFTextExtractor(inBlob);
+                extractor.setPassword(inPassword);
+                extractor.extractPages(new PDFTextExtractor.PageTextHandler() {
+                    @Override
+                    public boolean handlePage(int inPageNumber, String inText) throws IOException {
+                        if (count[0] + 1 >= offsets[0].length) {
+                            offsets[0] = Arrays.copyOf(offsets[0], offsets[0].length * 2);
+                        }
+                        deflater.reset();
+                        deflater.setInput(inText.getBytes(StandardCharsets.UTF_8));
+                        deflater.finish();
+                        long length = 0;
+                        while (!deflater.finished()) {
+                            int n = deflater.deflate(buffer);
+                            out.write(buffer, 0, n);
+                            length += n;
+                        }
+                        count[0] += 1;
+                        offsets[0][count[0]] = offsets[0][count[0] - 1] + length;
+                        return true;
+                    }
+                });
+            } finally {
+                deflater.end();
+            }
+
+            long indexPosition = offsets[0][count[0]];
+            out.writeInt(count[0]);
+            for (int i = 0; i <= count[0]; i++) {
+                out.writeLong(offsets[0][i]);
+            }
+            out.writeLong(indexPosition);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    protected long[] readOffsets(RandomAccessFile inFile) throws IOException {
+
+        long length = inFile.length();
+        if (length < TRAILER_SIZE) {
+            throw new IOException("Not a cached text file");
+        }
+        inFile.seek(length - TRAILER_SIZE);
+        long indexPosition = inFile.readLong();
+        if (inFile.readInt() != MAGIC) {
+            throw new IOException("Not a cached text file");
+        }
+        // One read for the whole index, RandomAccessFile reads are not buffered
+        byte[] index = new byte[(int) (length - TRAILER_SIZE - indexPosition)];
+        inFile.seek(indexPosition);
+        inFile.readFully(index);
+        ByteBuffer buffer = ByteBuffer.wrap(index);
+        long[] offsets = new long[buffer.getInt() + 1];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = buffer.getLong();
+        }
+        return offsets;
+    }
+
+    protected String readPage(RandomAccessFile inFile, long[] inOffsets, int inIndex, Inflater inInflater)
+            throws IOException, DataFormatException {
+
+        byte[] compressed = new byte[(int) (inOffsets[inIndex + 1] - inOffsets[inIndex])];
+        inFile.seek(inOffsets[inIndex]);
+        inFile.readFully(compressed);
+
+        inInflater.reset();
+        inInflater.setInput(compressed);
+        byte[] buffer = new byte[Math.max(1024, compressed.length * 4)];
+        int length = 0;
+        while (!inInflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int n = inInflater.inflate(buffer, length, buffer.length - length);
+            if (n == 0 && (inInflater.needsInput() || inInflater.needsDictionary())) {
+                throw new DataFormatException("Truncated page");
+            }
+            length += n;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Deletes the least recently used files, except inKeep, until the cache fits its maximum size
+     */
+    protected void evict(String inKeep) {
+
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getKey().equals(inKeep)) {
+                continue;
+            }
+            new File(directory, e.getKey()).delete();
+            size -= e.getValue();
+            it.remove();
+        }
+    }
+
+    protected String getFileName(Blob inBlob) {
+        return getFileName(PDFLinkIndex.getDigest(inBlob));
+    }
+
+    protected String getFileName(String inDigest) {
+
+        String digest = inDigest;
+        if (!digest.matches("[A-Za-z0-9_-]+")) {
+            digest = DigestUtils.sha256Hex(digest);
+        }
+        return digest + EXTENSION;
+    }
+
+}
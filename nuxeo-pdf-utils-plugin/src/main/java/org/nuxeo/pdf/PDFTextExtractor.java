@@ -17,15 +17,36 @@
 package org.nuxeo.pdf;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.COSObjectable;
 import org.apache.pdfbox.util.PDFTextStripper;
+import org.apache.pdfbox.util.TextPosition;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 
+import com.codahale.metrics.Timer;
+
 /**
  * Extract pages from a PDF
  *
@@ -42,8 +63,153 @@ public class PDFTextExtractor {
 
     protected String extractedAllAsString = null;
 
+    protected int[] lineEnds = null;
+
+    protected int threadCount = 1;
+
+    protected PDFTextCache textCache;
+
+    /**
+     * Maximum number of pages extracted as one chunk by a thread, see {@link #setThreadCount(int)}
+     *
+     * @since 8.10
+     */
+    public static final int MAX_PAGES_PER_CHUNK = 100;
+
     private static final String END_OF_LINE = "\n";
 
+    /**
+     * Receives the text of each page, see {@link PDFTextExtractor#extractPages(PageTextHandler)}
+     *
+     * @since 8.10
+     */
+    public interface PageTextHandler {
+
+        /**
+         * @param inPageNumber the page number, starting at 1
+         * @param inText the text of the page, empty if it has no text
+         * @return false to stop the extraction, the next pages are not read
+         * @throws IOException
+         */
+        boolean handlePage(int inPageNumber, String inText) throws IOException;
+    }
+
+    /**
+     * Receives the words of each page, see {@link PDFTextExtractor#extractWords(PageWordsHandler)}
+     *
+     * @since 8.10
+     */
+    public interface PageWordsHandler {
+
+        /**
+         * @param inWords the words of the page, with their position
+         * @return false to stop the extraction, the next pages are not read
+         * @throws IOException
+         */
+        boolean handlePage(PageWords inWords) throws IOException;
+    }
+
+    /*
+     * Collects the words of each page with their position, instead of writing the text
+     */
+    protected static class WordStripper extends PDFTextStripper {
+
+        protected PageWordsHandler handler;
+
+        protected PageWords words;
+
+        public WordStripper(PageWordsHandler inHandler) throws IOException {
+            super();
+            handler = inHandler;
+        }
+
+        public int extract(PDDocument inDoc) throws IOException {
+            writeText(inDoc, new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    // Only the words are used
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            return words == null ? 0 : words.getPage();
+        }
+
+        @Override
+        protected void processPages(List<COSObjectable> inPages) throws IOException {
+
+            Timer pageTimer = PDFMetrics.pageTimer();
+            for (int pageNum = 1; pageNum <= inPages.size(); pageNum++) {
+                Timer.Context pageTime = pageTimer.time();
+                words = new PageWords(pageNum);
+                super.processPages(Collections.singletonList(inPages.get(pageNum - 1)));
+                words.trim();
+                pageTime.stop();
+                if (!handler.handlePage(words)) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        protected void writeString(String inText, List<TextPosition> inTextPositions) throws IOException {
+            words.add(inTextPositions);
+        }
+    }
+
+    /*
+     * Sends the text to the handler after each page, instead of keeping the text of the whole document
+     */
+    protected static class PageTextStripper extends PDFTextStripper {
+
+        protected StringWriter pageText = new StringWriter();
+
+        protected PageTextHandler handler;
+
+        protected int firstPage;
+
+        protected int lastPage;
+
+        protected int pageCount;
+
+        public PageTextStripper(PageTextHandler inHandler, int inFirstPage, int inLastPage) throws IOException {
+            super();
+            handler = inHandler;
+            firstPage = inFirstPage;
+            lastPage = inLastPage;
+        }
+
+        public int extract(PDDocument inDoc) throws IOException {
+            pageCount = 0;
+            writeText(inDoc, pageText);
+            return pageCount;
+        }
+
+        @Override
+        protected void processPages(List<COSObjectable> inPages) throws IOException {
+
+            int last = Math.min(lastPage, inPages.size());
+            Timer pageTimer = PDFMetrics.pageTimer();
+            for (int pageNum = firstPage; pageNum <= last; pageNum++) {
+                Timer.Context pageTime = pageTimer.time();
+                super.processPages(Collections.singletonList(inPages.get(pageNum - 1)));
+                pageTime.stop();
+                String text = pageText.toString();
+                pageText.getBuffer().setLength(0);
+                pageCount += 1;
+                if (!handler.handlePage(pageNum, text)) {
+                    break;
+                }
+            }
+        }
+    }
+
     public PDFTextExtractor(Blob inBlob) {
 
         pdfBlob = inBlob;
@@ -67,31 +233,286 @@ public class PDFTextExtractor {
 
     public String getAllExtractedLines() throws NuxeoException {
 
+        if (extractedAllAsString == null && textCache != null) {
+            extractedAllAsString = textCache.getText(pdfBlob, password);
+        }
+
+        if (extractedAllAsString == null && threadCount > 1) {
+            StringWriter writer = new StringWriter();
+            extractAllParallel(writer);
+            extractedAllAsString = writer.toString();
+        }
+
         if (extractedAllAsString == null) {
-            PDDocument pdfDoc = null;
+            extractedAllAsString = PDFUtils.execute("extractText", () -> {
+                PDDocument pdfDoc = null;
+                try {
+                    pdfDoc = PDFUtils.load(pdfBlob, password);
+
+                    final Timer pageTimer = PDFMetrics.pageTimer();
+                    PDFTextStripper stripper = new PDFTextStripper() {
+                        @Override
+                        protected void processPage(PDPage inPage, COSStream inContent) throws IOException {
+                            Timer.Context pageTime = pageTimer.time();
+                            super.processPage(inPage, inContent);
+                            pageTime.stop();
+                        }
+                    };
+                    return stripper.getText(pdfDoc);
+
+                } catch (IOException e) {
+                    throw new NuxeoException("Failed to handle the pdf", e);
+                } finally {
+                    PDFUtils.closeSilently(pdfDoc);
+                }
+            }, pdfBlob);
+        }
+        return extractedAllAsString;
+    }
+
+    /**
+     * Extracts the text page by page and passes it to <code>inHandler</code>, which can stop the extraction. Only the
+     * text of the current page is kept in memory.
+     *
+     * @param inHandler
+     * @return the number of pages passed to the handler
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public int extractPages(PageTextHandler inHandler) throws NuxeoException {
+
+        return extractPages(1, Integer.MAX_VALUE, inHandler);
+    }
+
+    /**
+     * Extracts the text of pages <code>inFirstPage</code> to <code>inLastPage</code> (included, starting at 1) page by
+     * page, see {@link #extractPages(PageTextHandler)}
+     *
+     * @param inFirstPage
+     * @param inLastPage
+     * @param inHandler
+     * @return the number of pages passed to the handler
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public int extractPages(int inFirstPage, int inLastPage, PageTextHandler inHandler) throws NuxeoException {
+
+        if (textCache != null) {
+            return textCache.extractPages(pdfBlob, password, inFirstPage, inLastPage, inHandler);
+        }
 
+        return PDFUtils.execute("extractText", () -> {
+            PDDocument pdfDoc = null;
             try {
                 pdfDoc = PDFUtils.load(pdfBlob, password);
+                return new PageTextStripper(inHandler, Math.max(1, inFirstPage), inLastPage).extract(pdfDoc);
 
-                PDFTextStripper stripper = new PDFTextStripper();
-                extractedAllAsString = stripper.getText(pdfDoc);
+            } catch (IOException e) {
+                throw new NuxeoException("Failed to handle the pdf", e);
+            } finally {
+                PDFUtils.closeSilently(pdfDoc);
+            }
+        }, pdfBlob);
+    }
+
+    /**
+     * Writes the text of the whole document to <code>inWriter</code>, page by page. The text is the same as
+     * {@link #getAllExtractedLines()}, but is never fully held in memory. Uses several threads if
+     * {@link #setThreadCount(int)} was called with more than 1.
+     *
+     * @param inWriter
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public void extractAll(final Writer inWriter) throws NuxeoException {
+
+        if (threadCount > 1 && textCache == null) {
+            extractAllParallel(inWriter);
+            return;
+        }
+
+        extractPages(new PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) throws IOException {
+                inWriter.write(inText);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Extracts the words of each page with their position, and passes them to <code>inHandler</code>, page by page.
+     * Only the words of the current page are kept in memory, unless the handler keeps them.
+     *
+     * @param inHandler
+     * @return the number of pages passed to the handler
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public int extractWords(PageWordsHandler inHandler) throws NuxeoException {
+
+        return PDFUtils.execute("extractWords", () -> {
+            PDDocument pdfDoc = null;
+            try {
+                pdfDoc = PDFUtils.load(pdfBlob, password);
+                return new WordStripper(inHandler).extract(pdfDoc);
 
             } catch (IOException e) {
                 throw new NuxeoException("Failed to handle the pdf", e);
             } finally {
                 PDFUtils.closeSilently(pdfDoc);
             }
+        }, pdfBlob);
+    }
+
+    /**
+     * Extracts the words of all the pages with their position
+     *
+     * @return the words of each page, in page order
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public List<PageWords> getAllWords() throws NuxeoException {
+
+        final List<PageWords> pages = new ArrayList<PageWords>();
+        extractWords(new PageWordsHandler() {
+            @Override
+            public boolean handlePage(PageWords inWords) {
+                pages.add(inWords);
+                return true;
+            }
+        });
+        return pages;
+    }
+
+    /*
+     * Splits the pages in chunks. Each thread loads its own copy of the document and extracts chunks, while the
+     * calling thread writes them in page order. Threads cannot get more than a few chunks ahead of the writer.
+     */
+    protected void extractAllParallel(final Writer inWriter) throws NuxeoException {
+
+        int pageCount = PDFUtils.countPages(pdfBlob, password);
+        int threads = Math.max(1, Math.min(threadCount, pageCount));
+        final int chunkSize = Math.max(1, Math.min(MAX_PAGES_PER_CHUNK, (pageCount + threads - 1) / threads));
+        final int chunkCount = (pageCount + chunkSize - 1) / chunkSize;
+        // Set to null once written, so the text of the chunk can be garbage collected
+        final AtomicReferenceArray<CompletableFuture<String>> chunks = new AtomicReferenceArray<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.set(i, new CompletableFuture<String>());
+        }
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Semaphore aheadOfWriter = new Semaphore(threads * 2);
+
+        // Each thread loads its own copy of the document
+        final PDFAdmissionGate.Permit permit = PDFAdmissionGate.getDefault().acquire("extractText", threads, pdfBlob);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        PDDocument pdfDoc = null;
+                        try {
+                            pdfDoc = permit.run(() -> PDFUtils.load(pdfBlob, password));
+                            int chunk;
+                            while (true) {
+                                aheadOfWriter.acquire();
+                                chunk = nextChunk.getAndIncrement();
+                                if (chunk >= chunkCount) {
+                                    break;
+                                }
+                                final StringBuilder text = new StringBuilder();
+                                int first = chunk * chunkSize + 1;
+                                // Run with the permit, so the pages are counted in the metrics of the operation
+                                final PDDocument doc = pdfDoc;
+                                permit.run(() -> new PageTextStripper(new PageTextHandler() {
+                                    @Override
+                                    public boolean handlePage(int inPageNumber, String inText) {
+                                        text.append(inText);
+                                        return true;
+                                    }
+                                }, first, first + chunkSize - 1).extract(doc));
+                                chunks.get(chunk).complete(text.toString());
+                            }
+                        } catch (Throwable e) {
+                            // Unblocks the writer, whatever the chunk it waits for
+                            for (int i = 0; i < chunkCount; i++) {
+                                CompletableFuture<String> f = chunks.get(i);
+                                if (f != null) {
+                                    f.completeExceptionally(e);
+                                }
+                            }
+                        } finally {
+                            PDFUtils.closeSilently(pdfDoc);
+                        }
+                    }
+                });
+            }
+
+            for (int i = 0; i < chunkCount; i++) {
+                inWriter.write(chunks.get(i).get());
+                chunks.set(i, null);
+                aheadOfWriter.release();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while extracting the text", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NuxeoException) {
+                throw (NuxeoException) e.getCause();
+            }
+            throw new NuxeoException("Failed to handle the pdf", e.getCause());
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to handle the pdf", e);
+        } finally {
+            executor.shutdownNow();
+            permit.close();
         }
-        return extractedAllAsString;
+    }
+
+    /*
+     * Position of each end of line in the text, built once
+     */
+    protected int[] getLineEnds() throws NuxeoException {
+
+        if (lineEnds == null) {
+            String text = getAllExtractedLines();
+            int[] ends = new int[64];
+            int count = 0;
+            int pos = text.indexOf(END_OF_LINE);
+            while (pos != -1) {
+                if (count == ends.length) {
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                ends[count++] = pos;
+                pos = text.indexOf(END_OF_LINE, pos + 1);
+            }
+            lineEnds = Arrays.copyOf(ends, count);
+        }
+        return lineEnds;
+    }
+
+    /*
+     * The text from inStart to the end of its line (or of the text, for the last line)
+     */
+    protected String getEndOfLine(int inStart) throws NuxeoException {
+
+        String text = getAllExtractedLines();
+        int[] ends = getLineEnds();
+        int idx = Arrays.binarySearch(ends, inStart);
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        int lineEnd = idx < ends.length ? ends[idx] : text.length();
+        return text.substring(inStart, lineEnd).trim();
     }
 
     public String extractLineOf(String inString) throws IOException {
         String extractedLine = null;
         int lineBegining = getAllExtractedLines().indexOf(inString);
-        int lineEnd;
         if (lineBegining != -1) {
-            lineEnd = getAllExtractedLines().indexOf(END_OF_LINE, lineBegining);
-            extractedLine = getAllExtractedLines().substring(lineBegining, lineEnd).trim();
+            extractedLine = getEndOfLine(lineBegining);
         }
 
         return extractedLine;
@@ -106,8 +527,86 @@ public class PDFTextExtractor {
         return extractedLine;
     }
 
+    /**
+     * Same as {@link #extractLineOf(String)} for several keys, in one pass on the text.
+     *
+     * @param inKeys
+     * @return the line of each key found, in the order of the keys. A key not found is not in the map
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public Map<String, String> extractLinesOf(String... inKeys) throws NuxeoException {
+        return extractLinesOf(new TextKeyMatcher(inKeys));
+    }
+
+    /**
+     * Same as {@link #extractLineOf(String)} for all the keys of <code>inMatcher</code>, in one pass on the text. The
+     * matcher can be prepared once and used for every document.
+     *
+     * @param inMatcher
+     * @return the line of each key found, in the order of the keys. A key not found is not in the map
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public Map<String, String> extractLinesOf(TextKeyMatcher inMatcher) throws NuxeoException {
+
+        Map<String, String> lines = new LinkedHashMap<String, String>();
+        String[] keys = inMatcher.getKeys();
+        int[] found = inMatcher.findFirst(getAllExtractedLines());
+        for (int i = 0; i < keys.length; i++) {
+            if (found[i] != -1) {
+                lines.put(keys[i], getEndOfLine(found[i]));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Same as {@link #extractLastPartOfLine(String)} for all the keys of <code>inMatcher</code>, in one pass on the
+     * text.
+     *
+     * @param inMatcher
+     * @return the end of the line of each key found, in the order of the keys. A key not found is not in the map
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public Map<String, String> extractLastPartOfLines(TextKeyMatcher inMatcher) throws NuxeoException {
+
+        Map<String, String> lines = extractLinesOf(inMatcher);
+        for (Map.Entry<String, String> e : lines.entrySet()) {
+            // The line is trimmed, it can be shorter than a key ending with spaces
+            String line = e.getValue();
+            e.setValue(line.length() > e.getKey().length() ? line.substring(e.getKey().length()) : "");
+        }
+        return lines;
+    }
+
     public void setPassword(String password) {
         this.password = password;
     }
 
+    /**
+     * Extract the text with several threads, each one with its own copy of the document and its own range of pages.
+     * Used by {@link #getAllExtractedLines()} and {@link #extractAll(Writer)}, the result is the same.
+     * <p>
+     * Each thread loads the whole document: Memory usage grows with the number of threads.
+     *
+     * @param inValue the number of threads. Default is 1, no parallel extraction
+     * @since 8.10
+     */
+    public void setThreadCount(int inValue) {
+        threadCount = Math.max(1, inValue);
+    }
+
+    /**
+     * Read the text from <code>inCache</code>, instead of parsing the PDF. The PDF is parsed only the first time,
+     * when its text is not yet in the cache. The text of an encrypted PDF is not cached, it is always extracted.
+     *
+     * @param inCache the cache, null to not use a cache. See {@link PDFTextCache#getDefault()}
+     * @since 8.10
+     */
+    public void setTextCache(PDFTextCache inCache) {
+        textCache = inCache;
+    }
+
 }
@@ -0,0 +1,417 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Full text index of PDFs, telling which pages of which PDFs contain words.
+ * <p>
+ * The text of a PDF is extracted once per blob digest (see {@link PDFLinkIndex#getDigest(Blob)}), through a
+ * {@link PDFTextCache}. The index keeps, for each word, the (PDF, page) pairs containing it, sorted, so a query only
+ * intersects these lists and never opens a PDF. The snippet of a hit is read from the text cache, a hit has no snippet
+ * if the text of its PDF was evicted from the cache, or if its PDF is encrypted (see {@link PDFTextCache}).
+ * <p>
+ * Words are sequences of letters and digits, compared ignoring the case and truncated to {@link #MAX_WORD_LENGTH}
+ * characters. A query returns the pages containing all its words. The index is written (gzipped) to its file by
+ * {@link #save()}. Methods are thread safe, several threads can add PDFs at the same time.
+ *
+ * @since 8.10
+ */
+public class PDFTextIndex {
+
+    /**
+     * A page containing all the words of the query
+     */
+    public static class Hit {
+
+        protected String digest;
+
+        protected String filename;
+
+        protected int page;
+
+        protected String snippet;
+
+        public Hit(String digest, String filename, int page, String snippet) {
+            this.digest = digest;
+            this.filename = filename;
+            this.page = page;
+            this.snippet = snippet;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * @return the page number, starting at 1
+         */
+        public int getPage() {
+            return page;
+        }
+
+        /**
+         * @return the text around the first word of the query, null if the text of the PDF is not in the cache
+         */
+        public String getSnippet() {
+            return snippet;
+        }
+
+        @Override
+        public String toString() {
+            return filename + ", page " + page + ": " + snippet;
+        }
+    }
+
+    /*
+     * Sorted (document << 32 | page) values
+     */
+    protected static class Postings {
+
+        protected long[] values = new long[4];
+
+        protected int size;
+
+        protected void add(long inValue) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = inValue;
+        }
+
+        protected boolean contains(long inValue) {
+            return Arrays.binarySearch(values, 0, size, inValue) >= 0;
+        }
+    }
+
+    /**
+     * Longer sequences are rarely words (encoded data, OCR noise...), and a word is written with
+     * <code>DataOutput.writeUTF()</code>, which is limited to 64KB
+     */
+    public static final int MAX_WORD_LENGTH = 100;
+
+    protected static final int MAGIC = 0x50545849; // "PTXI"
+
+    protected static final int VERSION = 1;
+
+    protected static final int SNIPPET_BEFORE = 40;
+
+    protected static final int SNIPPET_AFTER = 80;
+
+    protected File file;
+
+    protected PDFTextCache textCache;
+
+    protected String password;
+
+    protected ArrayList<String> digests = new ArrayList<String>();
+
+    protected ArrayList<String> filenames = new ArrayList<String>();
+
+    protected HashMap<String, Integer> documentIds = new HashMap<String, Integer>();
+
+    protected HashMap<String, Postings> postings = new HashMap<String, Postings>();
+
+    /**
+     * Loads the index if <code>inFile</code> exists. The index is written to <code>inFile</code> by {@link #save()}
+     *
+     * @param inFile
+     * @param inTextCache used to extract the text and to build the snippets
+     * @throws NuxeoException if the file exists and cannot be read
+     */
+    public PDFTextIndex(File inFile, PDFTextCache inTextCache) throws NuxeoException {
+
+        file = inFile;
+        textCache = inTextCache;
+        if (file.exists() && file.length() > 0) {
+            try {
+                load();
+            } catch (IOException e) {
+                throw new NuxeoException("Cannot read the text index " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Extracts the text of the blob and adds its words to the index. Does nothing if a blob with the same digest is
+     * already indexed.
+     *
+     * @param inBlob
+     * @return true if the blob was indexed, false if it already was
+     * @throws NuxeoException
+     */
+    public boolean add(Blob inBlob) throws NuxeoException {
+
+        String digest = PDFLinkIndex.getDigest(inBlob);
+        if (contains(digest)) {
+            return false;
+        }
+
+        // Extracted outside the lock, so other threads can query or index meanwhile
+        final List<Set<String>> pageWords = new ArrayList<Set<String>>();
+        textCache.extractPages(inBlob, password, 1, Integer.MAX_VALUE, new PDFTextExtractor.PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) {
+                pageWords.add(tokenize(inText));
+                return true;
+            }
+        });
+
+        synchronized (this) {
+            if (documentIds.containsKey(digest)) {
+                return false;
+            }
+            int docId = digests.size();
+            digests.add(digest);
+            filenames.add(inBlob.getFilename());
+            documentIds.put(digest, docId);
+
+            for (int i = 0; i < pageWords.size(); i++) {
+                long value = ((long) docId << 32) | (i + 1);
+                for (String word : pageWords.get(i)) {
+                    Postings p = postings.get(word);
+                    if (p == null) {
+                        p = new Postings();
+                        postings.put(word, p);
+                    }
+                    p.add(value);
+                }
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(String inDigest) {
+        return documentIds.containsKey(inDigest);
+    }
+
+    /**
+     * @return the number of indexed PDFs
+     */
+    public synchronized int getDocumentCount() {
+        return digests.size();
+    }
+
+    /**
+     * @return the number of distinct words
+     */
+    public synchronized int getWordCount() {
+        return postings.size();
+    }
+
+    /**
+     * Finds the pages containing all the words of <code>inQuery</code>
+     *
+     * @param inQuery
+     * @param inMaxHits
+     * @return the hits, in the order the PDFs were indexed, then in page order
+     * @throws NuxeoException if a snippet cannot be read
+     */
+    public List<Hit> search(String inQuery, int inMaxHits) throws NuxeoException {
+
+        Set<String> words = tokenize(inQuery);
+        List<Hit> hits = new ArrayList<Hit>();
+        if (words.isEmpty()) {
+            return hits;
+        }
+
+        List<long[]> found = new ArrayList<long[]>();
+        synchronized (this) {
+            // Intersect, starting with the shortest list
+            Postings[] lists = new Postings[words.size()];
+            int i = 0;
+            for (String word : words) {
+                lists[i] = postings.get(word);
+                if (lists[i] == null) {
+                    return hits;
+                }
+                i += 1;
+            }
+            Postings shortest = lists[0];
+            for (Postings p : lists) {
+                if (p.size < shortest.size) {
+                    shortest = p;
+                }
+            }
+            for (int j = 0; j < shortest.size && found.size() < inMaxHits; j++) {
+                long value = shortest.values[j];
+                boolean all = true;
+                for (Postings p : lists) {
+                    if (p != shortest && !p.contains(value)) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) {
+                    int docId = (int) (value >>> 32);
+                    found.add(new long[] { docId, value & 0xFFFFFFFFL });
+                }
+            }
+            for (long[] f : found) {
+                hits.add(new Hit(digests.get((int) f[0]), filenames.get((int) f[0]), (int) f[1], null));
+            }
+        }
+
+        // Snippets are read outside the lock
+        String firstWord = words.iterator().next();
+        for (Hit hit : hits) {
+            hit.snippet = getSnippet(textCache.getCachedPageText(hit.digest, hit.page), firstWord);
+        }
+        return hits;
+    }
+
+    /**
+     * Writes the index to its file. The previous file is replaced only once the new one is complete.
+     *
+     * @throws NuxeoException
+     */
+    public synchronized void save() throws NuxeoException {
+
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                out.writeInt(digests.size());
+                for (int i = 0; i < digests.size(); i++) {
+                    out.writeUTF(digests.get(i));
+                    out.writeUTF(filenames.get(i) == null ? "" : filenames.get(i));
+                }
+
+                out.writeInt(postings.size());
+                for (String word : postings.keySet()) {
+                    Postings p = postings.get(word);
+                    out.writeUTF(word);
+                    out.writeInt(p.size);
+                    for (int i = 0; i < p.size; i++) {
+                        out.writeLong(p.values[i]);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new NuxeoException("Cannot write the text index " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Set the password to use when extracting the text of a protected PDF
+     *
+     * @param inValue
+     */
+    public void setPassword(String inValue) {
+        password = inValue;
+    }
+
+    protected void load() throws IOException {
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a text index, or unsupported version");
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String digest = in.readUTF();
+                documentIds.put(digest, i);
+                digests.add(digest);
+                filenames.add(in.readUTF());
+            }
+
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String word = in.readUTF();
+                Postings p = new Postings();
+                p.size = in.readInt();
+                p.values = new long[Math.max(4, p.size)];
+                for (int j = 0; j < p.size; j++) {
+                    p.values[j] = in.readLong();
+                }
+                postings.put(word, p);
+            }
+        }
+    }
+
+    /*
+     * The distinct words of the text, lower case
+     */
+    protected static Set<String> tokenize(String inText) {
+
+        Set<String> words = new LinkedHashSet<String>();
+        int length = inText.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && Character.isLetterOrDigit(inText.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                words.add(inText.substring(start, Math.min(i, start + MAX_WORD_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    protected static String getSnippet(String inPageText, String inWord) {
+
+        if (inPageText == null) {
+            return null;
+        }
+        String lower = inPageText.toLowerCase(Locale.ROOT);
+        // Lower case changes the length of a few characters, the position is then approximate
+        int pos = Math.min(Math.max(0, lower.indexOf(inWord)), inPageText.length());
+        int start = Math.max(0, pos - SNIPPET_BEFORE);
+        int end = Math.min(inPageText.length(), pos + inWord.length() + SNIPPET_AFTER);
+        String snippet = inPageText.substring(start, end).replaceAll("\\s+", " ").trim();
+        return (start > 0 ? "..." : "") + snippet + (end < inPageText.length() ? "..." : "");
+    }
+
+}
@@ -17,15 +17,23 @@
 package org.nuxeo.pdf;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.io.RandomAccessFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.encryption.BadSecurityHandlerException;
-import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.NuxeoException;
@@ -35,6 +43,12 @@ import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.encryption.LazyPDFParser;
+import org.nuxeo.pdf.encryption.PasswordVerifier;
+import org.nuxeo.pdf.service.PDFExecutionService;
+import org.nuxeo.runtime.api.Framework;
+
+import com.codahale.metrics.Timer;
 
 /**
  * Grouping miscellaneous utilities in this class.
@@ -77,9 +91,9 @@ public class PDFUtils {
         PDDocument pdfDoc = null;
 
         try {
-            pdfDoc = PDDocument.load(inBlob.getStream());
+            pdfDoc = load(inBlob.getStream());
             if (pdfDoc.isEncrypted()) {
-                pdfDoc.openProtection(new StandardDecryptionMaterial(inPwd));
+                PasswordVerifier.getInstance().openProtection(pdfDoc, inBlob, inPwd);
             }
         } catch (IOException e) {
             throw new NuxeoException("Failed to load the PDF", e);
@@ -90,6 +104,133 @@ public class PDFUtils {
         return pdfDoc;
     }
 
+    /**
+     * Returns the number of pages without loading the whole document: The {@link LazyPDFParser} reads the
+     * cross-reference table, the trailer and the catalog dictionary, then the <code>/Count</code> of the root of the
+     * page tree. No page is parsed. If this fails (damaged cross-reference table, ...), the document is fully loaded.
+     *
+     * @param inBlob
+     * @param inPwd the password, for an encrypted PDF. Can be null
+     * @return the number of pages
+     * @throws NuxeoException
+     * @since 8.10
+     */
+    public static int countPages(Blob inBlob, String inPwd) throws NuxeoException {
+
+        LazyPDFParser parser = null;
+        try {
+            File file = inBlob.getFile();
+            if (file != null) {
+                parser = new LazyPDFParser(file, null, inPwd);
+            } else {
+                parser = new LazyPDFParser(inBlob.getStream(), null, inPwd);
+            }
+            parser.open();
+            if (parser.getEncryptionDictionary() != null
+                    && PasswordVerifier.getInstance().verify(inBlob, inPwd) == PasswordVerifier.Result.INVALID) {
+                throw new NuxeoException("Invalid password for " + inBlob.getFilename());
+            }
+            return parser.getPageCount();
+        } catch (IOException e) {
+            PDDocument pdfDoc = null;
+            try {
+                pdfDoc = load(inBlob, inPwd);
+                return pdfDoc.getNumberOfPages();
+            } catch (NuxeoException loadError) {
+                NuxeoException failure = new NuxeoException("Failed to count the pages of the PDF", loadError);
+                failure.addSuppressed(e);
+                throw failure;
+            } finally {
+                closeSilently(pdfDoc);
+            }
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a heavy operation through the {@link PDFExecutionService}, which bounds the number of operations running at
+     * the same time, after reserving the heap it needs with the {@link PDFAdmissionGate}. When the service is not
+     * available, the task runs on the calling thread. An operation called by another one runs directly, with the
+     * permit of the calling operation.
+     *
+     * @param inOperation the name of the operation
+     * @param inTask
+     * @param inBlobs the input PDF(s), used to estimate the heap needed by the task
+     * @return the result of the task
+     * @throws E the exception thrown by the task
+     * @throws NuxeoException if the operation is rejected by the admission gate
+     * @since 8.10
+     */
+    public static <T, E extends Exception> T execute(String inOperation, PDFExecutionService.Task<T, E> inTask,
+            Blob... inBlobs) throws E {
+
+        if (PDFAdmissionGate.getCurrentPermit() != null) {
+            return inTask.run();
+        }
+
+        for (Blob blob : inBlobs) {
+            if (blob != null && blob.getLength() >= 0) {
+                PDFMetrics.histogram(inOperation, PDFMetrics.BYTES_IN).update(blob.getLength());
+            }
+        }
+
+        Timer.Context total = PDFMetrics.timer(inOperation, PDFMetrics.TOTAL).time();
+        boolean succeeded = false;
+        try (PDFAdmissionGate.Permit permit = PDFAdmissionGate.getDefault().acquire(inOperation, inBlobs)) {
+            PDFExecutionService service = Framework.getRuntime() == null ? null
+                    : Framework.getService(PDFExecutionService.class);
+            T result = service == null ? permit.run(inTask)
+                    : service.execute(inOperation, () -> permit.run(inTask));
+            succeeded = true;
+            return result;
+        } finally {
+            total.stop();
+            if (!succeeded) {
+                PDFMetrics.getRegistry().counter(PDFMetrics.name(inOperation, PDFMetrics.FAILURES)).inc();
+            }
+        }
+    }
+
+    /**
+     * Loads the PDF, with a scratch file if the operation running on the current thread requires it (see
+     * {@link PDFAdmissionGate}). The stream is not closed.
+     *
+     * @param inStream
+     * @return the document
+     * @throws IOException
+     * @since 8.10
+     */
+    public static PDDocument load(InputStream inStream) throws IOException {
+
+        long start = System.nanoTime();
+        if (!PDFAdmissionGate.isScratchFileRequired()) {
+            PDDocument pdfDoc = PDDocument.load(inStream);
+            PDFMetrics.parsed(start, pdfDoc.getNumberOfPages());
+            return pdfDoc;
+        }
+
+        File scratchFile = Framework.createTempFile("nuxeo-pdfutils-scratch-", ".tmp");
+        RandomAccessFile scratch = new RandomAccessFile(scratchFile, "rw");
+        try {
+            // Closing the document closes the scratch file
+            PDDocument pdfDoc = PDDocument.load(inStream, scratch);
+            Framework.trackFile(scratchFile, pdfDoc);
+            PDFMetrics.parsed(start, pdfDoc.getNumberOfPages());
+            return pdfDoc;
+        } catch (IOException | RuntimeException e) {
+            scratch.close();
+            scratchFile.delete();
+            throw e;
+        }
+    }
+
     /**
      * Create a temporary .pdf file and return a FileBlob built from this file.
      * <p>
@@ -118,20 +259,105 @@ public class PDFUtils {
     public static FileBlob saveInTempFile(PDDocument inPdfDoc, String inFileName) throws IOException,
             COSVisitorException {
 
+        long start = System.nanoTime();
         Blob result = Blobs.createBlobWithExtension(".pdf");
         File resultFile = result.getFile();
         inPdfDoc.save(result.getFile());
+        PDFMetrics.saved(start, resultFile.length());
 
-        result.setMimeType("application/pdf");
+        FileBlob fb = new FileBlob(resultFile);
+        fb.setMimeType("application/pdf");
         if (StringUtils.isNotBlank(inFileName)) {
-            result.setFilename(inFileName);
+            fb.setFilename(inFileName);
+        }
+
+        return fb;
+
+    }
+
+    /**
+     * Save the document as an incremental update of <code>inOriginal</code>: The original bytes are copied unchanged
+     * and only the new or modified objects are appended, followed by a new xref section. Time and I/O are then
+     * proportional to the change, not to the size of the document.
+     * <p>
+     * <code>inPdfDoc</code> must have been loaded from <code>inOriginal</code>, and every page that was modified must
+     * have been flagged with {@link #markPageForIncrementalUpdate(PDDocument, PDPage)}. New objects (content streams,
+     * fonts, graphic states, ...) do not need to be flagged, they are always written.
+     * <p>
+     * An encrypted document cannot be saved incrementally, because the appended objects would have to be encrypted
+     * with the original key.
+     *
+     * @param inPdfDoc
+     * @param inOriginal
+     * @param inFileName
+     * @return FileBlob
+     * @throws IOException
+     * @throws COSVisitorException
+     * @throws NuxeoException if the document is encrypted
+     * @since 8.10
+     */
+    public static FileBlob saveIncrementalInTempFile(PDDocument inPdfDoc, Blob inOriginal, String inFileName)
+            throws IOException, COSVisitorException {
+
+        // Once decrypted by load(), the document has no encryption dictionary anymore, but keeps its security handler
+        if (inPdfDoc.isEncrypted() || inPdfDoc.getSecurityHandler() != null) {
+            throw new NuxeoException("Incremental save is not supported for an encrypted PDF ("
+                    + inOriginal.getFilename() + ")");
+        }
+
+        long start = System.nanoTime();
+        Blob result = Blobs.createBlobWithExtension(".pdf");
+        File resultFile = result.getFile();
+
+        // COSWriter computes the offsets of the appended objects from the position of the FileOutputStream, so the
+        // original bytes must be written through the very same stream.
+        try (FileOutputStream out = new FileOutputStream(resultFile);
+                FileInputStream in = new FileInputStream(resultFile)) {
+            inOriginal.transferTo(out);
+            inPdfDoc.saveIncremental(in, out);
         }
+        PDFMetrics.saved(start, resultFile.length());
 
         FileBlob fb = new FileBlob(resultFile);
         fb.setMimeType("application/pdf");
+        if (StringUtils.isNotBlank(inFileName)) {
+            fb.setFilename(inFileName);
+        }
 
         return fb;
+    }
+
+    /**
+     * Flag the page, its resources and the page tree nodes up to the catalog as modified, so
+     * {@link #saveIncrementalInTempFile(PDDocument, Blob, String)} writes them again. The writer only walks into
+     * objects that are flagged, this is why the whole path from the catalog must be flagged.
+     *
+     * @param inPdfDoc
+     * @param inPage
+     * @since 8.10
+     */
+    public static void markPageForIncrementalUpdate(PDDocument inPdfDoc, PDPage inPage) {
+
+        inPdfDoc.getDocumentCatalog().getCOSDictionary().setNeedToBeUpdate(true);
 
+        COSDictionary node = inPage.getCOSDictionary();
+        while (node != null) {
+            node.setNeedToBeUpdate(true);
+            COSBase parent = node.getDictionaryObject(COSName.PARENT);
+            node = parent instanceof COSDictionary ? (COSDictionary) parent : null;
+        }
+
+        PDResources resources = inPage.findResources();
+        if (resources != null) {
+            COSDictionary resourcesDict = resources.getCOSDictionary();
+            resourcesDict.setNeedToBeUpdate(true);
+            for (COSName key : resourcesDict.keySet()) {
+                COSBase value = resourcesDict.getDictionaryObject(key);
+                if (value instanceof COSDictionary) {
+                    value.setNeedToBeUpdate(true);
+                }
+            }
+        }
     }
 
     /**
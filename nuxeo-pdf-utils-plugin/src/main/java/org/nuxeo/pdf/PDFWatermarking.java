@@ -27,6 +27,7 @@ import java.util.Map;
 import javax.imageio.ImageIO;
 
 import org.apache.pdfbox.Overlay;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -43,8 +44,12 @@ import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.pipeline.ContentStreamBuilder;
+import org.nuxeo.pdf.pipeline.ParallelPageStamper;
 import org.nuxeo.runtime.api.Framework;
 
+import com.codahale.metrics.Timer;
+
 /**
  * This class adds a watermark to a Blob holding a PDF. It never changes the
  * original Blob: It returns a watermarked copy of it.
@@ -71,6 +76,10 @@ public class PDFWatermarking {
 
     public static final boolean DEFAULT_INVERT_Y = false;
 
+    public static final boolean DEFAULT_INCREMENTAL_SAVE = false;
+
+    public static final boolean DEFAULT_PARALLEL = false;
+
     protected Blob blob = null;
 
     protected String text = null;
@@ -91,6 +100,10 @@ public class PDFWatermarking {
 
     protected boolean invertY = DEFAULT_INVERT_Y;
 
+    protected boolean incrementalSave = DEFAULT_INCREMENTAL_SAVE;
+
+    protected boolean parallel = DEFAULT_PARALLEL;
+
     /**
      * Constructor
      *
@@ -131,6 +144,11 @@ public class PDFWatermarking {
      */
     public Blob watermark() throws NuxeoException {
 
+        return PDFUtils.execute("watermark", () -> doWatermark(), blob);
+    }
+
+    protected Blob doWatermark() throws NuxeoException {
+
         Blob result = null;
         PDDocument pdfDoc = null;
         PDPageContentStream contentStream = null;
@@ -163,13 +181,20 @@ public class PDFWatermarking {
 
         try {
 
-            pdfDoc = PDDocument.load(blob.getStream());
+            pdfDoc = PDFUtils.load(blob.getStream());
             PDFont font = PDType1Font.getStandardFont(fontFamily);
             int[] rgb = PDFUtils.hex255ToRGB(hex255Color);
 
             List<?> allPages = pdfDoc.getDocumentCatalog().getAllPages();
+            if (parallel) {
+                watermarkInParallel(pdfDoc, allPages, font, rgb, extendedGraphicsState);
+                return save(pdfDoc);
+            }
+
             int max = allPages.size();
+            Timer pageTimer = PDFMetrics.pageTimer();
             for (int i = 0; i < max; i++) {
+                Timer.Context pageTime = pageTimer.time();
                 contentStream = null;
 
                 PDPage page = (PDPage) allPages.get(i);
@@ -234,9 +259,14 @@ public class PDFWatermarking {
                 contentStream.endText();
                 contentStream.close();
                 contentStream = null;
+
+                if (incrementalSave) {
+                    PDFUtils.markPageForIncrementalUpdate(pdfDoc, page);
+                }
+                pageTime.stop();
             }
 
-            result = PDFUtils.saveInTempFile(pdfDoc);
+            result = save(pdfDoc);
 
         } catch (IOException | COSVisitorException e) {
             throw new NuxeoException(e);
@@ -253,15 +283,77 @@ public class PDFWatermarking {
         return result;
     }
 
+    /*
+     * Same rendering as the serial loop of watermark(), but the content streams are generated on all cores. invertY
+     * is applied to the height of each page.
+     */
+    @SuppressWarnings("unchecked")
+    protected void watermarkInParallel(PDDocument inPdfDoc, List<?> inPages, PDFont inFont, final int[] inRgb,
+            PDExtendedGraphicsState inGraphicsState) throws IOException {
+
+        List<PDPage> pages = (List<PDPage>) inPages;
+        ParallelPageStamper stamper = new ParallelPageStamper(inPdfDoc).setResetContext(true)
+                                                                       .setMarkForIncrementalUpdate(incrementalSave);
+        final String fontName = stamper.addResource(pages, COSName.FONT, "NxF", inFont.getCOSObject());
+        final String gsName = stamper.addResource(pages, COSName.EXT_G_STATE, "NxGS", inGraphicsState.getCOSObject());
+
+        final String theText = text;
+        final float theFontSize = fontSize;
+        final int theTextRotation = textRotation;
+        final float x = xPosition;
+        final float y = yPosition;
+        final boolean theInvertY = invertY;
+        final float stringWidth = inFont.getStringWidth(text) * fontSize / 1000f;
+
+        stamper.stamp(pages, 1, (out, pageNumber, pageSize, pageRot) -> {
+            boolean pageRotated = pageRot == 90 || pageRot == 270;
+            boolean textRotated = theTextRotation != 0 && theTextRotation != 360;
+            float pageWidth = pageRotated ? pageSize.getHeight() : pageSize.getWidth();
+            float pageHeight = pageRotated ? pageSize.getWidth() : pageSize.getHeight();
+            float yPos = theInvertY ? pageSize.getHeight() - y : y;
+
+            out.op("Q").op("BT");
+            out.name(fontName).number(theFontSize).op("Tf");
+            out.name(gsName).op("gs");
+            out.nonStrokingColor(inRgb);
+            double angle;
+            double tx;
+            double ty;
+            if (pageRotated) {
+                angle = Math.toRadians(pageRot - theTextRotation);
+                tx = pageHeight / 2f;
+                ty = (pageWidth - stringWidth) / 2f;
+            } else if (textRotated) {
+                angle = Math.toRadians(theTextRotation);
+                tx = x;
+                ty = yPos;
+            } else {
+                angle = 0;
+                tx = x;
+                ty = yPos;
+            }
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            out.number(cos).number(sin).number(-sin).number(cos).number(tx).number(ty).op("Tm");
+            out.string(theText).op("Tj");
+            out.op("ET");
+        });
+    }
+
     public Blob watermarkWithPdf(Blob inBlob) throws NuxeoException {
 
+        return PDFUtils.execute("watermarkWithPdf", () -> doWatermarkWithPdf(inBlob), blob, inBlob);
+    }
+
+    protected Blob doWatermarkWithPdf(Blob inBlob) throws NuxeoException {
+
         Blob result = null;
         PDDocument pdfDoc = null;
         PDDocument pdfOverlayDoc = null;
 
         try {
-            pdfDoc = PDDocument.load(blob.getStream());
-            pdfOverlayDoc = PDDocument.load(inBlob.getStream());
+            pdfDoc = PDFUtils.load(blob.getStream());
+            pdfOverlayDoc = PDFUtils.load(inBlob.getStream());
 
             Overlay overlay = new Overlay();
             overlay.overlay(pdfOverlayDoc, pdfDoc);
@@ -280,6 +372,12 @@ public class PDFWatermarking {
     public Blob watermarkWithImage(Blob inBlob, int x, int y, float scale)
             throws NuxeoException {
 
+        return PDFUtils.execute("watermarkWithImage", () -> doWatermarkWithImage(inBlob, x, y, scale), blob, inBlob);
+    }
+
+    protected Blob doWatermarkWithImage(Blob inBlob, int x, int y, float scale)
+            throws NuxeoException {
+
         Blob result = null;
         PDDocument pdfDoc = null;
         PDPageContentStream contentStream = null;
@@ -290,12 +388,14 @@ public class PDFWatermarking {
 
             BufferedImage tmp_image = ImageIO.read(inBlob.getStream());
 
-            pdfDoc = PDDocument.load(blob.getStream());
+            pdfDoc = PDFUtils.load(blob.getStream());
             PDXObjectImage ximage = new PDPixelMap(pdfDoc, tmp_image);
 
             List<?> allPages = pdfDoc.getDocumentCatalog().getAllPages();
             int max = allPages.size();
+            Timer pageTimer = PDFMetrics.pageTimer();
             for (int i = 0; i < max; i++) {
+                Timer.Context pageTime = pageTimer.time();
                 PDPage page = (PDPage) allPages.get(i);
 
                 contentStream = new PDPageContentStream(pdfDoc, page, true,
@@ -312,9 +412,14 @@ public class PDFWatermarking {
 
                 contentStream.close();
                 contentStream = null;
+
+                if (incrementalSave) {
+                    PDFUtils.markPageForIncrementalUpdate(pdfDoc, page);
+                }
+                pageTime.stop();
             }
 
-            result = PDFUtils.saveInTempFile(pdfDoc);
+            result = save(pdfDoc);
 
         } catch (IOException | COSVisitorException e) {
             throw new NuxeoException(e);
@@ -333,6 +438,17 @@ public class PDFWatermarking {
         return result;
     }
 
+    /*
+     * Full save, or incremental update of the original blob if incrementalSave is set
+     */
+    protected Blob save(PDDocument inPdfDoc) throws IOException, COSVisitorException {
+
+        if (incrementalSave) {
+            return PDFUtils.saveIncrementalInTempFile(inPdfDoc, blob, null);
+        }
+        return PDFUtils.saveInTempFile(inPdfDoc);
+    }
+
     /*
      * Utilities to handle null in setProperties()
      */
@@ -370,6 +486,8 @@ public class PDFWatermarking {
         setXPosition(stringToInt(inProps.get("xPosition")));
         setYPosition(stringToInt(inProps.get("yPosition")));
         setInvertY(stringToBoolean(inProps.get("invertY")));
+        setIncrementalSave(stringToBoolean(inProps.get("incrementalSave")));
+        setParallel(stringToBoolean(inProps.get("parallel")));
 
         return this;
     }
@@ -456,4 +574,39 @@ public class PDFWatermarking {
         invertY = inValue;
         return this;
     }
+
+    public boolean isIncrementalSave() {
+        return incrementalSave;
+    }
+
+    /**
+     * When true, the watermarked blob is saved as an incremental update of the original one: The original bytes are
+     * copied and only the modified pages and the new objects are appended. See
+     * {@link PDFUtils#saveIncrementalInTempFile(PDDocument, Blob, String)}. Not supported for an encrypted PDF
+     *
+     * @param inValue
+     * @return this
+     * @since 8.10
+     */
+    public PDFWatermarking setIncrementalSave(boolean inValue) {
+        incrementalSave = inValue;
+        return this;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * When true, the content of the pages is generated on all the available cores, see {@link ParallelPageStamper}.
+     * Only applies to {@link #watermark()}.
+     *
+     * @param inValue
+     * @return this
+     * @since 8.10
+     */
+    public PDFWatermarking setParallel(boolean inValue) {
+        parallel = inValue;
+        return this;
+    }
 }
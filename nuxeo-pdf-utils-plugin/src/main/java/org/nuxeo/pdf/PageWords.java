@@ -0,0 +1,226 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.util.TextPosition;
+
+/**
+ * The words of a page, with their position, see
+ * {@link PDFTextExtractor#extractWords(PDFTextExtractor.PageWordsHandler)}
+ * <p>
+ * Positions are in points, the origin being the upper left corner of the page (y goes down), as displayed (the page
+ * rotation is applied): <code>x</code> and <code>y</code> are the upper left corner of the box of the word.
+ * <p>
+ * The values are stored in one array per column, and the characters of all the words in one array, so a page
+ * costs a few objects whatever its number of words.
+ *
+ * @since 8.10
+ */
+public class PageWords {
+
+    protected int page;
+
+    protected int size;
+
+    protected float[] x;
+
+    protected float[] y;
+
+    protected float[] width;
+
+    protected float[] height;
+
+    // Word i is chars[starts[i]] to chars[starts[i + 1]] (excluded)
+    protected int[] starts;
+
+    protected char[] chars;
+
+    protected int charCount;
+
+    public PageWords(int inPage) {
+
+        page = inPage;
+        x = new float[64];
+        y = new float[64];
+        width = new float[64];
+        height = new float[64];
+        starts = new int[65];
+        chars = new char[512];
+    }
+
+    /**
+     * Adds the words of a piece of text, as sent by the {@link org.apache.pdfbox.util.PDFTextStripper}. It can contain
+     * several words separated by spaces. The box of a word is the union of the boxes of its characters.
+     *
+     * @param inPositions
+     */
+    public void add(List<TextPosition> inPositions) {
+
+        StringBuilder word = new StringBuilder();
+        float left = 0, top = 0, right = 0, bottom = 0;
+        for (TextPosition tp : inPositions) {
+            String c = tp.getCharacter();
+            if (c == null || c.trim().isEmpty()) {
+                if (word.length() > 0) {
+                    add(normalize(word), left, top, right - left, bottom - top);
+                    word.setLength(0);
+                }
+                continue;
+            }
+            float x0 = tp.getXDirAdj();
+            float y1 = tp.getYDirAdj();
+            if (word.length() == 0) {
+                left = x0;
+                right = x0 + tp.getWidthDirAdj();
+                top = y1 - tp.getHeightDir();
+                bottom = y1;
+            } else {
+                left = Math.min(left, x0);
+                right = Math.max(right, x0 + tp.getWidthDirAdj());
+                top = Math.min(top, y1 - tp.getHeightDir());
+                bottom = Math.max(bottom, y1);
+            }
+            word.append(c);
+        }
+        if (word.length() > 0) {
+            add(normalize(word), left, top, right - left, bottom - top);
+        }
+    }
+
+    /*
+     * Ligatures and other presentation forms (as the text stripper does)
+     */
+    protected static String normalize(CharSequence inWord) {
+
+        for (int i = 0; i < inWord.length(); i++) {
+            char c = inWord.charAt(i);
+            if ((c >= 0xFB00 && c <= 0xFDFF) || (c >= 0xFE70 && c <= 0xFEFF)) {
+                return Normalizer.normalize(inWord, Normalizer.Form.NFKC);
+            }
+        }
+        return inWord.toString();
+    }
+
+    public void add(String inText, float inX, float inY, float inWidth, float inHeight) {
+
+        if (size == x.length) {
+            int newLength = size * 2;
+            x = Arrays.copyOf(x, newLength);
+            y = Arrays.copyOf(y, newLength);
+            width = Arrays.copyOf(width, newLength);
+            height = Arrays.copyOf(height, newLength);
+            starts = Arrays.copyOf(starts, newLength + 1);
+        }
+        if (charCount + inText.length() > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + inText.length()));
+        }
+
+        x[size] = inX;
+        y[size] = inY;
+        width[size] = inWidth;
+        height[size] = inHeight;
+        inText.getChars(0, inText.length(), chars, charCount);
+        charCount += inText.length();
+        size += 1;
+        starts[size] = charCount;
+    }
+
+    /*
+     * Releases the unused part of the arrays
+     */
+    protected void trim() {
+
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        width = Arrays.copyOf(width, size);
+        height = Arrays.copyOf(height, size);
+        starts = Arrays.copyOf(starts, size + 1);
+        chars = Arrays.copyOf(chars, charCount);
+    }
+
+    /**
+     * @return the page number, starting at 1
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getText(int inIndex) {
+        return new String(chars, starts[inIndex], starts[inIndex + 1] - starts[inIndex]);
+    }
+
+    public float getX(int inIndex) {
+        return x[inIndex];
+    }
+
+    public float getY(int inIndex) {
+        return y[inIndex];
+    }
+
+    public float getWidth(int inIndex) {
+        return width[inIndex];
+    }
+
+    public float getHeight(int inIndex) {
+        return height[inIndex];
+    }
+
+    /**
+     * Finds a word, without creating a String for each word
+     *
+     * @param inWord
+     * @param inFromIndex
+     * @return the index of the first word equal to <code>inWord</code>, starting at <code>inFromIndex</code>, -1 if
+     *         not found
+     */
+    public int indexOf(String inWord, int inFromIndex) {
+
+        int length = inWord.length();
+        for (int i = Math.max(0, inFromIndex); i < size; i++) {
+            if (starts[i + 1] - starts[i] == length) {
+                int start = starts[i];
+                int j = 0;
+                while (j < length && chars[start + j] == inWord.charAt(j)) {
+                    j++;
+                }
+                if (j == length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Page " + page + ", " + size + " words";
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the first occurrence of each key of a set in a text, in one pass on the text, whatever the number of keys
+ * (Aho-Corasick automaton).
+ * <p>
+ * The automaton is built once by the constructor and can then be used on any number of texts, by any number of
+ * threads.
+ *
+ * @since 8.10
+ */
+public class TextKeyMatcher {
+
+    protected String[] keys;
+
+    // Per state: transitions, failure state and keys ending at this state (or at one of its suffixes)
+    protected List<Map<Character, Integer>> transitions = new ArrayList<Map<Character, Integer>>();
+
+    protected int[] failures;
+
+    protected int[][] outputs;
+
+    // Complete transition table for ASCII characters, the most frequent case: No lookup and no failure to follow
+    protected int[][] asciiNext;
+
+    protected static final int ASCII_SIZE = 128;
+
+    public TextKeyMatcher(String... inKeys) {
+
+        keys = inKeys.clone();
+
+        // Trie
+        List<List<Integer>> outs = new ArrayList<List<Integer>>();
+        transitions.add(new HashMap<Character, Integer>());
+        outs.add(new ArrayList<Integer>());
+        for (int k = 0; k < keys.length; k++) {
+            String key = keys[k];
+            if (key == null || key.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < key.length(); i++) {
+                Integer next = transitions.get(state).get(key.charAt(i));
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new HashMap<Character, Integer>());
+                    outs.add(new ArrayList<Integer>());
+                    transitions.get(state).put(key.charAt(i), next);
+                }
+                state = next;
+            }
+            outs.get(state).add(k);
+        }
+
+        // Failure links, breadth first so the failure state of a state is always complete before it
+        failures = new int[transitions.size()];
+        int[] bfsOrder = new int[transitions.size()];
+        int bfsCount = 1;
+        Deque<Integer> queue = new ArrayDeque<Integer>(transitions.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            bfsOrder[bfsCount++] = state;
+            for (Map.Entry<Character, Integer> e : transitions.get(state).entrySet()) {
+                int child = e.getValue();
+                queue.add(child);
+                if (state != 0) {
+                    failures[child] = next(failures[state], e.getKey());
+                }
+                outs.get(child).addAll(outs.get(failures[child]));
+            }
+        }
+
+        asciiNext = new int[transitions.size()][ASCII_SIZE];
+        for (int i = 0; i < bfsCount; i++) {
+            int state = bfsOrder[i];
+            for (char c = 0; c < ASCII_SIZE; c++) {
+                Integer next = transitions.get(state).get(c);
+                if (next != null) {
+                    asciiNext[state][c] = next;
+                } else if (state != 0) {
+                    asciiNext[state][c] = asciiNext[failures[state]][c];
+                }
+            }
+        }
+
+        outputs = new int[outs.size()][];
+        for (int i = 0; i < outputs.length; i++) {
+            List<Integer> out = outs.get(i);
+            outputs[i] = new int[out.size()];
+            for (int j = 0; j < outputs[i].length; j++) {
+                outputs[i][j] = out.get(j);
+            }
+        }
+    }
+
+    protected int next(int inState, char inChar) {
+
+        int state = inState;
+        while (true) {
+            Integer next = transitions.get(state).get(inChar);
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures[state];
+        }
+    }
+
+    /**
+     * @return the keys, in the order given to the constructor
+     */
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    /**
+     * Finds the first occurrence of each key. Stops as soon as all the keys are found.
+     *
+     * @param inText
+     * @return the position of each key in the text (same order as {@link #getKeys()}), -1 if not found
+     */
+    public int[] findFirst(CharSequence inText) {
+
+        int[] found = new int[keys.length];
+        Arrays.fill(found, -1);
+        int remaining = 0;
+        for (String key : keys) {
+            if (key != null && !key.isEmpty()) {
+                remaining += 1;
+            }
+        }
+
+        int state = 0;
+        int length = inText.length();
+        for (int i = 0; i < length && remaining > 0; i++) {
+            char c = inText.charAt(i);
+            state = c < ASCII_SIZE ? asciiNext[state][c] : next(state, c);
+            for (int k : outputs[state]) {
+                if (found[k] == -1) {
+                    found[k] = i - keys[k].length() + 1;
+                    remaining -= 1;
+                }
+            }
+        }
+
+        return found;
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.encryption;
+
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+
+/**
+ * Protection policy for AES-256 encryption (PDF 2.0, security handler revision 6). Use it with
+ * <code>PDDocument.protect()</code>: It is bound to {@link AES256SecurityHandler}, PDFBox 1.8 only supports RC4 for
+ * encryption.
+ *
+ * @since 8.10
+ */
+public class AES256ProtectionPolicy extends StandardProtectionPolicy {
+
+    public static final int KEY_LENGTH = 256;
+
+    public AES256ProtectionPolicy(String ownerPassword, String userPassword, AccessPermission permissions) {
+        super(ownerPassword, userPassword, permissions);
+        AES256SecurityHandler.register();
+    }
+
+    /*
+     * ProtectionPolicy.setEncryptionKeyLength() only accepts 40 and 128
+     */
+    @Override
+    public int getEncryptionKeyLength() {
+        return KEY_LENGTH;
+    }
+
+}
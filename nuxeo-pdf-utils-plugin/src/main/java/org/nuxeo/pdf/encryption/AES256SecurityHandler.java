@@ -0,0 +1,494 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.BadSecurityHandlerException;
+import org.apache.pdfbox.pdmodel.encryption.DecryptionMaterial;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryptionDictionary;
+import org.apache.pdfbox.pdmodel.encryption.SecurityHandler;
+import org.apache.pdfbox.pdmodel.encryption.SecurityHandlersManager;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+
+/**
+ * AES-256 security handler (PDF 2.0 / ISO 32000-2, standard security handler revision 6, crypt filter AESV3), for
+ * PDFBox 1.8 which only handles revisions 2 to 4.
+ * <p>
+ * Strings and streams are encrypted with AES-256-CBC and the file key, through the JCE, so the AES intrinsics of the
+ * JVM apply. There is no per-object key derivation as with RC4, so the cost is the cipher itself.
+ * <p>
+ * Encryption: Protect the document with an {@link AES256ProtectionPolicy}. Decryption: Use
+ * {@link #openProtection(PDDocument, String)} when {@link #isAES256(PDEncryptionDictionary)} is true. Revision 5 (the
+ * deprecated Adobe extension) can also be decrypted.
+ * <p>
+ * Passwords are encoded in UTF-8 without SASLprep normalization, which is the same for ASCII passwords.
+ *
+ * @since 8.10
+ */
+public class AES256SecurityHandler extends SecurityHandler {
+
+    /*
+     * Only used to register the handler for AES256ProtectionPolicy. The encryption dictionary uses /Standard
+     */
+    public static final String REGISTRATION_NAME = "NuxeoAES256";
+
+    public static final String FILTER = "Standard";
+
+    public static final int VERSION = 5;
+
+    public static final int REVISION = 6;
+
+    protected static final COSName CRYPT_FILTER_NAME = COSName.getPDFName("StdCF");
+
+    protected static final COSName OE = COSName.getPDFName("OE");
+
+    protected static final COSName UE = COSName.getPDFName("UE");
+
+    protected static final COSName PERMS = COSName.getPDFName("Perms");
+
+    protected static boolean registered = false;
+
+    protected static final SecureRandom RANDOM = new SecureRandom();
+
+    protected static final int BUFFER_SIZE = 8192;
+
+    protected StandardProtectionPolicy policy;
+
+    protected SecretKeySpec fileKey;
+
+    protected Cipher cipher;
+
+    protected byte[] presetKey;
+
+    protected boolean presetOwner;
+
+    public AES256SecurityHandler() {
+        version = VERSION;
+        keyLength = AES256ProtectionPolicy.KEY_LENGTH;
+    }
+
+    public AES256SecurityHandler(AES256ProtectionPolicy policy) {
+        this();
+        this.policy = policy;
+    }
+
+    /**
+     * For decryption with a known file key, which skips the password hashes
+     *
+     * @param inKey the file key, as computed by a previous decryption with the same password
+     * @param inOwner true if the password was the owner password
+     * @since 8.10
+     */
+    public AES256SecurityHandler(byte[] inKey, boolean inOwner) {
+        this();
+        presetKey = inKey;
+        presetOwner = inOwner;
+    }
+
+    /**
+     * Binds {@link AES256ProtectionPolicy} to this handler, so <code>PDDocument.protect()</code> uses it
+     */
+    public static synchronized void register() {
+
+        if (!registered) {
+            try {
+                SecurityHandlersManager.getInstance().registerHandler(REGISTRATION_NAME, AES256SecurityHandler.class,
+                        AES256ProtectionPolicy.class);
+            } catch (BadSecurityHandlerException e) {
+                throw new IllegalStateException("Cannot register the AES-256 security handler", e);
+            }
+            registered = true;
+        }
+    }
+
+    /**
+     * @param inDict the encryption dictionary of a document
+     * @return true if the document uses AES-256 (V 5, R 5 or 6)
+     */
+    public static boolean isAES256(PDEncryptionDictionary inDict) {
+        return inDict != null && FILTER.equals(inDict.getFilter()) && inDict.getVersion() == VERSION
+                && (inDict.getRevision() == 5 || inDict.getRevision() == 6);
+    }
+
+    /**
+     * Same as <code>PDDocument.openProtection()</code>, for an AES-256 document.
+     *
+     * @param inPdfDoc
+     * @param inPassword the owner or user password
+     * @throws IOException
+     * @throws CryptographyException if the password is wrong
+     */
+    public static void openProtection(PDDocument inPdfDoc, String inPassword) throws IOException,
+            CryptographyException {
+
+        AES256SecurityHandler handler = new AES256SecurityHandler();
+        // So getCurrentAccessPermission() returns the permissions of the password
+        inPdfDoc.setSecurityHandler(handler);
+        handler.decryptDocument(inPdfDoc, new StandardDecryptionMaterial(inPassword));
+        inPdfDoc.getDocument().dereferenceObjectStreams();
+        inPdfDoc.getDocument().setEncryptionDictionary(null);
+        inPdfDoc.getDocumentCatalog();
+    }
+
+    @Override
+    public boolean hasProtectionPolicy() {
+        return policy != null;
+    }
+
+    @Override
+    public void prepareDocumentForEncryption(PDDocument doc) throws CryptographyException, IOException {
+
+        document = doc;
+
+        byte[] key = randomBytes(32);
+        byte[] userPwd = passwordBytes(policy.getUserPassword());
+        byte[] ownerPwd = passwordBytes(policy.getOwnerPassword());
+        int permissions = policy.getPermissions().getPermissionBytes();
+
+        byte[] u = new byte[48];
+        byte[] userSalts = randomBytes(16);
+        System.arraycopy(computeHash(REVISION, userPwd, userSalts, 0, new byte[0]), 0, u, 0, 32);
+        System.arraycopy(userSalts, 0, u, 32, 16);
+        byte[] ue = aes("AES/CBC/NoPadding", Cipher.ENCRYPT_MODE,
+                computeHash(REVISION, userPwd, userSalts, 8, new byte[0]), key);
+
+        byte[] o = new byte[48];
+        byte[] ownerSalts = randomBytes(16);
+        System.arraycopy(computeHash(REVISION, ownerPwd, ownerSalts, 0, u), 0, o, 0, 32);
+        System.arraycopy(ownerSalts, 0, o, 32, 16);
+        byte[] oe = aes("AES/CBC/NoPadding", Cipher.ENCRYPT_MODE, computeHash(REVISION, ownerPwd, ownerSalts, 8, u),
+                key);
+
+        byte[] perms = new byte[16];
+        for (int i = 0; i < 4; i++) {
+            perms[i] = (byte) (permissions >>> (8 * i));
+            perms[i + 4] = (byte) 0xff;
+        }
+        perms[8] = 'T';
+        perms[9] = 'a';
+        perms[10] = 'd';
+        perms[11] = 'b';
+        System.arraycopy(randomBytes(4), 0, perms, 12, 4);
+        perms = aes("AES/ECB/NoPadding", Cipher.ENCRYPT_MODE, key, perms);
+
+        PDEncryptionDictionary encryptionDictionary = new PDEncryptionDictionary();
+        encryptionDictionary.setFilter(FILTER);
+        encryptionDictionary.setVersion(VERSION);
+        encryptionDictionary.setRevision(REVISION);
+        encryptionDictionary.setLength(AES256ProtectionPolicy.KEY_LENGTH);
+        encryptionDictionary.setOwnerKey(o);
+        encryptionDictionary.setUserKey(u);
+        encryptionDictionary.setPermissions(permissions);
+
+        COSDictionary dict = encryptionDictionary.getCOSDictionary();
+        dict.setItem(OE, new COSString(oe));
+        dict.setItem(UE, new COSString(ue));
+        dict.setItem(PERMS, new COSString(perms));
+
+        COSDictionary stdCF = new COSDictionary();
+        stdCF.setItem(COSName.getPDFName("AuthEvent"), COSName.getPDFName("DocOpen"));
+        stdCF.setItem(COSName.getPDFName("CFM"), COSName.getPDFName("AESV3"));
+        stdCF.setItem(COSName.LENGTH, COSInteger.get(32));
+        COSDictionary cf = new COSDictionary();
+        cf.setItem(CRYPT_FILTER_NAME, stdCF);
+        dict.setItem(COSName.getPDFName("CF"), cf);
+        dict.setItem(COSName.getPDFName("StmF"), CRYPT_FILTER_NAME);
+        dict.setItem(COSName.getPDFName("StrF"), CRYPT_FILTER_NAME);
+
+        setFileKey(key);
+
+        document.setEncryptionDictionary(encryptionDictionary);
+        document.getDocument().setEncryptionDictionary(dict);
+    }
+
+    @Override
+    public void prepareForDecryption(PDEncryptionDictionary encDictionary, COSArray documentIDArray,
+            DecryptionMaterial decryptionMaterial) throws CryptographyException, IOException {
+
+        if (!(decryptionMaterial instanceof StandardDecryptionMaterial)) {
+            throw new CryptographyException("Provided decryption material is not compatible with the document");
+        }
+
+        if (presetKey != null) {
+            if (presetOwner) {
+                currentAccessPermission = AccessPermission.getOwnerAccessPermission();
+            } else {
+                currentAccessPermission = new AccessPermission(encDictionary.getPermissions());
+                currentAccessPermission.setReadOnly();
+            }
+            decryptMetadata = encDictionary.isEncryptMetaData();
+            setFileKey(presetKey);
+            return;
+        }
+
+        int revision = encDictionary.getRevision();
+        byte[] pwd = passwordBytes(((StandardDecryptionMaterial) decryptionMaterial).getPassword());
+        byte[] o = Arrays.copyOf(encDictionary.getOwnerKey(), 48);
+        byte[] u = Arrays.copyOf(encDictionary.getUserKey(), 48);
+        COSDictionary dict = encDictionary.getCOSDictionary();
+
+        byte[] key;
+        if (Arrays.equals(computeHash(revision, pwd, o, 32, u), Arrays.copyOf(o, 32))) {
+            key = unwrapKey(revision, pwd, o, u, getBytes(dict, OE));
+            currentAccessPermission = AccessPermission.getOwnerAccessPermission();
+        } else if (Arrays.equals(computeHash(revision, pwd, u, 32, new byte[0]), Arrays.copyOf(u, 32))) {
+            key = unwrapKey(revision, pwd, u, new byte[0], getBytes(dict, UE));
+            currentAccessPermission = new AccessPermission(encDictionary.getPermissions());
+            currentAccessPermission.setReadOnly();
+        } else {
+            throw new CryptographyException("Error: The supplied password does not match either the owner or user "
+                    + "password in the document.");
+        }
+
+        decryptMetadata = encDictionary.isEncryptMetaData();
+        setFileKey(key);
+    }
+
+    @Override
+    public void decryptDocument(PDDocument doc, DecryptionMaterial mat) throws CryptographyException, IOException {
+
+        document = doc;
+        prepareForDecryption(doc.getEncryptionDictionary(), null, mat);
+        proceedDecryption();
+    }
+
+    /*
+     * AESV3: No object key, a random IV before the data
+     */
+    @Override
+    public void encryptData(long objectNumber, long genNumber, InputStream data, OutputStream output,
+            boolean decrypt) throws CryptographyException, IOException {
+
+        byte[] iv = new byte[16];
+        byte[] buffer = new byte[BUFFER_SIZE + 16];
+        int n;
+        try {
+            if (decrypt) {
+                int read = 0;
+                while (read < 16 && (n = data.read(iv, read, 16 - read)) > 0) {
+                    read += n;
+                }
+                if (read < 16) {
+                    // Empty string or stream
+                    return;
+                }
+                cipher.init(Cipher.DECRYPT_MODE, fileKey, new IvParameterSpec(iv));
+
+                // Keep the last block until the end: The parser may have left the EOL before "endstream" in the
+                // data, which must be ignored
+                int kept = 0;
+                long total = 0;
+                while ((n = data.read(buffer, kept, BUFFER_SIZE)) != -1) {
+                    total += n;
+                    int available = kept + n;
+                    int process = Math.max(0, available - 16);
+                    write(output, cipher.update(buffer, 0, process));
+                    System.arraycopy(buffer, process, buffer, 0, available - process);
+                    kept = available - process;
+                }
+                write(output, cipher.doFinal(buffer, 0, kept - (int) (total % 16)));
+
+            } else {
+                randomIV(iv);
+                output.write(iv);
+                cipher.init(Cipher.ENCRYPT_MODE, fileKey, new IvParameterSpec(iv));
+                while ((n = data.read(buffer, 0, BUFFER_SIZE)) != -1) {
+                    write(output, cipher.update(buffer, 0, n));
+                }
+                write(output, cipher.doFinal());
+            }
+            output.flush();
+
+        } catch (GeneralSecurityException e) {
+            throw new CryptographyException(e);
+        }
+    }
+
+    protected static void write(OutputStream inOutput, byte[] inBytes) throws IOException {
+        if (inBytes != null) {
+            inOutput.write(inBytes);
+        }
+    }
+
+    /*
+     * When the length of a stream is an indirect object, the PDFBox 1.8 parser scans for "endstream", and keeps the
+     * EOL before it if the first 10 bytes look like text. So the IV must have at least one binary byte there.
+     */
+    protected static void randomIV(byte[] inIV) {
+
+        boolean binary = false;
+        while (!binary) {
+            RANDOM.nextBytes(inIV);
+            for (int i = 0; i < 10 && !binary; i++) {
+                int b = inIV[i] & 0xff;
+                binary = b < 0x09 || b > 0x7f || (b > 0x0a && b < 0x20 && b != 0x0d);
+            }
+        }
+    }
+
+    byte[] getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    protected void setFileKey(byte[] inKey) throws CryptographyException {
+
+        encryptionKey = inKey;
+        fileKey = new SecretKeySpec(inKey, "AES");
+        try {
+            cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        } catch (GeneralSecurityException e) {
+            throw new CryptographyException(e);
+        }
+    }
+
+    protected static byte[] unwrapKey(int inRevision, byte[] inPwd, byte[] inValidation, byte[] inUData,
+            byte[] inEncryptedKey) throws CryptographyException {
+
+        byte[] intermediate = computeHash(inRevision, inPwd, inValidation, 40, inUData);
+        return aes("AES/CBC/NoPadding", Cipher.DECRYPT_MODE, intermediate, Arrays.copyOf(inEncryptedKey, 32));
+    }
+
+    /**
+     * Algorithm 2.B of ISO 32000-2 (revision 6), or a simple SHA-256 for revision 5.
+     *
+     * @param inRevision
+     * @param inPwd the password, UTF-8, at most 127 bytes
+     * @param inSalts the array holding the 8 bytes salt
+     * @param inSaltOffset the position of the salt in <code>inSalts</code>
+     * @param inUData the 48 bytes U value when computing an owner hash, else an empty array
+     * @return the 32 bytes hash
+     * @throws CryptographyException
+     */
+    protected static byte[] computeHash(int inRevision, byte[] inPwd, byte[] inSalts, int inSaltOffset,
+            byte[] inUData) throws CryptographyException {
+
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(inPwd);
+            sha256.update(inSalts, inSaltOffset, 8);
+            sha256.update(inUData);
+            byte[] k = sha256.digest();
+            if (inRevision == 5) {
+                return k;
+            }
+
+            MessageDigest sha384 = MessageDigest.getInstance("SHA-384");
+            MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+            Cipher aes = Cipher.getInstance("AES/CBC/NoPadding");
+            byte[] e = null;
+            for (int round = 0; round < 64 || (e[e.length - 1] & 0xff) > round - 32; round++) {
+                int seqLength = inPwd.length + k.length + inUData.length;
+                byte[] k1 = new byte[seqLength * 64];
+                for (int i = 0; i < 64; i++) {
+                    int pos = i * seqLength;
+                    System.arraycopy(inPwd, 0, k1, pos, inPwd.length);
+                    System.arraycopy(k, 0, k1, pos + inPwd.length, k.length);
+                    System.arraycopy(inUData, 0, k1, pos + inPwd.length + k.length, inUData.length);
+                }
+
+                aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(k, 0, 16, "AES"), new IvParameterSpec(k, 16, 16));
+                e = aes.doFinal(k1);
+
+                int sum = 0;
+                for (int i = 0; i < 16; i++) {
+                    sum += e[i] & 0xff;
+                }
+                switch (sum % 3) {
+                case 0:
+                    k = sha256.digest(e);
+                    break;
+                case 1:
+                    k = sha384.digest(e);
+                    break;
+                default:
+                    k = sha512.digest(e);
+                    break;
+                }
+            }
+            return Arrays.copyOf(k, 32);
+
+        } catch (GeneralSecurityException e) {
+            throw new CryptographyException(e);
+        }
+    }
+
+    protected static byte[] aes(String inTransformation, int inMode, byte[] inKey, byte[] inData)
+            throws CryptographyException {
+
+        try {
+            Cipher cipher = Cipher.getInstance(inTransformation);
+            SecretKeySpec key = new SecretKeySpec(inKey, "AES");
+            if (inTransformation.contains("CBC")) {
+                cipher.init(inMode, key, new IvParameterSpec(new byte[16]));
+            } else {
+                cipher.init(inMode, key);
+            }
+            return cipher.doFinal(inData);
+        } catch (GeneralSecurityException e) {
+            throw new CryptographyException(e);
+        }
+    }
+
+    protected static byte[] passwordBytes(String inPassword) {
+
+        if (inPassword == null) {
+            return new byte[0];
+        }
+        byte[] bytes = inPassword.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > 127 ? Arrays.copyOf(bytes, 127) : bytes;
+    }
+
+    protected static byte[] randomBytes(int inLength) {
+        byte[] bytes = new byte[inLength];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    protected static byte[] getBytes(COSDictionary inDict, COSName inKey) throws CryptographyException {
+
+        COSBase value = inDict.getDictionaryObject(inKey);
+        if (!(value instanceof COSString)) {
+            throw new CryptographyException("Missing /" + inKey.getName() + " in the encryption dictionary");
+        }
+        return ((COSString) value).getBytes();
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.encryption;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.DecryptionMaterial;
+import org.apache.pdfbox.pdmodel.encryption.PDCryptFilterDictionary;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryptionDictionary;
+import org.apache.pdfbox.pdmodel.encryption.StandardSecurityHandler;
+
+/**
+ * Standard security handler (revisions 2 to 4) that can be given the file key, so the key is not derived from the
+ * password again. Without a key, it behaves as the PDFBox handler.
+ *
+ * @since 8.10
+ */
+public class CachedKeySecurityHandler extends StandardSecurityHandler {
+
+    protected byte[] presetKey;
+
+    protected boolean presetOwner;
+
+    public CachedKeySecurityHandler() {
+        super();
+    }
+
+    /**
+     * @param inKey the file key, as computed by a previous decryption with the same password
+     * @param inOwner true if the password was the owner password
+     */
+    public CachedKeySecurityHandler(byte[] inKey, boolean inOwner) {
+        super();
+        presetKey = inKey;
+        presetOwner = inOwner;
+    }
+
+    @Override
+    public void prepareForDecryption(PDEncryptionDictionary encDictionary, COSArray documentIDArray,
+            DecryptionMaterial decryptionMaterial) throws CryptographyException, IOException {
+
+        if (presetKey == null) {
+            super.prepareForDecryption(encDictionary, documentIDArray, decryptionMaterial);
+            return;
+        }
+
+        decryptMetadata = encDictionary.isEncryptMetaData();
+        if (presetOwner) {
+            currentAccessPermission = AccessPermission.getOwnerAccessPermission();
+        } else {
+            currentAccessPermission = new AccessPermission(encDictionary.getPermissions());
+            currentAccessPermission.setReadOnly();
+        }
+        encryptionKey = presetKey;
+
+        // Same as the PDFBox handler
+        if (encDictionary.getVersion() == 4 || encDictionary.getVersion() == 5) {
+            PDCryptFilterDictionary stdCryptFilterDictionary = encDictionary.getStdCryptFilterDictionary();
+            if (stdCryptFilterDictionary != null) {
+                COSName cryptFilterMethod = stdCryptFilterDictionary.getCryptFilterMethod();
+                if (cryptFilterMethod != null) {
+                    setAES("AESV2".equalsIgnoreCase(cryptFilterMethod.getName()));
+                }
+            }
+        }
+    }
+
+    byte[] getEncryptionKey() {
+        return encryptionKey;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.encryption;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.pdfparser.NonSequentialPDFParser;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryptionDictionary;
+import org.apache.pdfbox.pdmodel.encryption.SecurityHandler;
+import org.apache.pdfbox.persistence.util.COSObjectKey;
+
+/**
+ * Non sequential parser that only reads the cross-reference table, the trailer and the catalog dictionary when opened.
+ * Other objects are parsed on demand with {@link #getObject(COSObjectKey)}.
+ * <p>
+ * A failure of the standard security handler of PDFBox (wrong password, AES-256 document, ...) does not fail
+ * {@link #open()}: It is available with {@link #getEncryptionError()}, and objects are not decrypted until the caller
+ * sets a security handler.
+ *
+ * @since 8.10
+ */
+public class LazyPDFParser extends NonSequentialPDFParser {
+
+    private static final Log log = LogFactory.getLog(LazyPDFParser.class);
+
+    protected IOException encryptionError;
+
+    /**
+     * @param inFile
+     * @param inScratch stores the stream data. If null, stream data is kept in memory
+     * @param inPassword
+     * @throws IOException
+     */
+    public LazyPDFParser(File inFile, RandomAccess inScratch, String inPassword) throws IOException {
+        super(inFile, inScratch, inPassword == null ? "" : inPassword);
+        setParseMinimalCatalog();
+    }
+
+    /**
+     * The stream is copied in a temporary file, deleted by {@link #close()}
+     */
+    public LazyPDFParser(InputStream inStream, RandomAccess inScratch, String inPassword) throws IOException {
+        super(inStream, inScratch, inPassword == null ? "" : inPassword);
+        setParseMinimalCatalog();
+    }
+
+    /*
+     * Else initialParse() resolves everything the catalog references, which is most of the document. The
+     * SYSPROP_PARSEMINIMAL system property would change it for every parser of the JVM.
+     */
+    protected void setParseMinimalCatalog() {
+        try {
+            Field field = NonSequentialPDFParser.class.getDeclaredField("parseMinimalCatalog");
+            field.setAccessible(true);
+            field.setBoolean(this, true);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            log.warn("Cannot set the parser to minimal catalog parsing, the catalog will be loaded", e);
+        }
+    }
+
+    public void open() throws IOException {
+
+        parseHeader();
+        pdfSource.seek(0);
+        try {
+            initialParse();
+        } catch (IOException e) {
+            if (document.getEncryptionDictionary() == null) {
+                throw e;
+            }
+            encryptionError = e;
+            securityHandler = null;
+        }
+    }
+
+    /**
+     * @return the error of the PDFBox security handler, null if the document is not encrypted or was decrypted
+     */
+    public IOException getEncryptionError() {
+        return encryptionError;
+    }
+
+    /**
+     * @return the encryption dictionary, null if the document is not encrypted
+     */
+    public PDEncryptionDictionary getEncryptionDictionary() {
+        COSDictionary dict = document.getEncryptionDictionary();
+        return dict == null ? null : new PDEncryptionDictionary(dict);
+    }
+
+    public COSArray getDocumentID() {
+        return document.getDocumentID();
+    }
+
+    /**
+     * The handler must be ready for decryption (<code>prepareForDecryption()</code> called)
+     */
+    public void setSecurityHandler(SecurityHandler inHandler) {
+        securityHandler = inHandler;
+        encryptionError = null;
+    }
+
+    public COSDictionary getTrailer() {
+        return document.getTrailer();
+    }
+
+    /**
+     * @return the offset of each object in the file, or the negated number of the object stream containing it
+     */
+    public Map<COSObjectKey, Long> getXrefTable() {
+        return xrefTrailerResolver.getXrefTable();
+    }
+
+    public COSBase getObject(COSObjectKey inKey) throws IOException {
+        return parseObjectDynamically((int) inKey.getNumber(), (int) inKey.getGeneration(), false);
+    }
+
+    /**
+     * Reads the number of pages in the <code>/Count</code> entry of the root of the page tree: Only this node is
+     * parsed, the pages are not.
+     */
+    public int getPageCount() throws IOException {
+        COSBase catalog = resolve(document.getTrailer().getItem(COSName.ROOT));
+        if (!(catalog instanceof COSDictionary)) {
+            throw new IOException("The PDF has no catalog");
+        }
+        COSBase pages = resolve(((COSDictionary) catalog).getItem(COSName.PAGES));
+        if (!(pages instanceof COSDictionary)) {
+            throw new IOException("The PDF has no page tree");
+        }
+        COSBase count = resolve(((COSDictionary) pages).getItem(COSName.COUNT));
+        if (!(count instanceof COSNumber)) {
+            throw new IOException("The root of the page tree has no /Count");
+        }
+        return ((COSNumber) count).intValue();
+    }
+
+    /*
+     * With the minimal catalog, the objects referenced by the catalog are not parsed yet
+     */
+    protected COSBase resolve(COSBase inBase) throws IOException {
+        if (inBase instanceof COSObject) {
+            COSObject obj = (COSObject) inBase;
+            return obj.getObject() == null ? parseObjectDynamically(obj, false) : obj.getObject();
+        }
+        return inBase;
+    }
+
+    public void close() throws IOException {
+        try {
+            if (pdfSource != null) {
+                pdfSource.close();
+            }
+            if (document != null) {
+                document.close();
+            }
+        } finally {
+            deleteTempFile();
+        }
+    }
+}
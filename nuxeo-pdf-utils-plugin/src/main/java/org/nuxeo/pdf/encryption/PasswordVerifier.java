@@ -0,0 +1,308 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.encryption;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.StringUtils;
+import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.BadSecurityHandlerException;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryptionDictionary;
+import org.apache.pdfbox.pdmodel.encryption.SecurityHandler;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.apache.pdfbox.pdmodel.encryption.StandardSecurityHandler;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Checks passwords of encrypted PDFs, and remembers the file key of the passwords that worked.
+ * <p>
+ * {@link #verify(Blob, String)} only reads the cross-reference table and the trailer, with its
+ * <code>/Encrypt</code> dictionary: Pages are not parsed. The file key of a valid password is kept for a short time
+ * (see {@link #setTimeToLive(long)}), and {@link #openProtection(PDDocument, Blob, String)} uses it instead of deriving
+ * the key again.
+ * <p>
+ * Entries are identified by the digest of the blob, or by the path, length and date of its file when it has no
+ * digest. Blobs with neither are never cached. Passwords are not stored, only a hash of the password and the blob
+ * identity.
+ * <p>
+ * Only the standard security handler is supported (RC4, AES-128 and AES-256), not the public key one.
+ *
+ * @since 8.10
+ */
+public class PasswordVerifier {
+
+    public enum Result {
+        NOT_ENCRYPTED, OWNER, USER, INVALID
+    }
+
+    public static final long DEFAULT_TIME_TO_LIVE_MS = 5 * 60 * 1000;
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    protected static final PasswordVerifier INSTANCE = new PasswordVerifier();
+
+    protected long timeToLive = DEFAULT_TIME_TO_LIVE_MS;
+
+    protected int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    protected final Map<String, VerifiedKey> cache = new LinkedHashMap<String, VerifiedKey>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VerifiedKey> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    protected static class VerifiedKey {
+
+        protected final byte[] key;
+
+        protected final boolean owner;
+
+        protected final long expires;
+
+        protected VerifiedKey(byte[] inKey, boolean inOwner, long inExpires) {
+            key = inKey;
+            owner = inOwner;
+            expires = inExpires;
+        }
+    }
+
+    /**
+     * @return the instance shared by the plug-in
+     */
+    public static PasswordVerifier getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks the password against the <code>/Encrypt</code> dictionary of the PDF.
+     *
+     * @param inBlob
+     * @param inPassword
+     * @return {@link Result#NOT_ENCRYPTED} if the PDF is not encrypted, else the kind of password
+     * @throws NuxeoException if the PDF cannot be parsed, or does not use the standard security handler
+     */
+    public Result verify(Blob inBlob, String inPassword) throws NuxeoException {
+
+        String cacheKey = getCacheKey(inBlob, inPassword);
+        VerifiedKey verified = get(cacheKey);
+        if (verified != null) {
+            return verified.owner ? Result.OWNER : Result.USER;
+        }
+
+        LazyPDFParser parser = null;
+        try {
+            File file = inBlob.getFile();
+            if (file != null) {
+                parser = new LazyPDFParser(file, null, inPassword);
+            } else {
+                try (InputStream in = inBlob.getStream()) {
+                    parser = new LazyPDFParser(in, null, inPassword);
+                }
+            }
+            parser.open();
+
+            PDEncryptionDictionary encDict = parser.getEncryptionDictionary();
+            if (encDict == null) {
+                return Result.NOT_ENCRYPTED;
+            }
+
+            SecurityHandler handler = createHandler(encDict, null);
+            try {
+                handler.prepareForDecryption(encDict, parser.getDocumentID(), new StandardDecryptionMaterial(
+                        inPassword));
+            } catch (CryptographyException e) {
+                return Result.INVALID;
+            }
+
+            verified = put(cacheKey, handler);
+            return verified.owner ? Result.OWNER : Result.USER;
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to read the encryption dictionary of the PDF", e);
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    // Nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as <code>PDDocument.openProtection()</code> for a standard security handler, using the cached key of the
+     * password when there is one, and caching it else.
+     *
+     * @param inPdfDoc an encrypted document, loaded from <code>inBlob</code>
+     * @param inBlob
+     * @param inPassword
+     * @throws IOException
+     * @throws CryptographyException if the password is wrong
+     * @throws BadSecurityHandlerException
+     */
+    public void openProtection(PDDocument inPdfDoc, Blob inBlob, String inPassword) throws IOException,
+            CryptographyException, BadSecurityHandlerException {
+
+        PDEncryptionDictionary encDict = inPdfDoc.getEncryptionDictionary();
+        if (!StandardSecurityHandler.FILTER.equals(encDict.getFilter())) {
+            inPdfDoc.openProtection(new StandardDecryptionMaterial(inPassword));
+            return;
+        }
+
+        String cacheKey = getCacheKey(inBlob, inPassword);
+        VerifiedKey verified = get(cacheKey);
+
+        SecurityHandler handler = createHandler(encDict, verified);
+        // So getCurrentAccessPermission() returns the permissions of the password
+        inPdfDoc.setSecurityHandler(handler);
+        handler.decryptDocument(inPdfDoc, new StandardDecryptionMaterial(inPassword));
+        inPdfDoc.getDocument().dereferenceObjectStreams();
+        inPdfDoc.getDocument().setEncryptionDictionary(null);
+        inPdfDoc.getDocumentCatalog();
+
+        if (verified == null) {
+            put(cacheKey, handler);
+        }
+    }
+
+    /**
+     * Time during which the key of a valid password is kept. Default value is {@link #DEFAULT_TIME_TO_LIVE_MS}, 0
+     * disables the cache.
+     *
+     * @param inMilliseconds
+     */
+    public void setTimeToLive(long inMilliseconds) {
+        timeToLive = inMilliseconds;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Default value is {@link #DEFAULT_MAX_ENTRIES}. The least recently used entries are removed first.
+     *
+     * @param inMaxEntries
+     */
+    public void setMaxEntries(int inMaxEntries) {
+        synchronized (cache) {
+            maxEntries = inMaxEntries;
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    protected SecurityHandler createHandler(PDEncryptionDictionary inEncDict, VerifiedKey inVerified)
+            throws IOException {
+
+        if (!StandardSecurityHandler.FILTER.equals(inEncDict.getFilter())) {
+            throw new NuxeoException("Unsupported security handler: " + inEncDict.getFilter());
+        }
+        if (AES256SecurityHandler.isAES256(inEncDict)) {
+            return inVerified == null ? new AES256SecurityHandler() : new AES256SecurityHandler(inVerified.key,
+                    inVerified.owner);
+        }
+        return inVerified == null ? new CachedKeySecurityHandler() : new CachedKeySecurityHandler(inVerified.key,
+                inVerified.owner);
+    }
+
+    protected VerifiedKey get(String inCacheKey) {
+
+        if (inCacheKey == null) {
+            return null;
+        }
+        synchronized (cache) {
+            VerifiedKey verified = cache.get(inCacheKey);
+            if (verified != null && verified.expires < System.currentTimeMillis()) {
+                cache.remove(inCacheKey);
+                verified = null;
+            }
+            return verified;
+        }
+    }
+
+    protected VerifiedKey put(String inCacheKey, SecurityHandler inHandler) {
+
+        byte[] key;
+        if (inHandler instanceof AES256SecurityHandler) {
+            key = ((AES256SecurityHandler) inHandler).getEncryptionKey();
+        } else {
+            key = ((CachedKeySecurityHandler) inHandler).getEncryptionKey();
+        }
+        boolean owner = inHandler.getCurrentAccessPermission().isOwnerPermission();
+        VerifiedKey verified = new VerifiedKey(key, owner, System.currentTimeMillis() + timeToLive);
+
+        if (inCacheKey != null && timeToLive > 0) {
+            synchronized (cache) {
+                cache.put(inCacheKey, verified);
+            }
+        }
+        return verified;
+    }
+
+    /*
+     * The identity of the blob, plus a hash of the identity and the password. Null if the blob cannot be identified
+     */
+    protected String getCacheKey(Blob inBlob, String inPassword) {
+
+        String identity = null;
+        if (StringUtils.isNotBlank(inBlob.getDigest())) {
+            identity = inBlob.getDigestAlgorithm() + ":" + inBlob.getDigest();
+        } else {
+            File file = inBlob.getFile();
+            if (file != null) {
+                identity = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+            }
+        }
+        if (identity == null) {
+            return null;
+        }
+
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(identity.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) 0);
+            if (inPassword != null) {
+                sha256.update(inPassword.getBytes(StandardCharsets.UTF_8));
+            }
+            return identity + "/" + Hex.encodeHexString(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.encryption;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.io.RandomAccessFile;
+import org.apache.pdfbox.pdfwriter.COSStandardOutputStream;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryptionDictionary;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.apache.pdfbox.persistence.util.COSObjectKey;
+
+/**
+ * Removes the encryption of a PDF without loading the document: The cross-reference table is read, then each object is
+ * parsed, decrypted, written to the output file and released, one at a time. Stream data goes through a scratch file,
+ * so the heap only holds the cross-reference table and the object being copied, whatever the size of the file.
+ * <p>
+ * Objects keep their numbers. Objects stored in object streams are written as regular objects, and the output uses a
+ * classic cross-reference table.
+ *
+ * @since 8.10
+ */
+public class StreamingDecryption {
+
+    protected static final COSName OBJ_STM = COSName.getPDFName("ObjStm");
+
+    protected static final byte[] BINARY_COMMENT = { '%', (byte) 0xe2, (byte) 0xe3, (byte) 0xcf, (byte) 0xd3, '\n' };
+
+    protected static final int BUFFER_SIZE = 8192;
+
+    protected File pdfFile;
+
+    protected String password;
+
+    protected File scratchFile;
+
+    protected LazyPDFParser parser;
+
+    protected COSStandardOutputStream output;
+
+    // Indexed by object number, 0 when the object is not written
+    protected long[] offsets;
+
+    protected int[] generations;
+
+    /**
+     * @param inPdf the encrypted PDF
+     * @param inPassword the owner password
+     */
+    public StreamingDecryption(File inPdf, String inPassword) {
+        pdfFile = inPdf;
+        password = inPassword == null ? "" : inPassword;
+    }
+
+    /**
+     * Writes the decrypted PDF in <code>inDest</code>
+     *
+     * @param inDest
+     * @throws IOException
+     */
+    public void writeTo(File inDest) throws IOException {
+
+        scratchFile = File.createTempFile("nuxeo-pdfutils-scratch-", ".tmp");
+        RandomAccessFile scratch = new RandomAccessFile(scratchFile, "rw");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(inDest), BUFFER_SIZE * 8)) {
+            parser = new LazyPDFParser(pdfFile, scratch, password);
+            parser.open();
+            if (parser.getEncryptionError() != null) {
+                // The standard security handler of PDFBox 1.8 fails on AES-256 documents
+                PDEncryptionDictionary encDict = parser.getEncryptionDictionary();
+                if (!AES256SecurityHandler.isAES256(encDict)) {
+                    throw parser.getEncryptionError();
+                }
+                AES256SecurityHandler handler = new AES256SecurityHandler();
+                try {
+                    handler.prepareForDecryption(encDict, null, new StandardDecryptionMaterial(password));
+                } catch (CryptographyException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                parser.setSecurityHandler(handler);
+            }
+            output = new COSStandardOutputStream(out);
+            write();
+            out.flush();
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+            scratch.close();
+            scratchFile.delete();
+        }
+    }
+
+    protected void write() throws IOException {
+
+        COSDocument cosDoc = parser.getDocument();
+        COSDictionary trailer = cosDoc.getTrailer();
+        Map<COSObjectKey, Long> xref = parser.getXrefTable();
+
+        long maxNumber = 0;
+        for (COSObjectKey key : xref.keySet()) {
+            maxNumber = Math.max(maxNumber, key.getNumber());
+        }
+        offsets = new long[(int) maxNumber + 1];
+        generations = new int[(int) maxNumber + 1];
+
+        Set<Long> skipped = new HashSet<>();
+        COSBase encrypt = trailer.getItem(COSName.ENCRYPT);
+        if (encrypt instanceof COSObject) {
+            skipped.add(((COSObject) encrypt).getObjectNumber().longValue());
+        }
+        for (Long offset : xref.values()) {
+            if (offset != null && offset < 0) {
+                // Object stream: Its objects are written one by one
+                skipped.add(-offset);
+            }
+        }
+
+        // Regular objects first, then the content of each object stream, so only one object stream is parsed at a time
+        List<Map.Entry<COSObjectKey, Long>> entries = new ArrayList<>(xref.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<COSObjectKey, Long>>() {
+            @Override
+            public int compare(Map.Entry<COSObjectKey, Long> e1, Map.Entry<COSObjectKey, Long> e2) {
+                long c1 = e1.getValue() == null || e1.getValue() > 0 ? 0 : -e1.getValue();
+                long c2 = e2.getValue() == null || e2.getValue() > 0 ? 0 : -e2.getValue();
+                if (c1 != c2) {
+                    return c1 < c2 ? -1 : 1;
+                }
+                return Long.compare(e1.getKey().getNumber(), e2.getKey().getNumber());
+            }
+        });
+
+        output.write(("%PDF-" + cosDoc.getVersion()).getBytes("ISO-8859-1"));
+        output.writeEOL();
+        output.write(BINARY_COMMENT);
+
+        long currentObjStm = 0;
+        List<COSObjectKey> pending = new ArrayList<>();
+        for (Map.Entry<COSObjectKey, Long> entry : entries) {
+            COSObjectKey key = entry.getKey();
+            Long offset = entry.getValue();
+            if (offset == null || offset == 0 || skipped.contains(key.getNumber())) {
+                continue;
+            }
+
+            long objStm = offset > 0 ? 0 : -offset;
+            if (objStm != currentObjStm) {
+                release(pending);
+                if (currentObjStm != 0) {
+                    release(new COSObjectKey(currentObjStm, 0));
+                }
+                currentObjStm = objStm;
+            }
+
+            COSBase object = parser.getObject(key);
+            if (object instanceof COSStream) {
+                COSBase type = ((COSStream) object).getDictionaryObject(COSName.TYPE);
+                if (COSName.XREF.equals(type) || OBJ_STM.equals(type)) {
+                    release(key);
+                    continue;
+                }
+            }
+            writeObject(key, object);
+
+            if (objStm == 0) {
+                release(key);
+            } else {
+                // Released with the object stream, else it would be parsed again for each of its objects
+                pending.add(key);
+            }
+        }
+        release(pending);
+
+        writeXrefAndTrailer(trailer);
+    }
+
+    protected void release(List<COSObjectKey> inKeys) throws IOException {
+        for (COSObjectKey key : inKeys) {
+            release(key);
+        }
+        inKeys.clear();
+    }
+
+    /*
+     * Other objects may still hold the COSObject (the kids of a page tree node, ...), so it is emptied as well
+     */
+    protected void release(COSObjectKey inKey) throws IOException {
+        COSObject object = parser.getDocument().removeObject(inKey);
+        if (object != null) {
+            object.setObject(null);
+        }
+    }
+
+    protected void writeObject(COSObjectKey inKey, COSBase inObject) throws IOException {
+
+        offsets[(int) inKey.getNumber()] = output.getPos();
+        generations[(int) inKey.getNumber()] = (int) inKey.getGeneration();
+
+        writeAscii(inKey.getNumber() + " " + inKey.getGeneration() + " obj");
+        output.writeEOL();
+        if (inObject instanceof COSStream) {
+            writeStream((COSStream) inObject);
+        } else {
+            writeDirect(inObject == null ? COSNull.NULL : inObject);
+        }
+        output.writeEOL();
+        writeAscii("endobj");
+        output.writeEOL();
+    }
+
+    protected void writeStream(COSStream inStream) throws IOException {
+
+        // The length of the decrypted data, always direct
+        writeAscii("<<");
+        for (Map.Entry<COSName, COSBase> entry : inStream.entrySet()) {
+            if (!COSName.LENGTH.equals(entry.getKey())) {
+                writeEntry(entry.getKey(), entry.getValue());
+            }
+        }
+        writeEntry(COSName.LENGTH, COSInteger.get(inStream.getFilteredLength()));
+        writeAscii(">>");
+        output.writeEOL();
+
+        writeAscii("stream");
+        output.writeCRLF();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = inStream.getFilteredStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                output.write(buffer, 0, n);
+            }
+        }
+        output.writeCRLF();
+        writeAscii("endstream");
+    }
+
+    protected void writeEntry(COSName inName, COSBase inValue) throws IOException {
+        inName.writePDF(output);
+        output.write(' ');
+        writeDirect(inValue);
+        output.writeEOL();
+    }
+
+    protected void writeDirect(COSBase inValue) throws IOException {
+
+        if (inValue instanceof COSObject) {
+            COSObject ref = (COSObject) inValue;
+            writeAscii(ref.getObjectNumber().longValue() + " " + ref.getGenerationNumber().longValue() + " R");
+        } else if (inValue instanceof COSDictionary) {
+            writeAscii("<<");
+            for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) inValue).entrySet()) {
+                writeEntry(entry.getKey(), entry.getValue());
+            }
+            writeAscii(">>");
+        } else if (inValue instanceof COSArray) {
+            COSArray array = (COSArray) inValue;
+            output.write('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    output.write(' ');
+                }
+                writeDirect(array.get(i));
+            }
+            output.write(']');
+        } else if (inValue instanceof COSName) {
+            ((COSName) inValue).writePDF(output);
+        } else if (inValue instanceof COSString) {
+            ((COSString) inValue).writePDF(output);
+        } else if (inValue instanceof COSNumber) {
+            if (inValue instanceof COSInteger) {
+                ((COSInteger) inValue).writePDF(output);
+            } else {
+                ((COSFloat) inValue).writePDF(output);
+            }
+        } else if (inValue instanceof COSBoolean) {
+            ((COSBoolean) inValue).writePDF(output);
+        } else {
+            COSNull.NULL.writePDF(output);
+        }
+    }
+
+    protected void writeXrefAndTrailer(COSDictionary inTrailer) throws IOException {
+
+        int size = offsets.length;
+        while (size > 1 && offsets[size - 1] == 0) {
+            size--;
+        }
+        long xrefOffset = output.getPos();
+
+        writeAscii("xref");
+        output.writeEOL();
+        writeAscii("0 1");
+        output.writeEOL();
+        writeAscii("0000000000 65535 f\r\n");
+
+        // One subsection per run of consecutive object numbers
+        int start = 1;
+        while (start < size) {
+            if (offsets[start] == 0) {
+                start++;
+                continue;
+            }
+            int end = start + 1;
+            while (end < size && offsets[end] != 0) {
+                end++;
+            }
+            writeAscii(start + " " + (end - start));
+            output.writeEOL();
+            for (int i = start; i < end; i++) {
+                writeAscii(String.format(Locale.ROOT, "%010d %05d n\r\n", offsets[i], generations[i]));
+            }
+            start = end;
+        }
+
+        COSDictionary trailer = new COSDictionary();
+        trailer.setItem(COSName.SIZE, COSInteger.get(size));
+        for (COSName name : new COSName[] { COSName.ROOT, COSName.INFO, COSName.ID }) {
+            COSBase value = inTrailer.getItem(name);
+            if (value != null) {
+                trailer.setItem(name, value);
+            }
+        }
+        writeAscii("trailer");
+        output.writeEOL();
+        writeDirect(trailer);
+        output.writeEOL();
+        writeAscii("startxref");
+        output.writeEOL();
+        writeAscii(String.valueOf(xrefOffset));
+        output.writeEOL();
+        writeAscii("%%EOF");
+        output.writeEOL();
+    }
+
+    protected void writeAscii(String inText) throws IOException {
+        output.write(inText.getBytes("ISO-8859-1"));
+    }
+}
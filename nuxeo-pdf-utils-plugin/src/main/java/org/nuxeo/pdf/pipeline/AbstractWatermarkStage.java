@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ *     Michael Vachette
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDExtendedGraphicsState;
+import org.nuxeo.pdf.service.watermark.WatermarkProperties;
+
+/**
+ * Common code for the text and image watermarks: The transparent graphic state, shared by all the pages, and the
+ * computation of the position of the watermark.
+ *
+ * @since 8.10
+ */
+public abstract class AbstractWatermarkStage implements PDFPageStage {
+
+    public static final String TRANSPARENT_STATE = "TransparentState";
+
+    protected WatermarkProperties properties;
+
+    protected PDExtendedGraphicsState extendedGraphicsState;
+
+    public AbstractWatermarkStage(WatermarkProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public void begin(PDDocument pdfDoc) throws IOException {
+        // Set up the graphic state to handle transparency
+        // Define a new extended graphic state
+        extendedGraphicsState = new PDExtendedGraphicsState();
+        // Set the transparency/opacity
+        extendedGraphicsState.setNonStrokingAlphaConstant((float) properties.getAlphaColor());
+    }
+
+    /*
+     * Adds the transparent state to the graphic states of the page
+     */
+    @SuppressWarnings("unchecked")
+    protected void addTransparentState(PDPage page) {
+        PDResources resources = page.findResources();
+
+        // Get the defined graphic states.
+        HashMap<String, PDExtendedGraphicsState> graphicsStateDictionary =
+                (HashMap<String, PDExtendedGraphicsState>) resources.getGraphicsStates();
+        if (graphicsStateDictionary != null) {
+            graphicsStateDictionary.put(TRANSPARENT_STATE, extendedGraphicsState);
+            resources.setGraphicsStates(graphicsStateDictionary);
+        } else {
+            Map<String, PDExtendedGraphicsState> m = new HashMap<>();
+            m.put(TRANSPARENT_STATE, extendedGraphicsState);
+            resources.setGraphicsStates(m);
+        }
+    }
+
+    public static Point2D computeTranslationVector(double pageWidth, double watermarkWidth,
+                                                   double pageHeight, double watermarkHeight,
+                                                   WatermarkProperties properties) {
+        double xTranslation;
+        double yTranslation;
+        double xRotationOffset = 0;
+        double yRotationOffset = 0;
+
+        if (properties.getTextRotation() != 0) {
+            Rectangle2D rectangle2D =
+                    new Rectangle2D.Double(
+                            0, -watermarkHeight, watermarkWidth, watermarkHeight);
+            AffineTransform at = AffineTransform.getRotateInstance(
+                    -Math.toRadians(properties.getTextRotation()), 0, 0);
+            Shape shape = at.createTransformedShape(rectangle2D);
+            Rectangle2D rotated = shape.getBounds2D();
+
+            watermarkWidth = rotated.getWidth();
+            if (!properties.isInvertX() || properties.isRelativeCoordinates()) {
+                xRotationOffset = -rotated.getX();
+            } else {
+                xRotationOffset = rotated.getX();
+            }
+
+            watermarkHeight = rotated.getHeight();
+            if (!properties.isInvertY() || properties.isRelativeCoordinates()) {
+                yRotationOffset = rotated.getY()+rotated.getHeight();
+            } else {
+                yRotationOffset = -(rotated.getY()+rotated.getHeight());
+            }
+
+        }
+
+        if (properties.isRelativeCoordinates()) {
+            xTranslation = (pageWidth - watermarkWidth ) * properties.getxPosition() + xRotationOffset;
+            yTranslation = (pageHeight - watermarkHeight ) * properties.getyPosition() + yRotationOffset;
+        } else {
+            xTranslation = properties.getxPosition() + xRotationOffset;
+            yTranslation = properties.getyPosition() + yRotationOffset;
+            if (properties.isInvertX()) xTranslation = pageWidth - watermarkWidth - xTranslation;
+            if (properties.isInvertY()) yTranslation = pageHeight - watermarkHeight - yTranslation;
+        }
+        return new Point2D.Double(xTranslation, yTranslation);
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.cos.COSString;
+
+/**
+ * Minimal, allocation-light, writer of content stream operators. Unlike <code>PDPageContentStream</code>, it is not
+ * bound to a page nor to a document: It only produces bytes, so it can be used from any thread. Resources (fonts,
+ * graphic states, ...) are referenced by their name, the caller is responsible for registering them in the page
+ * resources (see {@link ParallelPageStamper}).
+ * <p>
+ * Not thread safe: Use one instance per thread, and close it once done so the native compression buffers are
+ * released.
+ *
+ * @since 8.10
+ */
+public class ContentStreamBuilder implements AutoCloseable {
+
+    protected ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+    protected Deflater deflater;
+
+    public ContentStreamBuilder reset() {
+        buffer.reset();
+        return this;
+    }
+
+    /**
+     * Appends an operator (or any raw token) followed by a new line
+     */
+    public ContentStreamBuilder op(String inOperator) {
+        raw(inOperator);
+        buffer.write('\n');
+        return this;
+    }
+
+    /**
+     * Appends a name operand, <code>/name </code>
+     */
+    public ContentStreamBuilder name(String inName) {
+        buffer.write('/');
+        raw(inName);
+        buffer.write(' ');
+        return this;
+    }
+
+    /**
+     * Appends a number operand. Numbers are written with at most 4 decimals (PDF does not accept the exponent
+     * notation)
+     */
+    public ContentStreamBuilder number(double inValue) {
+        long scaled = Math.round(inValue * 10000d);
+        if (scaled < 0) {
+            buffer.write('-');
+            scaled = -scaled;
+        }
+        raw(Long.toString(scaled / 10000));
+        int decimals = (int) (scaled % 10000);
+        if (decimals != 0) {
+            buffer.write('.');
+            int divisor = 1000;
+            while (decimals != 0) {
+                buffer.write('0' + decimals / divisor);
+                decimals %= divisor;
+                divisor /= 10;
+            }
+        }
+        buffer.write(' ');
+        return this;
+    }
+
+    /**
+     * Appends a string operand, encoded as <code>PDPageContentStream.drawString()</code> does
+     */
+    public ContentStreamBuilder string(String inText) {
+        try {
+            new COSString(inText).writePDF(buffer);
+        } catch (IOException e) {
+            // Cannot happen with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        buffer.write(' ');
+        return this;
+    }
+
+    /**
+     * Appends a string operand already encoded (the bytes between the parenthesis)
+     */
+    public ContentStreamBuilder literal(byte[] inEncoded) {
+        buffer.write('(');
+        buffer.write(inEncoded, 0, inEncoded.length);
+        buffer.write(')');
+        buffer.write(' ');
+        return this;
+    }
+
+    /**
+     * Appends the <code>rg</code> operator, for 0-255 color components
+     */
+    public ContentStreamBuilder nonStrokingColor(int[] inRgb) {
+        return number(inRgb[0] / 255d).number(inRgb[1] / 255d).number(inRgb[2] / 255d).op("rg");
+    }
+
+    public ContentStreamBuilder raw(String inValue) {
+        int len = inValue.length();
+        for (int i = 0; i < len; i++) {
+            buffer.write(inValue.charAt(i));
+        }
+        return this;
+    }
+
+    public ContentStreamBuilder raw(byte[] inValue) {
+        buffer.write(inValue, 0, inValue.length);
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @return the content, compressed with the FlateDecode filter
+     */
+    public byte[] toDeflatedByteArray() {
+        if (deflater == null) {
+            deflater = new Deflater();
+        } else {
+            deflater.reset();
+        }
+        byte[] raw = buffer.toByteArray();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] chunk = new byte[512];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            out.write(chunk, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+}
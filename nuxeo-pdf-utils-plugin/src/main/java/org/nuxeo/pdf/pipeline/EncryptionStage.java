@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.BadSecurityHandlerException;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.PDFEncryption;
+
+/**
+ * Encrypts the PDF with the given passwords and permissions. The encryption itself takes place when the document is
+ * saved, so this stage can be added in any order with the other document stages.
+ *
+ * @since 8.10
+ */
+public class EncryptionStage implements PDFDocumentStage {
+
+    protected StandardProtectionPolicy policy;
+
+    /**
+     * @param ownerPwd
+     * @param userPwd
+     * @param keyLength see {@link PDFEncryption#ALLOWED_LENGTH}. If <= 0, {@link PDFEncryption#DEFAULT_KEYLENGTH} is
+     *            used
+     * @param permissions
+     */
+    public EncryptionStage(String ownerPwd, String userPwd, int keyLength, AccessPermission permissions) {
+        this(PDFEncryption.createProtectionPolicy(ownerPwd, userPwd, keyLength, permissions));
+    }
+
+    /**
+     * @param policy see {@link PDFEncryption#createProtectionPolicy(String, String, int, AccessPermission)}
+     */
+    public EncryptionStage(StandardProtectionPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public void apply(PDDocument pdfDoc) {
+
+        try {
+            pdfDoc.protect(policy);
+        } catch (BadSecurityHandlerException e) {
+            throw new NuxeoException("Failed to encrypt the PDF", e);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ *     Michael Vachette
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDPixelMap;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.service.watermark.WatermarkProperties;
+
+/**
+ * Draws an image watermark on each page, using the {@link WatermarkProperties}. The image is embedded only once in the
+ * PDF, all the pages share it.
+ *
+ * @since 8.10
+ */
+public class ImageWatermarkStage extends AbstractWatermarkStage {
+
+    protected Blob image;
+
+    protected PDXObjectImage ximage;
+
+    public ImageWatermarkStage(Blob image, WatermarkProperties properties) {
+        super(properties);
+        this.image = image;
+    }
+
+    @Override
+    public void begin(PDDocument pdfDoc) throws IOException {
+        super.begin(pdfDoc);
+
+        BufferedImage bufferedImage = ImageIO.read(image.getStream());
+        ximage = new PDPixelMap(pdfDoc, bufferedImage);
+    }
+
+    @Override
+    public void apply(PDDocument pdfDoc, PDPage page, int pageNumber) throws IOException {
+        PDRectangle pageSize = page.findMediaBox();
+
+        addTransparentState(page);
+
+        try (PDPageContentStream contentStream = new PDPageContentStream(pdfDoc, page, true, true)) {
+            contentStream.appendRawCommands("/" + TRANSPARENT_STATE + " gs\n");
+            contentStream.endMarkedContentSequence();
+
+            double watermarkWidth = ximage.getWidth()*properties.getScale();
+            double watermarkHeight = ximage.getHeight()*properties.getScale();
+
+            Point2D position = computeTranslationVector(
+                    pageSize.getWidth(),watermarkWidth,
+                    pageSize.getHeight(),watermarkHeight,properties);
+
+            contentStream.drawXObject(
+                    ximage,
+                    (float)position.getX(),
+                    (float)position.getY(),
+                    (float)watermarkWidth,
+                    (float)watermarkHeight);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.pdf.PDFUtils;
+
+/**
+ * Sets the title, subject and author of the PDF. As with {@link PDFUtils#setInfos}, a null or "" value is ignored.
+ *
+ * @since 8.10
+ */
+public class MetadataStage implements PDFDocumentStage {
+
+    protected String title;
+
+    protected String subject;
+
+    protected String author;
+
+    public MetadataStage(String title, String subject, String author) {
+        this.title = title;
+        this.subject = subject;
+        this.author = author;
+    }
+
+    @Override
+    public void apply(PDDocument pdfDoc) {
+        PDFUtils.setInfos(pdfDoc, title, subject, author);
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectForm;
+import org.apache.pdfbox.util.LayerUtility;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.pdf.PDFUtils;
+
+/**
+ * Overlays the first page of another PDF on each page. The overlay page is imported once as a Form XObject, all the
+ * pages share it.
+ *
+ * @since 8.10
+ */
+public class OverlayStage implements PDFPageStage {
+
+    protected Blob overlayBlob;
+
+    protected PDDocument overlayDoc;
+
+    protected PDXObjectForm overlayForm;
+
+    public OverlayStage(Blob overlayBlob) {
+        this.overlayBlob = overlayBlob;
+    }
+
+    @Override
+    public void begin(PDDocument pdfDoc) throws IOException {
+        overlayDoc = PDDocument.load(overlayBlob.getStream());
+        overlayForm = new LayerUtility(pdfDoc).importPageAsForm(overlayDoc, 0);
+    }
+
+    @Override
+    public void apply(PDDocument pdfDoc, PDPage page, int pageNumber) throws IOException {
+        try (PDPageContentStream contentStream = new PDPageContentStream(pdfDoc, page, true, true, true)) {
+            contentStream.drawXObject(overlayForm, new AffineTransform());
+        }
+    }
+
+    @Override
+    public void end() {
+        // The form may still reference streams of the overlay document until the result is saved
+        PDFUtils.closeSilently(overlayDoc);
+        overlayDoc = null;
+        overlayForm = null;
+    }
+
+}
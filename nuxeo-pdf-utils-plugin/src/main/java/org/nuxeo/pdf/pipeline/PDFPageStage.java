@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * A page-level stage of a {@link PDFPipeline}: Called once for every page, during the single traversal of the
+ * document.
+ *
+ * @since 8.10
+ */
+public interface PDFPageStage {
+
+    /**
+     * Called once, before the pages are traversed. This is where a stage creates the objects it shares between pages
+     * (font, image, graphic state, ...)
+     *
+     * @param pdfDoc
+     * @throws IOException
+     */
+    default void begin(PDDocument pdfDoc) throws IOException {
+    }
+
+    /**
+     * Apply the stage to one page
+     *
+     * @param pdfDoc
+     * @param page
+     * @param pageNumber the number of the page in the document, starting at 1
+     * @throws IOException
+     */
+    void apply(PDDocument pdfDoc, PDPage page, int pageNumber) throws IOException;
+
+    /**
+     * Called once the document has been saved (or if it failed), to release what was allocated in
+     * <code>begin()</code>
+     */
+    default void end() {
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.pdf.PDFUtils;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Chain several transformations of a PDF while loading and saving it only once.
+ * <p>
+ * Calling <code>PDFTransformationService</code>, then <code>PDFPageNumbering</code>, then <code>PDFEncryption</code>
+ * parses and serializes the document three times. Instead, the caller registers:
+ * <ul>
+ * <li>Page-level stages ({@link TextWatermarkStage}, {@link ImageWatermarkStage}, {@link PageNumberStage},
+ * {@link OverlayStage}, ...), all applied to each page in the same, single, traversal of the document. For a given
+ * page, stages are applied in the order they were added.</li>
+ * <li>Document-level stages ({@link MetadataStage}, {@link EncryptionStage}, ...), applied in the order they were
+ * added, after the traversal.</li>
+ * </ul>
+ * Then <code>run()</code> loads the PDF, applies the stages and saves the result.
+ * <p>
+ * Setters return the PDFPipeline object so they can be chained. The original blob is never modified.
+ *
+ * @since 8.10
+ */
+public class PDFPipeline {
+
+    protected Blob blob;
+
+    protected String password;
+
+    protected String fileName;
+
+    protected List<PDFPageStage> pageStages = new ArrayList<>();
+
+    protected List<PDFDocumentStage> documentStages = new ArrayList<>();
+
+    public PDFPipeline(Blob inBlob) {
+        blob = inBlob;
+    }
+
+    public PDFPipeline(DocumentModel inDoc, String inXPath) {
+        blob = (Blob) inDoc.getPropertyValue(PDFUtils.checkXPath(inXPath));
+    }
+
+    public PDFPipeline addPageStage(PDFPageStage inStage) {
+        pageStages.add(inStage);
+        return this;
+    }
+
+    public PDFPipeline addDocumentStage(PDFDocumentStage inStage) {
+        documentStages.add(inStage);
+        return this;
+    }
+
+    /**
+     * Load the PDF, apply every page stage in one traversal of the pages, then every document stage, and save the
+     * result.
+     *
+     * @return a new Blob
+     * @throws NuxeoException
+     */
+    public Blob run() throws NuxeoException {
+
+        return PDFUtils.execute("pipeline", () -> doRun(), blob);
+    }
+
+    protected Blob doRun() throws NuxeoException {
+
+        Blob result = null;
+        PDDocument pdfDoc = null;
+
+        try {
+            pdfDoc = PDFUtils.load(blob, password);
+
+            for (PDFPageStage stage : pageStages) {
+                stage.begin(pdfDoc);
+            }
+
+            if (!pageStages.isEmpty()) {
+                List<?> allPages = pdfDoc.getDocumentCatalog().getAllPages();
+                int max = allPages.size();
+                Timer pageTimer = PDFMetrics.pageTimer();
+                for (int i = 0; i < max; i++) {
+                    Timer.Context pageTime = pageTimer.time();
+                    PDPage page = (PDPage) allPages.get(i);
+                    for (PDFPageStage stage : pageStages) {
+                        stage.apply(pdfDoc, page, i + 1);
+                    }
+                    pageTime.stop();
+                }
+            }
+
+            for (PDFDocumentStage stage : documentStages) {
+                stage.apply(pdfDoc);
+            }
+
+            result = PDFUtils.saveInTempFile(pdfDoc, fileName == null ? blob.getFilename() : fileName);
+
+        } catch (IOException | COSVisitorException e) {
+            throw new NuxeoException("Failed to run the pipeline on the PDF", e);
+        } finally {
+            PDFUtils.closeSilently(pdfDoc);
+            for (PDFPageStage stage : pageStages) {
+                stage.end();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Password to use if the original PDF is encrypted
+     */
+    public PDFPipeline setPassword(String inValue) {
+        password = inValue;
+        return this;
+    }
+
+    /**
+     * File name of the result. Default value is the file name of the original blob
+     */
+    public PDFPipeline setFileName(String inValue) {
+        fileName = inValue;
+        return this;
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.common.PDPageLabelRange;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * A page label template, such as <code>"Page {n} of {total}"</code>, <code>"ACME{n:6}"</code> or
+ * <code>"{n:i}"</code>. The template is parsed once, then formatted for every page.
+ * <p>
+ * Placeholders:
+ * <ul>
+ * <li><code>{n}</code>: The number of the page</li>
+ * <li><code>{total}</code>: The number of the last numbered page</li>
+ * </ul>
+ * Both accept a format after a colon: A width, for zero-padding (<code>{n:6}</code> gives "000042"), <code>i</code>
+ * for lowercase roman numerals or <code>I</code> for uppercase roman numerals. Use <code>{{</code> and <code>}}</code>
+ * for literal braces.
+ *
+ * @since 8.10
+ */
+public class PageLabelTemplate {
+
+    public static final String DEFAULT_TEMPLATE = "{n}";
+
+    public enum STYLE {
+        DECIMAL, ROMAN_LOWER, ROMAN_UPPER
+    };
+
+    protected static class Segment {
+
+        // null for a placeholder
+        protected final String text;
+
+        protected final boolean total;
+
+        protected final STYLE style;
+
+        protected final int width;
+
+        protected Segment(String text) {
+            this.text = text;
+            total = false;
+            style = null;
+            width = 0;
+        }
+
+        protected Segment(boolean total, STYLE style, int width) {
+            text = null;
+            this.total = total;
+            this.style = style;
+            this.width = width;
+        }
+    }
+
+    protected static final int[] ROMAN_VALUES = { 1000, 900, 500, 400, 100, 90, 50, 40, 10, 9, 5, 4, 1 };
+
+    protected static final String[] ROMAN_SYMBOLS = { "M", "CM", "D", "CD", "C", "XC", "L", "XL", "X", "IX", "V",
+            "IV", "I" };
+
+    protected final String template;
+
+    protected final List<Segment> segments;
+
+    protected PageLabelTemplate(String template, List<Segment> segments) {
+        this.template = template;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @param inTemplate
+     * @return the parsed template. {@link #DEFAULT_TEMPLATE} is used if <code>inTemplate</code> is null or empty
+     * @throws NuxeoException if the template is invalid
+     */
+    public static PageLabelTemplate parse(String inTemplate) throws NuxeoException {
+
+        if (inTemplate == null || inTemplate.isEmpty()) {
+            inTemplate = DEFAULT_TEMPLATE;
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        int len = inTemplate.length();
+        while (i < len) {
+            char c = inTemplate.charAt(i);
+            if (c == '}' && i + 1 < len && inTemplate.charAt(i + 1) == '}') {
+                literal.append('}');
+                i += 2;
+                continue;
+            }
+            if (c != '{') {
+                literal.append(c);
+                i += 1;
+                continue;
+            }
+            if (i + 1 < len && inTemplate.charAt(i + 1) == '{') {
+                literal.append('{');
+                i += 2;
+                continue;
+            }
+            int end = inTemplate.indexOf('}', i);
+            if (end < 0) {
+                throw new NuxeoException("Unclosed placeholder in the page label template: " + inTemplate);
+            }
+            if (literal.length() > 0) {
+                segments.add(new Segment(literal.toString()));
+                literal.setLength(0);
+            }
+            segments.add(parsePlaceholder(inTemplate, inTemplate.substring(i + 1, end)));
+            i = end + 1;
+        }
+        if (literal.length() > 0) {
+            segments.add(new Segment(literal.toString()));
+        }
+
+        return new PageLabelTemplate(inTemplate, segments);
+    }
+
+    protected static Segment parsePlaceholder(String inTemplate, String inPlaceholder) {
+
+        String name = inPlaceholder;
+        String format = "";
+        int colon = inPlaceholder.indexOf(':');
+        if (colon > -1) {
+            name = inPlaceholder.substring(0, colon);
+            format = inPlaceholder.substring(colon + 1);
+        }
+
+        boolean total;
+        switch (name) {
+        case "n":
+            total = false;
+            break;
+
+        case "total":
+            total = true;
+            break;
+
+        default:
+            throw new NuxeoException("Unknown placeholder {" + inPlaceholder + "} in the page label template: "
+                    + inTemplate);
+        }
+
+        switch (format) {
+        case "":
+            return new Segment(total, STYLE.DECIMAL, 0);
+
+        case "i":
+            return new Segment(total, STYLE.ROMAN_LOWER, 0);
+
+        case "I":
+            return new Segment(total, STYLE.ROMAN_UPPER, 0);
+
+        default:
+            try {
+                return new Segment(total, STYLE.DECIMAL, Integer.parseInt(format));
+            } catch (NumberFormatException e) {
+                throw new NuxeoException("Invalid format {" + inPlaceholder + "} in the page label template: "
+                        + inTemplate, e);
+            }
+        }
+    }
+
+    /**
+     * @return the label of the page
+     */
+    public String format(int inNumber, int inTotal) {
+
+        StringBuilder sb = new StringBuilder();
+        for (Segment segment : segments) {
+            if (segment.text != null) {
+                sb.append(segment.text);
+            } else {
+                appendNumber(sb, segment.total ? inTotal : inNumber, segment.style, segment.width);
+            }
+        }
+        return sb.toString();
+    }
+
+    protected static void appendNumber(StringBuilder sb, int inValue, STYLE inStyle, int inWidth) {
+
+        switch (inStyle) {
+        case ROMAN_LOWER:
+        case ROMAN_UPPER:
+            int start = sb.length();
+            int value = inValue;
+            for (int i = 0; i < ROMAN_VALUES.length; i++) {
+                while (value >= ROMAN_VALUES[i]) {
+                    sb.append(ROMAN_SYMBOLS[i]);
+                    value -= ROMAN_VALUES[i];
+                }
+            }
+            if (inStyle == STYLE.ROMAN_LOWER) {
+                for (int i = start; i < sb.length(); i++) {
+                    sb.setCharAt(i, Character.toLowerCase(sb.charAt(i)));
+                }
+            }
+            break;
+
+        default:
+            String str = Integer.toString(inValue);
+            for (int i = str.length(); i < inWidth; i++) {
+                sb.append('0');
+            }
+            sb.append(str);
+            break;
+        }
+    }
+
+    /**
+     * @return true if the template uses <code>{total}</code>
+     */
+    public boolean hasTotal() {
+        for (Segment segment : segments) {
+            if (segment.text == null && segment.total) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the page label range giving the same labels in a viewer, when the PDF page labels can express the
+     * template: A text prefix followed by a non padded <code>{n}</code>.
+     *
+     * @param inStartAtNumber
+     * @return the range, or null if the template can't be expressed by a single range
+     */
+    public PDPageLabelRange toPageLabelRange(int inStartAtNumber) {
+
+        String prefix = null;
+        Segment number;
+        if (segments.size() == 1) {
+            number = segments.get(0);
+        } else if (segments.size() == 2 && segments.get(0).text != null) {
+            prefix = segments.get(0).text;
+            number = segments.get(1);
+        } else {
+            return null;
+        }
+        if (number.text != null || number.total || number.width > 0) {
+            return null;
+        }
+
+        PDPageLabelRange range = new PDPageLabelRange();
+        switch (number.style) {
+        case ROMAN_LOWER:
+            range.setStyle(PDPageLabelRange.STYLE_ROMAN_LOWER);
+            break;
+
+        case ROMAN_UPPER:
+            range.setStyle(PDPageLabelRange.STYLE_ROMAN_UPPER);
+            break;
+
+        default:
+            range.setStyle(PDPageLabelRange.STYLE_DECIMAL);
+            break;
+        }
+        range.setStart(inStartAtNumber);
+        if (prefix != null) {
+            range.setPrefix(prefix);
+        }
+        return range;
+    }
+
+    /**
+     * Precomputes the layout of the template for a font and a document.
+     *
+     * @param inFont
+     * @param inFontSize
+     * @param inTotal the value of <code>{total}</code>
+     * @return the layout, which can be shared by several threads
+     * @throws IOException
+     */
+    public Layout layout(PDFont inFont, float inFontSize, int inTotal) throws IOException {
+        return new Layout(inFont, inFontSize, inTotal);
+    }
+
+    /**
+     * The label of a page and its width. The width of the text parts and of <code>{total}</code> is computed once,
+     * only the page number is measured for each page, from a cache of character widths.
+     */
+    public class Layout {
+
+        protected final int total;
+
+        protected final float staticWidth;
+
+        protected final float[] charWidths = new float[128];
+
+        protected Layout(PDFont inFont, float inFontSize, int inTotal) throws IOException {
+
+            total = inTotal;
+
+            StringBuilder statics = new StringBuilder();
+            for (Segment segment : segments) {
+                if (segment.text != null) {
+                    statics.append(segment.text);
+                } else if (segment.total) {
+                    appendNumber(statics, inTotal, segment.style, segment.width);
+                }
+            }
+            staticWidth = inFont.getStringWidth(statics.toString()) * inFontSize / 1000f;
+
+            // The characters of the numbers: Digits and roman numerals
+            for (char c : "0123456789IVXLCDMivxlcdm".toCharArray()) {
+                charWidths[c] = inFont.getStringWidth(String.valueOf(c)) * inFontSize / 1000f;
+            }
+        }
+
+        public String format(int inNumber) {
+            return PageLabelTemplate.this.format(inNumber, total);
+        }
+
+        /**
+         * @return the width of the label, in text space units
+         */
+        public float getWidth(int inNumber) {
+
+            float width = staticWidth;
+            StringBuilder sb = new StringBuilder();
+            for (Segment segment : segments) {
+                if (segment.text == null && !segment.total) {
+                    sb.setLength(0);
+                    appendNumber(sb, inNumber, segment.style, segment.width);
+                    for (int i = 0; i < sb.length(); i++) {
+                        width += charWidths[sb.charAt(i)];
+                    }
+                }
+            }
+            return width;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+}
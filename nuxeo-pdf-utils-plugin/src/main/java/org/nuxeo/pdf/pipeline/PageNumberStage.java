@@ -0,0 +1,278 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDPageLabelRange;
+import org.apache.pdfbox.pdmodel.common.PDPageLabels;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.PDFUtils;
+
+/**
+ * Draws the page numbers. See {@link PDFPageNumbering#addPageNumbers} for the details about the parameters and their
+ * default values. The label is built from a {@link PageLabelTemplate}, just the number by default.
+ * <p>
+ * The layout is computed once: The width of the static parts of the label and of each digit is cached in
+ * {@link #begin(PDDocument)}, so the width of a label is a sum, and the font is registered under one name in the
+ * resources of all the numbered pages. Each page then only gets a small text object appended to its content, without
+ * going through <code>PDPageContentStream</code>.
+ *
+ * @since 8.10
+ */
+public class PageNumberStage implements PDFPageStage, ParallelPageStamper.PageContentGenerator {
+
+    public static final String FONT_RESOURCE_PREFIX = "NxF";
+
+    public static final String DEFAULT_FONT_NAME = "Helvetica";
+
+    protected int startAtPage;
+
+    protected int startAtNumber;
+
+    protected String fontName;
+
+    protected float fontSize;
+
+    protected PAGE_NUMBER_POSITION position;
+
+    protected int[] rgb;
+
+    protected PageLabelTemplate template;
+
+    protected boolean writePageLabels = false;
+
+    protected int total = 0;
+
+    protected PDFont font;
+
+    protected String fontResourceName;
+
+    protected PageLabelTemplate.Layout layout;
+
+    protected float stringHeight;
+
+    protected ParallelPageStamper stamper;
+
+    protected ContentStreamBuilder builder;
+
+    public PageNumberStage(int inStartAtPage, int inStartAtNumber, String inFontName, float inFontSize,
+            String inHex255Color, PAGE_NUMBER_POSITION inPosition) {
+        this(null, inStartAtPage, inStartAtNumber, inFontName, inFontSize, inHex255Color, inPosition);
+    }
+
+    /**
+     * @param inTemplate the label template, see {@link PageLabelTemplate}. Just the number if null or empty
+     * @throws NuxeoException if the template is invalid
+     */
+    public PageNumberStage(String inTemplate, int inStartAtPage, int inStartAtNumber, String inFontName,
+            float inFontSize, String inHex255Color, PAGE_NUMBER_POSITION inPosition) throws NuxeoException {
+
+        template = PageLabelTemplate.parse(inTemplate);
+        startAtPage = inStartAtPage < 1 ? 1 : inStartAtPage;
+        startAtNumber = inStartAtNumber < 1 ? 1 : inStartAtNumber;
+        fontName = inFontName;
+        fontSize = inFontSize <= 0 ? PDFPageNumbering.DEFAULT_FONT_SIZE : inFontSize;
+        position = inPosition == null ? PAGE_NUMBER_POSITION.BOTTOM_RIGHT : inPosition;
+        rgb = PDFUtils.hex255ToRGB(inHex255Color);
+    }
+
+    @Override
+    public void begin(PDDocument pdfDoc) throws IOException {
+
+        // A font of this document, not the shared PDType1Font constant: getStringWidth() fills a HashMap of the font
+        // which is not synchronized, and several documents are numbered at the same time (see PDFBatesNumbering)
+        font = new PDType1Font(fontName == null || fontName.isEmpty() ? DEFAULT_FONT_NAME : fontName);
+
+        if (startAtPage > pdfDoc.getNumberOfPages()) {
+            startAtPage = 1;
+        }
+
+        int pageCount = pdfDoc.getNumberOfPages();
+        layout = template.layout(font, fontSize, total > 0 ? total : startAtNumber + pageCount - startAtPage);
+        stringHeight = font.getFontDescriptor().getFontBoundingBox().getHeight() * fontSize / 1000;
+
+        stamper = new ParallelPageStamper(pdfDoc);
+        List<PDPage> pages = getNumberedPages(pdfDoc);
+        if (!pages.isEmpty()) {
+            fontResourceName = stamper.addResource(pages, COSName.FONT, FONT_RESOURCE_PREFIX, font.getCOSObject());
+        }
+        builder = new ContentStreamBuilder();
+
+        if (writePageLabels) {
+            writePageLabels(pdfDoc, pageCount);
+        }
+    }
+
+    @Override
+    public void apply(PDDocument pdfDoc, PDPage page, int pageNumber) throws IOException {
+
+        if (!isNumbered(pageNumber)) {
+            return;
+        }
+
+        generate(builder.reset(), pageNumber, page.findMediaBox(), 0);
+        stamper.appendContent(page, builder.toDeflatedByteArray());
+    }
+
+    @Override
+    public void end() {
+        if (builder != null) {
+            builder.close();
+            builder = null;
+        }
+    }
+
+    /**
+     * Draws the numbers of all the pages, generating the content streams in parallel. {@link #begin(PDDocument)} must
+     * have been called.
+     *
+     * @param pdfDoc
+     * @param inStamper
+     * @throws IOException
+     * @since 8.10
+     */
+    public void stamp(PDDocument pdfDoc, ParallelPageStamper inStamper) throws IOException {
+
+        List<PDPage> pages = getNumberedPages(pdfDoc);
+        if (!pages.isEmpty()) {
+            inStamper.stamp(pages, startAtPage, this);
+        }
+    }
+
+    /*
+     * Only reads the state computed in begin(), so it can be called from several threads
+     */
+    @Override
+    public void generate(ContentStreamBuilder out, int pageNumber, PDRectangle mediaBox, int rotation) {
+
+        int number = startAtNumber + pageNumber - startAtPage;
+        String pageNumAsStr = layout.format(number);
+        float[] xy = computePosition(mediaBox, layout.getWidth(number), stringHeight);
+
+        out.op("BT");
+        out.name(fontResourceName).number(fontSize).op("Tf");
+        out.number(xy[0]).number(xy[1]).op("Td");
+        out.nonStrokingColor(rgb);
+        out.string(pageNumAsStr).op("Tj");
+        out.op("ET");
+    }
+
+    /*
+     * One range when the template can be expressed with a prefix and a style, else one range per numbered page with
+     * the full label as prefix. Pages before startAtPage keep the default decimal labels.
+     */
+    protected void writePageLabels(PDDocument pdfDoc, int pageCount) {
+
+        PDPageLabels labels = new PDPageLabels(pdfDoc);
+        PDPageLabelRange range = template.toPageLabelRange(startAtNumber);
+        if (range != null) {
+            labels.setLabelItem(startAtPage - 1, range);
+        } else {
+            for (int i = startAtPage; i <= pageCount; i++) {
+                range = new PDPageLabelRange();
+                range.setPrefix(layout.format(startAtNumber + i - startAtPage));
+                labels.setLabelItem(i - 1, range);
+            }
+        }
+        pdfDoc.getDocumentCatalog().setPageLabels(labels);
+    }
+
+    /**
+     * Sets the value of <code>{total}</code> in the template. By default, it is the number of the last page of the
+     * document, but when numbering a set of documents it must be the last number of the set.
+     */
+    public PageNumberStage setTotal(int inValue) {
+        total = inValue;
+        return this;
+    }
+
+    /**
+     * When true, a /PageLabels tree is added to the document so viewers display the same labels as the ones drawn
+     * on the pages
+     */
+    public PageNumberStage setWritePageLabels(boolean inValue) {
+        writePageLabels = inValue;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected List<PDPage> getNumberedPages(PDDocument pdfDoc) {
+
+        List<PDPage> allPages = (List<PDPage>) pdfDoc.getDocumentCatalog().getAllPages();
+        return allPages.subList(startAtPage - 1, allPages.size());
+    }
+
+    protected float[] computePosition(PDRectangle pageRect, float stringWidth, float stringHeight) {
+
+        float xMoveAmount, yMoveAmount;
+
+        switch (position) {
+        case BOTTOM_LEFT:
+            xMoveAmount = 10;
+            yMoveAmount = pageRect.getLowerLeftY() + 10;
+            break;
+
+        case BOTTOM_CENTER:
+            xMoveAmount = (pageRect.getUpperRightX() / 2) - (stringWidth / 2);
+            yMoveAmount = pageRect.getLowerLeftY() + 10;
+            break;
+
+        case TOP_LEFT:
+            xMoveAmount = 10;
+            yMoveAmount = pageRect.getHeight() - stringHeight - 10;
+            break;
+
+        case TOP_CENTER:
+            xMoveAmount = (pageRect.getUpperRightX() / 2) - (stringWidth / 2);
+            yMoveAmount = pageRect.getHeight() - stringHeight - 10;
+            break;
+
+        case TOP_RIGHT:
+            xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
+            yMoveAmount = pageRect.getHeight() - stringHeight - 10;
+            break;
+
+        // Bottom-right is the default
+        default:
+            xMoveAmount = pageRect.getUpperRightX() - 10 - stringWidth;
+            yMoveAmount = pageRect.getLowerLeftY() + 10;
+            break;
+        }
+
+        return new float[] { xMoveAmount, yMoveAmount };
+    }
+
+    /**
+     * @return true if the stage draws a number on this page
+     */
+    public boolean isNumbered(int pageNumber) {
+        return pageNumber >= startAtPage;
+    }
+
+}
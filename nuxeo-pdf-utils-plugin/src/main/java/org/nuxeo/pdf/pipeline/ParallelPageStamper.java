@@ -0,0 +1,302 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.COSStreamArray;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.pdf.PDFUtils;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Stamps a set of pages in three steps:
+ * <ol>
+ * <li>Serially: The shared resources (font, graphic state, ...) are registered once, under the same name, in the
+ * resources of every page, and the page geometry is read.</li>
+ * <li>In parallel, on a fork-join pool: The content stream of each page is generated and compressed by a
+ * {@link PageContentGenerator}. This is pure computation from the page geometry and number, the
+ * <code>PDDocument</code> is never accessed.</li>
+ * <li>Serially: Each stream is attached to its page, which is cheap.</li>
+ * </ol>
+ * For documents with thousands of pages, stamping time then scales with the number of cores.
+ *
+ * @since 8.10
+ */
+public class ParallelPageStamper {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    /**
+     * Generates the content of one page. Called concurrently from several threads: Implementations must only read
+     * their parameters and immutable state.
+     */
+    public interface PageContentGenerator {
+
+        /**
+         * @param out the builder to write to, already reset
+         * @param pageNumber the number of the page in the document, starting at 1
+         * @param mediaBox
+         * @param rotation
+         */
+        void generate(ContentStreamBuilder out, int pageNumber, PDRectangle mediaBox, int rotation);
+    }
+
+    protected PDDocument pdfDoc;
+
+    protected ForkJoinPool pool;
+
+    protected int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    protected boolean resetContext = false;
+
+    protected boolean markForIncrementalUpdate = false;
+
+    protected COSStream saveGraphicsStream;
+
+    public ParallelPageStamper(PDDocument pdfDoc) {
+        this(pdfDoc, ForkJoinPool.commonPool());
+    }
+
+    public ParallelPageStamper(PDDocument pdfDoc, ForkJoinPool pool) {
+        this.pdfDoc = pdfDoc;
+        this.pool = pool;
+    }
+
+    /**
+     * Registers the resource in every page, under the same name. The name is built from <code>inPrefix</code> and is
+     * guaranteed to not already be used in any of the pages.
+     *
+     * @param inPages
+     * @param inCategory the resource category (COSName.FONT, COSName.EXT_G_STATE, COSName.XOBJECT, ...)
+     * @param inPrefix
+     * @param inResource the COS object of the resource
+     * @return the name of the resource
+     */
+    public String addResource(List<PDPage> inPages, COSName inCategory, String inPrefix, COSBase inResource) {
+
+        List<COSDictionary> categories = new ArrayList<>();
+        Set<COSDictionary> seen = Collections.newSetFromMap(new IdentityHashMap<COSDictionary, Boolean>());
+        for (PDPage page : inPages) {
+            PDResources resources = page.findResources();
+            if (resources == null) {
+                resources = new PDResources();
+                page.setResources(resources);
+            }
+            COSDictionary resourcesDict = resources.getCOSDictionary();
+            COSBase category = resourcesDict.getDictionaryObject(inCategory);
+            if (!(category instanceof COSDictionary)) {
+                category = new COSDictionary();
+                resourcesDict.setItem(inCategory, category);
+            }
+            if (seen.add((COSDictionary) category)) {
+                categories.add((COSDictionary) category);
+            }
+        }
+
+        String name = inPrefix;
+        int suffix = 0;
+        boolean used;
+        do {
+            suffix += 1;
+            name = inPrefix + suffix;
+            used = false;
+            for (COSDictionary category : categories) {
+                if (category.containsKey(name)) {
+                    used = true;
+                    break;
+                }
+            }
+        } while (used);
+
+        for (COSDictionary category : categories) {
+            category.setItem(name, inResource);
+        }
+
+        return name;
+    }
+
+    /**
+     * Generates the content of every page in parallel, then appends it to the pages.
+     *
+     * @param inPages the pages to stamp
+     * @param inFirstPageNumber the number of the first page of <code>inPages</code>
+     * @param inGenerator
+     * @throws IOException
+     */
+    public void stamp(List<PDPage> inPages, int inFirstPageNumber, final PageContentGenerator inGenerator)
+            throws IOException {
+
+        final int count = inPages.size();
+        final PDRectangle[] mediaBoxes = new PDRectangle[count];
+        final int[] rotations = new int[count];
+        for (int i = 0; i < count; i++) {
+            PDPage page = inPages.get(i);
+            mediaBoxes[i] = page.findMediaBox();
+            rotations[i] = page.findRotation();
+        }
+
+        final byte[][] contents = new byte[count][];
+        final int firstPageNumber = inFirstPageNumber;
+        // Fetched on the calling thread, which knows the running operation
+        final Timer pageTimer = PDFMetrics.pageTimer();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < count; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, count);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try (ContentStreamBuilder builder = new ContentStreamBuilder()) {
+                        for (int i = from; i < to; i++) {
+                            Timer.Context pageTime = pageTimer.time();
+                            inGenerator.generate(builder.reset(), firstPageNumber + i, mediaBoxes[i], rotations[i]);
+                            contents[i] = builder.toDeflatedByteArray();
+                            pageTime.stop();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the page contents", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to generate the page contents", e.getCause());
+        }
+
+        for (int i = 0; i < count; i++) {
+            PDPage page = inPages.get(i);
+            appendContent(page, contents[i]);
+            contents[i] = null;
+            if (markForIncrementalUpdate) {
+                PDFUtils.markPageForIncrementalUpdate(pdfDoc, page);
+            }
+        }
+    }
+
+    protected COSStream createStream(byte[] inDeflated) throws IOException {
+        COSStream stream = pdfDoc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createFilteredStream()) {
+            out.write(inDeflated);
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        return stream;
+    }
+
+    /**
+     * Appends a content stream to the page. Same as <code>new PDPageContentStream(pdfDoc, page, true, true,
+     * resetContext)</code>, at the COS level. When resetContext is set, all the pages share the same "q" stream and
+     * the content must start with "Q".
+     *
+     * @param inPage
+     * @param inDeflated the content, compressed with {@link ContentStreamBuilder#toDeflatedByteArray()}
+     * @throws IOException
+     */
+    public void appendContent(PDPage inPage, byte[] inDeflated) throws IOException {
+
+        COSDictionary pageDict = inPage.getCOSDictionary();
+        COSStream stream = createStream(inDeflated);
+
+        COSBase existing = pageDict.getDictionaryObject(COSName.CONTENTS);
+        COSArray array;
+        if (existing instanceof COSArray) {
+            array = (COSArray) existing;
+        } else if (existing instanceof COSStreamArray) {
+            // Left by a PDPageContentStream used on the same page before
+            COSStreamArray streams = (COSStreamArray) existing;
+            array = new COSArray();
+            for (int i = 0; i < streams.getStreamCount(); i++) {
+                array.add(streams.get(i));
+            }
+        } else if (existing instanceof COSStream) {
+            array = new COSArray();
+            array.add(pageDict.getItem(COSName.CONTENTS));
+        } else if (resetContext) {
+            // No content, but the stream starts with "Q": It still needs the "q"
+            array = new COSArray();
+        } else {
+            pageDict.setItem(COSName.CONTENTS, stream);
+            return;
+        }
+
+        if (resetContext) {
+            if (saveGraphicsStream == null) {
+                try (ContentStreamBuilder builder = new ContentStreamBuilder()) {
+                    saveGraphicsStream = createStream(builder.op("q").toDeflatedByteArray());
+                }
+            }
+            array.add(0, saveGraphicsStream);
+        }
+        array.add(stream);
+        pageDict.setItem(COSName.CONTENTS, array);
+    }
+
+    /**
+     * Number of pages generated by each task submitted to the pool
+     */
+    public ParallelPageStamper setChunkSize(int inValue) {
+        chunkSize = inValue < 1 ? DEFAULT_CHUNK_SIZE : inValue;
+        return this;
+    }
+
+    /**
+     * When true, the existing content is wrapped in a save/restore of the graphic state, so the stamp is not affected
+     * by the state left by the page. The generator must then start its content with the "Q" operator.
+     */
+    public ParallelPageStamper setResetContext(boolean inValue) {
+        resetContext = inValue;
+        return this;
+    }
+
+    /**
+     * When true, every stamped page is flagged for {@link PDFUtils#saveIncrementalInTempFile}
+     */
+    public ParallelPageStamper setMarkForIncrementalUpdate(boolean inValue) {
+        markForIncrementalUpdate = inValue;
+        return this;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ *     Michael Vachette
+ */
+package org.nuxeo.pdf.pipeline;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.service.watermark.WatermarkProperties;
+
+/**
+ * Draws a text watermark on each page, using the {@link WatermarkProperties}
+ *
+ * @since 8.10
+ */
+public class TextWatermarkStage extends AbstractWatermarkStage {
+
+    protected String text;
+
+    protected PDFont font;
+
+    protected float watermarkWidth;
+
+    protected int[] rgb;
+
+    public TextWatermarkStage(String text, WatermarkProperties properties) {
+        super(properties);
+        this.text = text;
+    }
+
+    @Override
+    public void begin(PDDocument pdfDoc) throws IOException {
+        super.begin(pdfDoc);
+
+        font = PDType1Font.getStandardFont(properties.getFontFamily());
+        watermarkWidth = (float) (font.getStringWidth(text) * properties.getFontSize() / 1000f);
+        rgb = PDFUtils.hex255ToRGB(properties.getHex255Color());
+    }
+
+    @Override
+    public void apply(PDDocument pdfDoc, PDPage page, int pageNumber) throws IOException {
+        PDRectangle pageSize = page.findMediaBox();
+
+        addTransparentState(page);
+
+        try (PDPageContentStream contentStream =
+                     new PDPageContentStream(pdfDoc, page, true, true, true)) {
+            contentStream.beginText();
+            contentStream.setFont(font, (float) properties.getFontSize());
+            contentStream.appendRawCommands("/" + TRANSPARENT_STATE + " gs\n");
+            contentStream.setNonStrokingColor(rgb[0], rgb[1], rgb[2]);
+            Point2D position = computeTranslationVector(
+                    pageSize.getWidth(),watermarkWidth,
+                    pageSize.getHeight(),properties.getFontSize(),properties);
+            contentStream.setTextRotation(
+                    Math.toRadians(properties.getTextRotation()),
+                    position.getX(),
+                    position.getY());
+            contentStream.drawString(text);
+            contentStream.endText();
+        }
+    }
+
+}
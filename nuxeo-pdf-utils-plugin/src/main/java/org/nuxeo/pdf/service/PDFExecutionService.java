@@ -0,0 +1,81 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.service;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Runs the heavy PDF operations on a bounded pool of threads.
+ * <p>
+ * The heap needed by the tasks is not handled here: {@link org.nuxeo.pdf.PDFUtils#execute} reserves it with the
+ * {@link org.nuxeo.pdf.PDFAdmissionGate} before submitting a task, so concurrent requests on big PDFs run one after
+ * the other instead of exhausting the heap.
+ * <p>
+ * A task submitted from a thread of the pool (an operation calling another one) runs directly on this thread.
+ *
+ * @since 8.10
+ */
+public interface PDFExecutionService {
+
+    /**
+     * The work submitted to the service. It can throw the checked exceptions of the operation it wraps.
+     */
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * Runs the task on the pool, and waits for its result. If the thread is interrupted once the task has started, it
+     * still waits for the task to end before throwing, since the task keeps its documents in memory until then.
+     *
+     * @param inOperation the name of the operation, for the logs
+     * @param inTask
+     * @return the result of the task
+     * @throws E the exception thrown by the task
+     * @throws NuxeoException if the thread is interrupted while waiting
+     */
+    <T, E extends Exception> T execute(String inOperation, Task<T, E> inTask) throws E;
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    int getQueuedCount();
+
+    /**
+     * @return the number of tasks running
+     */
+    int getRunningCount();
+
+    /**
+     * @return the number of tasks that ended, successfully or not
+     */
+    long getCompletedCount();
+
+    /**
+     * @return the number of tasks that ended with an exception
+     */
+    long getFailedCount();
+
+    /**
+     * @return the number of threads of the pool
+     */
+    int getThreadCount();
+
+}
@@ -0,0 +1,221 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.PDFAdmissionGate;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Default implementation of {@link PDFExecutionService}. The number of threads is set by the
+ * <code>nuxeo.pdfutils.executor.threads</code> property (default: the number of processors).
+ * <p>
+ * The state of the pool and of the default {@link PDFAdmissionGate} is published as gauges in the metrics registry
+ * (see {@link PDFMetrics}).
+ *
+ * @since 8.10
+ */
+public class PDFExecutionServiceImpl extends DefaultComponent implements PDFExecutionService {
+
+    public static final String THREADS_PROPERTY = "nuxeo.pdfutils.executor.threads";
+
+    protected final ThreadLocal<Boolean> inPool = new ThreadLocal<>();
+
+    protected final AtomicInteger queued = new AtomicInteger();
+
+    protected final AtomicInteger running = new AtomicInteger();
+
+    protected final AtomicLong completed = new AtomicLong();
+
+    protected final AtomicLong failed = new AtomicLong();
+
+    protected ThreadPoolExecutor executor;
+
+    protected final Map<String, Gauge<?>> gauges = new LinkedHashMap<>();
+
+    @Override
+    public void activate(ComponentContext inContext) {
+
+        int threads = (int) getLongProperty(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "nuxeo-pdfutils-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        gauges.put(MetricRegistry.name(PDFMetrics.PREFIX, "executor", "queued"),
+                (Gauge<Integer>) this::getQueuedCount);
+        gauges.put(MetricRegistry.name(PDFMetrics.PREFIX, "executor", "running"),
+                (Gauge<Integer>) this::getRunningCount);
+        gauges.put(MetricRegistry.name(PDFMetrics.PREFIX, "admission", "reservedHeap"),
+                (Gauge<Long>) () -> PDFAdmissionGate.getDefault().getReservedHeap());
+        gauges.put(MetricRegistry.name(PDFMetrics.PREFIX, "admission", "waiting"),
+                (Gauge<Integer>) () -> PDFAdmissionGate.getDefault().getWaitingCount());
+        MetricRegistry registry = PDFMetrics.getRegistry();
+        for (Map.Entry<String, Gauge<?>> gauge : gauges.entrySet()) {
+            // Left by a previous activation, on hot reload
+            registry.remove(gauge.getKey());
+            registry.register(gauge.getKey(), gauge.getValue());
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext inContext) {
+        for (String name : gauges.keySet()) {
+            PDFMetrics.getRegistry().remove(name);
+        }
+        gauges.clear();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    protected static long getLongProperty(String inName, long inDefault) {
+        String value = Framework.getProperty(inName);
+        return StringUtils.isBlank(value) ? inDefault : Math.max(1, Long.parseLong(value.trim()));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T execute(String inOperation, Task<T, E> inTask) throws E {
+
+        ThreadPoolExecutor pool = executor;
+        if (pool == null || Boolean.TRUE.equals(inPool.get())) {
+            return inTask.run();
+        }
+
+        AtomicBoolean started = new AtomicBoolean();
+        Future<T> future;
+
+        queued.incrementAndGet();
+        try {
+            future = pool.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    return null;
+                }
+                queued.decrementAndGet();
+                running.incrementAndGet();
+                inPool.set(Boolean.TRUE);
+                try {
+                    return inTask.run();
+                } catch (Exception | Error e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    inPool.remove();
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The service is being stopped
+            queued.decrementAndGet();
+            return inTask.run();
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (started.compareAndSet(false, true)) {
+                future.cancel(false);
+                queued.decrementAndGet();
+            } else {
+                // The task holds its documents until it ends, and the caller releases the heap it reserved
+                // (see PDFUtils#execute) when this returns: Wait for it, so the heap is not given back too early
+                awaitUninterruptibly(future);
+            }
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while waiting for " + inOperation, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            // Any other exception can only be an E, thrown by the task
+            throw (E) cause;
+        }
+    }
+
+    protected static void awaitUninterruptibly(Future<?> inFuture) {
+        while (true) {
+            try {
+                inFuture.get();
+                return;
+            } catch (InterruptedException e) {
+                // Keep waiting, the interrupt is restored by the caller
+            } catch (ExecutionException | CancellationException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    @Override
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public int getThreadCount() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 0 : pool.getCorePoolSize();
+    }
+
+}
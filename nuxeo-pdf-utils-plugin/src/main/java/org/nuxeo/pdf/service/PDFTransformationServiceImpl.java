@@ -25,32 +25,24 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDResources;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
-import org.apache.pdfbox.pdmodel.graphics.PDExtendedGraphicsState;
-import org.apache.pdfbox.pdmodel.graphics.xobject.PDPixelMap;
-import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFMetrics;
 import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.pipeline.AbstractWatermarkStage;
+import org.nuxeo.pdf.pipeline.ImageWatermarkStage;
+import org.nuxeo.pdf.pipeline.PDFPageStage;
+import org.nuxeo.pdf.pipeline.TextWatermarkStage;
 import org.nuxeo.pdf.service.watermark.WatermarkProperties;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.DefaultComponent;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.geom.AffineTransform;
+import com.codahale.metrics.Timer;
+
 import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 public class PDFTransformationServiceImpl extends DefaultComponent
         implements PDFTransformationService {
@@ -66,168 +58,60 @@ public class PDFTransformationServiceImpl extends DefaultComponent
 
     @Override
     public Blob applyTextWatermark(Blob input, String text, WatermarkProperties properties) {
-
-        // Set up the graphic state to handle transparency
-        // Define a new extended graphic state
-        PDExtendedGraphicsState extendedGraphicsState = new PDExtendedGraphicsState();
-        // Set the transparency/opacity
-        extendedGraphicsState.setNonStrokingAlphaConstant((float) properties.getAlphaColor());
-
-        try (PDDocument pdfDoc = PDDocument.load(input.getStream())) {
-
-            PDFont font = PDType1Font.getStandardFont(properties.getFontFamily());
-            float watermarkWidth = (float) (font.getStringWidth(text) * properties.getFontSize()
-                                / 1000f);
-            int[] rgb = PDFUtils.hex255ToRGB(properties.getHex255Color());
-
-            for (Object o : pdfDoc.getDocumentCatalog().getAllPages()) {
-                PDPage page = (PDPage) o;
-                PDRectangle pageSize = page.findMediaBox();
-                PDResources resources = page.findResources();
-
-                // Get the defined graphic states.
-                HashMap<String, PDExtendedGraphicsState> graphicsStateDictionary =
-                        (HashMap<String, PDExtendedGraphicsState>) resources.getGraphicsStates();
-                if (graphicsStateDictionary != null) {
-                    graphicsStateDictionary.put("TransparentState",
-                            extendedGraphicsState);
-                    resources.setGraphicsStates(graphicsStateDictionary);
-                } else {
-                    Map<String, PDExtendedGraphicsState> m = new HashMap<>();
-                    m.put("TransparentState", extendedGraphicsState);
-                    resources.setGraphicsStates(m);
-                }
-
-                try (PDPageContentStream contentStream =
-                             new PDPageContentStream(pdfDoc, page, true, true, true)) {
-                    contentStream.beginText();
-                    contentStream.setFont(font, (float) properties.getFontSize());
-                    contentStream.appendRawCommands("/TransparentState gs\n");
-                    contentStream.setNonStrokingColor(rgb[0], rgb[1], rgb[2]);
-                    Point2D position = computeTranslationVector(
-                            pageSize.getWidth(),watermarkWidth,
-                            pageSize.getHeight(),properties.getFontSize(),properties);
-                    contentStream.setTextRotation(
-                            Math.toRadians(properties.getTextRotation()),
-                            position.getX(),
-                            position.getY());
-                    contentStream.drawString(text);
-                    contentStream.endText();
-                }
-            }
-            return saveInTempFile(pdfDoc);
-
-        } catch (Exception e) {
-            throw new NuxeoException(e);
-        }
+        return PDFUtils.execute("applyTextWatermark",
+                () -> applyWatermark(input, new TextWatermarkStage(text, properties), properties), input);
     }
 
     @Override
     public Blob applyImageWatermark(Blob input, Blob watermark, WatermarkProperties properties) {
+        return PDFUtils.execute("applyImageWatermark",
+                () -> applyWatermark(input, new ImageWatermarkStage(watermark, properties), properties), input);
+    }
 
-        // Set up the graphic state to handle transparency
-        // Define a new extended graphic state
-        PDExtendedGraphicsState extendedGraphicsState = new PDExtendedGraphicsState();
-        // Set the transparency/opacity
-        extendedGraphicsState.setNonStrokingAlphaConstant((float) properties.getAlphaColor());
-
-        try (PDDocument pdfDoc = PDDocument.load(input.getStream())){
-            BufferedImage image = ImageIO.read(watermark.getStream());
-            PDXObjectImage ximage = new PDPixelMap(pdfDoc, image);
-
+    protected Blob applyWatermark(Blob input, PDFPageStage stage, WatermarkProperties properties) {
+        int pageNumber = 0;
+        try (PDDocument pdfDoc = PDFUtils.load(input.getStream())) {
+            stage.begin(pdfDoc);
+            Timer pageTimer = PDFMetrics.pageTimer();
             for (Object o : pdfDoc.getDocumentCatalog().getAllPages()) {
+                Timer.Context pageTime = pageTimer.time();
                 PDPage page = (PDPage) o;
-                PDRectangle pageSize = page.findMediaBox();
-                PDResources resources = page.findResources();
-
-                // Get the defined graphic states.
-                HashMap<String, PDExtendedGraphicsState> graphicsStateDictionary =
-                        (HashMap<String, PDExtendedGraphicsState>) resources.getGraphicsStates();
-                if (graphicsStateDictionary != null) {
-                    graphicsStateDictionary.put("TransparentState",
-                            extendedGraphicsState);
-                    resources.setGraphicsStates(graphicsStateDictionary);
-                } else {
-                    Map<String, PDExtendedGraphicsState> m = new HashMap<>();
-                    m.put("TransparentState", extendedGraphicsState);
-                    resources.setGraphicsStates(m);
-                }
-
-                try (PDPageContentStream contentStream = new PDPageContentStream(pdfDoc, page, true, true)) {
-                    contentStream.appendRawCommands("/TransparentState gs\n");
-                    contentStream.endMarkedContentSequence();
-
-                    double watermarkWidth = ximage.getWidth()*properties.getScale();
-                    double watermarkHeight = ximage.getHeight()*properties.getScale();
-
-                    Point2D position = computeTranslationVector(
-                            pageSize.getWidth(),watermarkWidth,
-                            pageSize.getHeight(),watermarkHeight,properties);
-
-                    contentStream.drawXObject(
-                            ximage,
-                            (float)position.getX(),
-                            (float)position.getY(),
-                            (float)watermarkWidth,
-                            (float)watermarkHeight);
+                stage.apply(pdfDoc, page, ++pageNumber);
+                if (properties.isIncrementalSave()) {
+                    PDFUtils.markPageForIncrementalUpdate(pdfDoc, page);
                 }
+                pageTime.stop();
             }
-            return saveInTempFile(pdfDoc);
+            return save(pdfDoc, input, properties);
         } catch (COSVisitorException | IOException e) {
             throw new NuxeoException(e);
+        } finally {
+            stage.end();
         }
     }
 
-
-
     public  Point2D computeTranslationVector(double pageWidth, double watermarkWidth,
                                                double pageHeight, double watermarkHeight,
                                                WatermarkProperties properties) {
-        double xTranslation;
-        double yTranslation;
-        double xRotationOffset = 0;
-        double yRotationOffset = 0;
-
-        if (properties.getTextRotation() != 0) {
-            Rectangle2D rectangle2D =
-                    new Rectangle2D.Double(
-                            0, -watermarkHeight, watermarkWidth, watermarkHeight);
-            AffineTransform at = AffineTransform.getRotateInstance(
-                    -Math.toRadians(properties.getTextRotation()), 0, 0);
-            Shape shape = at.createTransformedShape(rectangle2D);
-            Rectangle2D rotated = shape.getBounds2D();
-
-            watermarkWidth = rotated.getWidth();
-            if (!properties.isInvertX() || properties.isRelativeCoordinates()) {
-                xRotationOffset = -rotated.getX();
-            } else {
-                xRotationOffset = rotated.getX();
-            }
-
-            watermarkHeight = rotated.getHeight();
-            if (!properties.isInvertY() || properties.isRelativeCoordinates()) {
-                yRotationOffset = rotated.getY()+rotated.getHeight();
-            } else {
-                yRotationOffset = -(rotated.getY()+rotated.getHeight());
-            }
-
-        }
+        return AbstractWatermarkStage.computeTranslationVector(pageWidth, watermarkWidth, pageHeight,
+                watermarkHeight, properties);
+    }
 
-        if (properties.isRelativeCoordinates()) {
-            xTranslation = (pageWidth - watermarkWidth ) * properties.getxPosition() + xRotationOffset;
-            yTranslation = (pageHeight - watermarkHeight ) * properties.getyPosition() + yRotationOffset;
-        } else {
-            xTranslation = properties.getxPosition() + xRotationOffset;
-            yTranslation = properties.getyPosition() + yRotationOffset;
-            if (properties.isInvertX()) xTranslation = pageWidth - watermarkWidth - xTranslation;
-            if (properties.isInvertY()) yTranslation = pageHeight - watermarkHeight - yTranslation;
+    protected FileBlob save(PDDocument pdfDoc, Blob input, WatermarkProperties properties)
+            throws IOException, COSVisitorException {
+        if (properties.isIncrementalSave()) {
+            FileBlob blob = PDFUtils.saveIncrementalInTempFile(pdfDoc, input, null);
+            blob.setFilename(blob.getFile().getName());
+            return blob;
         }
-        return new Point2D.Double(xTranslation, yTranslation);
+        return saveInTempFile(pdfDoc);
     }
 
     protected FileBlob saveInTempFile(PDDocument PdfDoc) throws IOException, COSVisitorException {
+        long start = System.nanoTime();
         File tempFile = Framework.createTempFile("nuxeo-pdfutils-", ".pdf");
         PdfDoc.save(tempFile);
+        PDFMetrics.saved(start, tempFile.length());
         return new FileBlob(tempFile,MIME_TYPE,tempFile.getName());
     }
 
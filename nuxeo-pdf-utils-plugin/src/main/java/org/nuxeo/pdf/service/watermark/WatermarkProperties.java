@@ -49,6 +49,8 @@ public class WatermarkProperties {
 
     protected double scale = 1.0;
 
+    protected boolean incrementalSave = false;
+
     public double getScale() {
         return scale;
     }
@@ -57,6 +59,14 @@ public class WatermarkProperties {
         this.scale = scale;
     }
 
+    public boolean isIncrementalSave() {
+        return incrementalSave;
+    }
+
+    public void setIncrementalSave(boolean incrementalSave) {
+        this.incrementalSave = incrementalSave;
+    }
+
     public String getFontFamily() {
         return fontFamily;
     }
@@ -177,6 +187,9 @@ public class WatermarkProperties {
                 case "scale":
                     setScale(Double.valueOf(value));
                     break;
+                case "incrementalSave":
+                    setIncrementalSave(Boolean.valueOf(value));
+                    break;
                 default:
                     throw new NuxeoException("Unknown property: " + key);
             }
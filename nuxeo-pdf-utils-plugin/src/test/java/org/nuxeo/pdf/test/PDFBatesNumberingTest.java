@@ -0,0 +1,201 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.BatesRange;
+import org.nuxeo.pdf.PDFBatesNumbering;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.pipeline.PageNumberStage;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFBatesNumberingTest {
+
+    private static final String[] THE_PDFS = { "files/13-pages-no-page-numbers.pdf", "files/pdf-1-2pages.pdf",
+            "files/pdf-2-3pages.pdf", "files/pdf-3-1page.pdf" };
+
+    private static final int[] PAGE_COUNTS = { 13, 2, 3, 1 };
+
+    protected List<Blob> blobs;
+
+    protected TestUtils utils;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+
+        blobs = new ArrayList<>();
+        for (String path : THE_PDFS) {
+            blobs.add(new FileBlob(FileUtils.getResourceFileFromContext(path)));
+        }
+    }
+
+    @After
+    public void cleanup() {
+        utils.cleanup();
+    }
+
+    @Test
+    public void testCountPages() {
+
+        for (int i = 0; i < THE_PDFS.length; i++) {
+            assertEquals(PAGE_COUNTS[i], PDFUtils.countPages(blobs.get(i), null));
+        }
+    }
+
+    @Test
+    public void testProduce() throws Exception {
+
+        PDFBatesNumbering bates = new PDFBatesNumbering(blobs);
+        bates.setTemplate("ACME{n:6}");
+        bates.setStartAtNumber(500);
+        bates.setThreadCount(2);
+        List<BatesRange> manifest = bates.produce();
+
+        assertEquals(THE_PDFS.length, manifest.size());
+        int next = 500;
+        for (int i = 0; i < THE_PDFS.length; i++) {
+            BatesRange range = manifest.get(i);
+            assertEquals(i, range.getIndex());
+            assertEquals(PAGE_COUNTS[i], range.getPageCount());
+            assertEquals(next, range.getFirstNumber());
+            next += PAGE_COUNTS[i];
+            assertEquals(next - 1, range.getLastNumber());
+            assertEquals(String.format("ACME%06d", next - 1), range.getLastLabel());
+
+            PDDocument doc = PDDocument.load(range.getBlob().getStream());
+            utils.track(doc);
+            String text = utils.extractText(doc, PAGE_COUNTS[i], PAGE_COUNTS[i]);
+            assertTrue(text.contains(range.getLastLabel()));
+            doc.close();
+            utils.untrack(doc);
+        }
+    }
+
+    @Test
+    public void testEachDocumentHasItsFont() throws Exception {
+
+        // Documents are numbered at the same time, they must not share the font, whose width cache is not thread safe
+        PDDocument first = PDDocument.load(blobs.get(0).getStream());
+        utils.track(first);
+        PDDocument second = PDDocument.load(blobs.get(1).getStream());
+        utils.track(second);
+        PageNumberStage firstStage = new PageNumberStage(1, 1, null, 0, "ff0000", PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        PageNumberStage secondStage = new PageNumberStage(1, 14, null, 0, "ff0000", PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+        firstStage.begin(first);
+        secondStage.begin(second);
+
+        COSBase firstFont = getNumberFont(first);
+        COSBase secondFont = getNumberFont(second);
+        assertNotSame(firstFont, secondFont);
+        assertNotSame(PDType1Font.HELVETICA.getCOSObject(), firstFont);
+        assertNotSame(PDType1Font.HELVETICA.getCOSObject(), secondFont);
+
+        firstStage.end();
+        secondStage.end();
+        first.close();
+        utils.untrack(first);
+        second.close();
+        utils.untrack(second);
+    }
+
+    @Test
+    public void testNestedPageTree() throws Exception {
+
+        Blob nested = createNestedPageTree(5);
+        assertEquals(5, PDFUtils.countPages(nested, null));
+
+        List<Blob> production = new ArrayList<>();
+        production.add(nested);
+        production.add(blobs.get(1));
+        PDFBatesNumbering bates = new PDFBatesNumbering(production);
+        List<BatesRange> manifest = bates.produce();
+        assertEquals(5, manifest.get(0).getPageCount());
+        assertEquals(6, manifest.get(1).getFirstNumber());
+        assertEquals(7, manifest.get(1).getLastNumber());
+    }
+
+    protected COSBase getNumberFont(PDDocument inDoc) throws Exception {
+        PDPage page = (PDPage) inDoc.getDocumentCatalog().getAllPages().get(0);
+        return page.findResources().getFonts().get(PageNumberStage.FONT_RESOURCE_PREFIX + "1").getCOSObject();
+    }
+
+    /*
+     * The root of the page tree has two intermediate nodes, the pages are their kids
+     */
+    protected Blob createNestedPageTree(int inPageCount) throws Exception {
+
+        PDDocument doc = new PDDocument();
+        utils.track(doc);
+        for (int i = 0; i < inPageCount; i++) {
+            doc.addPage(new PDPage());
+        }
+        COSDictionary root = doc.getDocumentCatalog().getPages().getDictionary();
+        COSArray pages = (COSArray) root.getDictionaryObject(COSName.KIDS);
+        COSArray nodes = new COSArray();
+        int half = inPageCount / 2;
+        for (int[] range : new int[][] { { 0, half }, { half, inPageCount } }) {
+            COSDictionary node = new COSDictionary();
+            node.setItem(COSName.TYPE, COSName.PAGES);
+            node.setItem(COSName.PARENT, root);
+            COSArray kids = new COSArray();
+            for (int i = range[0]; i < range[1]; i++) {
+                COSDictionary page = (COSDictionary) pages.getObject(i);
+                page.setItem(COSName.PARENT, node);
+                kids.add(page);
+            }
+            node.setItem(COSName.KIDS, kids);
+            node.setInt(COSName.COUNT, kids.size());
+            nodes.add(node);
+        }
+        root.setItem(COSName.KIDS, nodes);
+        root.setInt(COSName.COUNT, inPageCount);
+
+        Blob blob = PDFUtils.saveInTempFile(doc);
+        doc.close();
+        utils.untrack(doc);
+        return blob;
+    }
+}
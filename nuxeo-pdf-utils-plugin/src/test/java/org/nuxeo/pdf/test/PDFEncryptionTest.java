@@ -20,10 +20,15 @@ package org.nuxeo.pdf.test;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryptionDictionary;
 import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.apache.pdfbox.util.PDFTextStripper;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,9 +38,16 @@ import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.blob.ByteArrayBlob;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.pdf.PDFBatchEncryption;
+import org.nuxeo.pdf.PDFBatchExecutor;
 import org.nuxeo.pdf.PDFEncryption;
+import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.encryption.AES256SecurityHandler;
+import org.nuxeo.pdf.encryption.PasswordVerifier;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -151,6 +163,58 @@ public class PDFEncryptionTest {
 
     }
 
+    @Test
+    public void testEncryptPDF_AES256() throws Exception {
+
+        PDFEncryption pdfe = new PDFEncryption(pdfFileBlob);
+
+        pdfe.setKeyLength(256);
+        pdfe.setOwnerPwd("owner");
+        pdfe.setUserPwd("user");
+        Blob result = pdfe.encryptReadOnly();
+        assertNotNull(result);
+
+        PDDocument pdfDoc = utils.loadAndTrack(result);
+        assertTrue(pdfDoc.isEncrypted());
+        PDEncryptionDictionary dict = pdfDoc.getEncryptionDictionary();
+        assertTrue(AES256SecurityHandler.isAES256(dict));
+        assertEquals(6, dict.getRevision());
+        utils.closeAndUntrack(pdfDoc);
+
+        // Decrypt as user
+        pdfDoc = PDFUtils.load(result, "user");
+        utils.track(pdfDoc);
+        assertEquals(13, pdfDoc.getNumberOfPages());
+        AccessPermission ap = pdfDoc.getCurrentAccessPermission();
+        assertTrue(ap.canPrint());
+        assertFalse(ap.canModify());
+        assertFalse(ap.canAssembleDocument());
+        utils.closeAndUntrack(pdfDoc);
+
+        // Decrypt as owner
+        pdfDoc = PDFUtils.load(result, "owner");
+        utils.track(pdfDoc);
+        assertTrue(pdfDoc.getCurrentAccessPermission().isOwnerPermission());
+        utils.closeAndUntrack(pdfDoc);
+
+        try {
+            PDFUtils.load(result, "wrong");
+            fail("A wrong password should not open the PDF");
+        } catch (NuxeoException e) {
+            // Expected
+        }
+
+        // Remove the encryption
+        pdfe = new PDFEncryption(result);
+        pdfe.setOriginalOwnerPwd("owner");
+        Blob clear = pdfe.removeEncryption();
+
+        pdfDoc = utils.loadAndTrack(clear);
+        assertFalse(pdfDoc.isEncrypted());
+        assertEquals(13, pdfDoc.getNumberOfPages());
+        utils.closeAndUntrack(pdfDoc);
+    }
+
     @Test
     public void testRemoveEncryption() throws Exception {
 
@@ -186,4 +250,154 @@ public class PDFEncryptionTest {
 
     }
 
+    @Test
+    public void testRemoveEncryptionStreaming() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(ENCRYPTED_PDF);
+        FileBlob fb = new FileBlob(f);
+
+        PDFEncryption pdfe = new PDFEncryption(fb);
+        pdfe.setOriginalOwnerPwd(ENCRYPTED_PDF_PWD);
+        pdfe.setStreaming(true);
+        Blob result = pdfe.removeEncryption();
+        assertNotNull(result);
+
+        PDDocument pdfDoc = utils.loadAndTrack(result);
+        assertFalse(pdfDoc.isEncrypted());
+        assertEquals(13, pdfDoc.getNumberOfPages());
+        assertTrue(new PDFTextStripper().getText(pdfDoc).contains("Creative Brief"));
+        utils.closeAndUntrack(pdfDoc);
+
+        // Same with AES-256
+        pdfDoc = utils.loadAndTrack(pdfFileBlob);
+        String text = new PDFTextStripper().getText(pdfDoc);
+        utils.closeAndUntrack(pdfDoc);
+
+        pdfe = new PDFEncryption(pdfFileBlob);
+        pdfe.setKeyLength(256);
+        pdfe.setOwnerPwd("owner");
+        pdfe.setUserPwd("user");
+        Blob encrypted = pdfe.encryptReadOnly();
+
+        pdfe = new PDFEncryption(encrypted);
+        pdfe.setOriginalOwnerPwd("owner");
+        pdfe.setStreaming(true);
+        result = pdfe.removeEncryption();
+
+        pdfDoc = utils.loadAndTrack(result);
+        assertFalse(pdfDoc.isEncrypted());
+        assertEquals(text, new PDFTextStripper().getText(pdfDoc));
+        utils.closeAndUntrack(pdfDoc);
+    }
+
+    @Test
+    public void testPasswordVerifier() throws Exception {
+
+        PasswordVerifier verifier = PasswordVerifier.getInstance();
+        verifier.clear();
+
+        FileBlob fb = new FileBlob(FileUtils.getResourceFileFromContext("files/protected_pwds_owner_user.pdf"));
+        assertEquals(PasswordVerifier.Result.OWNER, verifier.verify(fb, "owner"));
+        assertEquals(PasswordVerifier.Result.USER, verifier.verify(fb, "user"));
+        assertEquals(PasswordVerifier.Result.INVALID, verifier.verify(fb, "wrong"));
+        // From the cache
+        assertEquals(PasswordVerifier.Result.USER, verifier.verify(fb, "user"));
+
+        assertEquals(PasswordVerifier.Result.NOT_ENCRYPTED, verifier.verify(pdfFileBlob, "user"));
+
+        // Loading uses the cached key
+        PDDocument pdfDoc = PDFUtils.load(fb, "user");
+        utils.track(pdfDoc);
+        assertFalse(pdfDoc.getCurrentAccessPermission().isOwnerPermission());
+        assertEquals(13, pdfDoc.getNumberOfPages());
+        assertTrue(new PDFTextStripper().getText(pdfDoc).contains("Creative Brief"));
+        utils.closeAndUntrack(pdfDoc);
+
+        // AES-256
+        PDFEncryption pdfe = new PDFEncryption(pdfFileBlob);
+        pdfe.setKeyLength(256);
+        pdfe.setOwnerPwd("owner");
+        pdfe.setUserPwd("user");
+        Blob encrypted = pdfe.encryptReadOnly();
+        assertEquals(PasswordVerifier.Result.OWNER, verifier.verify(encrypted, "owner"));
+        assertEquals(PasswordVerifier.Result.INVALID, verifier.verify(encrypted, "wrong"));
+
+        pdfDoc = PDFUtils.load(encrypted, "owner");
+        utils.track(pdfDoc);
+        assertTrue(pdfDoc.getCurrentAccessPermission().isOwnerPermission());
+        assertEquals(13, pdfDoc.getNumberOfPages());
+        utils.closeAndUntrack(pdfDoc);
+    }
+
+    @Test
+    public void testBatchEncryption() throws Exception {
+
+        AccessPermission ap = new AccessPermission();
+        ap.setCanPrint(true);
+        ap.setCanModify(false);
+        ap.setCanExtractContent(true);
+        ap.setCanModifyAnnotations(false);
+        ap.setCanFillInForm(false);
+        ap.setCanExtractForAccessibility(true);
+        ap.setCanAssembleDocument(false);
+        ap.setCanPrintDegraded(true);
+
+        // The image in the middle is not a PDF and must fail alone
+        List<Blob> blobs = new ArrayList<>();
+        blobs.add(pdfFileBlob);
+        blobs.add(new FileBlob(FileUtils.getResourceFileFromContext("files/Nuxeo-logo-Gray.jpg")));
+        for (int i = 0; i < 6; i++) {
+            blobs.add(pdfFileBlob);
+        }
+
+        PDFBatchEncryption batch = new PDFBatchEncryption("owner", "user", 128, ap);
+        batch.setThreadCount(2);
+        List<PDFBatchEncryption.Result> results = batch.encrypt(blobs);
+
+        assertEquals(blobs.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            PDFBatchEncryption.Result result = results.get(i);
+            assertEquals(i, result.getIndex());
+            if (i == 1) {
+                assertFalse(result.isSuccess());
+                assertNotNull(result.getError());
+            } else {
+                assertTrue(result.isSuccess());
+                assertEquals(pdfFileBlob.getFilename(), result.getBlob().getFilename());
+                checkIsReadOnly(result.getBlob(), "owner", "user");
+            }
+        }
+    }
+
+    @Test
+    public void testBatchEncryptionVirtualThreads() throws Exception {
+
+        AccessPermission ap = new AccessPermission();
+        ap.setCanModify(false);
+
+        // Blobs with no file, copied to local files before being parsed
+        byte[] bytes = Files.readAllBytes(pdfFile.toPath());
+        List<Blob> blobs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Blob blob = new ByteArrayBlob(bytes, "application/pdf");
+            blob.setFilename("doc-" + i + ".pdf");
+            blobs.add(blob);
+        }
+
+        PDFBatchEncryption batch = new PDFBatchEncryption("owner", "user", 128, ap);
+        // Falls back to the platform threads when the runtime has no virtual threads
+        batch.setVirtualThreads(true);
+        try (PDFBatchExecutor executor = new PDFBatchExecutor(1, true)) {
+            assertEquals(PDFBatchExecutor.isVirtualThreadsAvailable(), executor.isVirtual());
+        }
+        List<PDFBatchEncryption.Result> results = batch.encrypt(blobs);
+
+        assertEquals(blobs.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            PDFBatchEncryption.Result result = results.get(i);
+            assertTrue(result.isSuccess());
+            assertEquals("doc-" + i + ".pdf", result.getBlob().getFilename());
+            checkIsReadOnly(result.getBlob(), "owner", "user");
+        }
+    }
 }
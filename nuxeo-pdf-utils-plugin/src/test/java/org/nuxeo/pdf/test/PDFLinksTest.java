@@ -21,15 +21,20 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.pdf.LinkInfo;
+import org.nuxeo.pdf.PDFBatchLinks;
+import org.nuxeo.pdf.PDFLinkIndex;
 import org.nuxeo.pdf.PDFLinks;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
@@ -101,4 +106,132 @@ public class PDFLinksTest {
         pdfl.close();
 
     }
+
+    @Test
+    public void testAllLinkTypes() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext("files/XMP-Embedding.pdf");
+        PDFLinks pdfl = new PDFLinks(new FileBlob(f));
+
+        ArrayList<LinkInfo> goToLinks = pdfl.getGoToLinks();
+        assertEquals(34, goToLinks.size());
+        assertEquals(5, pdfl.getURILinks().size());
+        assertEquals(5, pdfl.getRemoteGoToLinks().size());
+        assertEquals(0, pdfl.getLaunchLinks().size());
+        assertEquals(0, pdfl.getNamedLinks().size());
+        assertEquals(0, pdfl.getJavaScriptLinks().size());
+
+        // Collected once
+        assertSame(goToLinks, pdfl.getGoToLinks());
+
+        boolean found = false;
+        for (LinkInfo li : goToLinks) {
+            assertEquals("GoTo", li.getSubType());
+            if (li.getPage() == 3 && "G3.1033835".equals(li.getLink())) {
+                found = true;
+            }
+        }
+        assertTrue(found);
+
+        pdfl.close();
+    }
+
+    @Test
+    public void testLinkTextIsPageScoped() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext("files/XMP-Embedding.pdf");
+        PDFLinks pdfl = new PDFLinks(new FileBlob(f));
+
+        // Links of the table of contents, on page 3. Regions of other pages must not collide with them.
+        int count = 0;
+        for (LinkInfo li : pdfl.getGoToLinks()) {
+            if (li.getPage() == 3) {
+                switch (li.getLink()) {
+                case "G3.1032074":
+                    assertTrue(li.getText().startsWith("1.2 TIFF"));
+                    count += 1;
+                    break;
+
+                case "G3.1033835":
+                    assertTrue(li.getText().startsWith("1.6 HTML"));
+                    count += 1;
+                    break;
+                }
+            }
+        }
+        assertEquals(2, count);
+
+        pdfl.close();
+    }
+
+    @Test
+    public void testLinkIndex() throws Exception {
+
+        File indexFile = File.createTempFile("pdflinks-", ".idx");
+        indexFile.delete();
+        try {
+            PDFLinkIndex index = new PDFLinkIndex(indexFile);
+            FileBlob fb1 = new FileBlob(FileUtils.getResourceFileFromContext(PDF_1_PATH));
+            assertTrue(index.add(fb1));
+            assertTrue(index.add(new FileBlob(FileUtils.getResourceFileFromContext("files/" + PDF_2))));
+            assertTrue(index.add(new FileBlob(FileUtils.getResourceFileFromContext("files/" + PDF_3))));
+            // Same digest
+            assertFalse(index.add(fb1));
+            index.save();
+
+            // Reload, no PDF is opened
+            index = new PDFLinkIndex(indexFile);
+            assertEquals(3, index.getDocumentCount());
+
+            // pdf-1 has 2 Launch links and 1 GoToR link
+            assertEquals(3, index.getLinksFrom(PDFLinkIndex.getDigest(fb1)).size());
+
+            // pdf-3 is linked from pdf-1 and pdf-2, with a relative path
+            List<PDFLinkIndex.IndexedLink> links = index.getLinksTo("linked-pdf-3.pdf");
+            assertEquals(2, links.size());
+            for (PDFLinkIndex.IndexedLink li : links) {
+                assertEquals(PDF_3, li.getLink());
+                assertTrue(PDF_1.equals(li.getSourceFilename()) || PDF_2.equals(li.getSourceFilename()));
+            }
+
+            assertEquals(0, index.getLinksTo("not-linked.pdf").size());
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testBatchLinks() throws Exception {
+
+        List<Blob> blobs = new ArrayList<>();
+        blobs.add(new FileBlob(FileUtils.getResourceFileFromContext(PDF_1_PATH)));
+        blobs.add(new FileBlob(FileUtils.getResourceFileFromContext("files/" + PDF_2)));
+        // Wrong password
+        blobs.add(new FileBlob(FileUtils.getResourceFileFromContext("files/protected_pwds_owner_user.pdf")));
+        blobs.add(new FileBlob(FileUtils.getResourceFileFromContext("files/" + PDF_3)));
+
+        PDFBatchLinks batch = new PDFBatchLinks();
+        batch.setThreadCount(2);
+        batch.setSubTypes("Launch", "GoToR");
+        final int[] linksPerBlob = new int[blobs.size()];
+        final List<Integer> errors = new ArrayList<>();
+        batch.extract(blobs, new Consumer<PDFBatchLinks.Result>() {
+            @Override
+            public void accept(PDFBatchLinks.Result inResult) {
+                if (inResult.isSuccess()) {
+                    linksPerBlob[inResult.getIndex()] += 1;
+                } else {
+                    errors.add(inResult.getIndex());
+                }
+            }
+        });
+
+        // pdf-1: 2 Launch + 1 GoToR. pdf-2: 2 Launch. pdf-3: 2 links
+        assertEquals(3, linksPerBlob[0]);
+        assertEquals(2, linksPerBlob[1]);
+        assertEquals(0, linksPerBlob[2]);
+        assertEquals(2, linksPerBlob[3]);
+        assertEquals(1, errors.size());
+        assertEquals(2, errors.get(0).intValue());
+    }
 }
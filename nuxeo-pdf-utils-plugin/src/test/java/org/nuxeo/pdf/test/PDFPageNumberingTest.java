@@ -24,6 +24,8 @@ import java.io.IOException;
 
 import org.apache.pdfbox.exceptions.COSVisitorException;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.util.PDFTextStripper;
 import org.junit.After;
 import org.junit.Before;
@@ -34,10 +36,13 @@ import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
 import org.nuxeo.pdf.PDFPageNumbering;
+import org.nuxeo.pdf.pipeline.PageLabelTemplate;
+import org.nuxeo.pdf.pipeline.PageNumberStage;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -51,6 +56,8 @@ public class PDFPageNumberingTest {
 
     private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
 
+    private static final String ENCRYPTED_PDF = "files/13-pages-no-page-numbers-encrypted-pwd-nuxeo.pdf";
+
     protected File pdfFile;
 
     protected FileBlob pdfFileBlob;
@@ -212,4 +219,105 @@ public class PDFPageNumberingTest {
                 PAGE_NUMBER_POSITION.TOP_LEFT);
 
     }
+
+    @Test
+    public void testAddPageNumbersInParallel() throws COSVisitorException, IOException {
+
+        PDFPageNumbering pn = new PDFPageNumbering(pdfFileBlob);
+        pn.setParallel(true);
+        Blob blobResult = pn.addPageNumbers(3, 20, null, 0, "ff0000", PAGE_NUMBER_POSITION.BOTTOM_CENTER);
+        assertNotNull(blobResult);
+
+        File tempFile = File.createTempFile("pdfutils-", ".pdf");
+        blobResult.transferTo(tempFile);
+        for (int i = 3; i <= 13; i++) {
+            checkHasNumberInPage(tempFile, 17 + i, i, "BOTTOM_CENTER");
+        }
+        tempFile.delete();
+    }
+
+    @Test
+    public void testAddPageNumbersSharesTheFontResource() throws Exception {
+
+        PDFPageNumbering pn = new PDFPageNumbering(pdfFileBlob);
+        Blob blobResult = pn.addPageNumbers(1, 1, null, 0, "ff0000", PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+
+        PDDocument doc = PDDocument.load(blobResult.getStream());
+        utils.track(doc);
+
+        // The font is registered once, with the same name, for all the pages
+        String fontName = PageNumberStage.FONT_RESOURCE_PREFIX + "1";
+        PDFont font = null;
+        for (Object o : doc.getDocumentCatalog().getAllPages()) {
+            PDFont pageFont = ((PDPage) o).findResources().getFonts().get(fontName);
+            assertNotNull(pageFont);
+            if (font == null) {
+                font = pageFont;
+            } else {
+                assertEquals(font.getCOSObject(), pageFont.getCOSObject());
+            }
+        }
+
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testAddPageNumbersWithTemplate() throws Exception {
+
+        PDFPageNumbering pn = new PDFPageNumbering(pdfFileBlob);
+        pn.setWritePageLabels(true);
+        Blob blobResult = pn.addPageNumbers("ACME{n:6} - Page {n} of {total}", 2, 1, null, 0, "ff0000",
+                PAGE_NUMBER_POSITION.BOTTOM_CENTER);
+        assertNotNull(blobResult);
+
+        PDDocument doc = PDDocument.load(blobResult.getStream());
+        utils.track(doc);
+
+        String text = utils.extractText(doc, 4, 4);
+        assertTrue(text.contains("ACME000003 - Page 3 of 12"));
+
+        String[] labels = doc.getDocumentCatalog().getPageLabels().getLabelsByPageIndices();
+        assertEquals(13, labels.length);
+        assertEquals("1", labels[0]);
+        assertEquals("ACME000003 - Page 3 of 12", labels[3]);
+
+        doc.close();
+        utils.untrack(doc);
+    }
+
+    @Test
+    public void testIncrementalSaveOfEncryptedPdfFails() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(ENCRYPTED_PDF);
+        PDFPageNumbering pn = new PDFPageNumbering(new FileBlob(f));
+        pn.setPassword("nuxeo");
+        pn.setIncrementalSave(true);
+        try {
+            pn.addPageNumbers(1, 1, null, 0, "ff0000", PAGE_NUMBER_POSITION.BOTTOM_RIGHT);
+            fail("Incremental save of an encrypted PDF should fail");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Incremental save is not supported"));
+        }
+    }
+
+    @Test
+    public void testPageLabelTemplate() {
+
+        assertEquals("xiv", PageLabelTemplate.parse("{n:i}").format(14, 20));
+        assertEquals("Page XIV of XX", PageLabelTemplate.parse("Page {n:I} of {total:I}").format(14, 20));
+        assertEquals("{00014}", PageLabelTemplate.parse("{{{n:5}}}").format(14, 20));
+        assertEquals("14", PageLabelTemplate.parse(null).format(14, 20));
+
+        assertNotNull(PageLabelTemplate.parse("Chapter 1-{n}").toPageLabelRange(1));
+        assertNull(PageLabelTemplate.parse("{n} of {total}").toPageLabelRange(1));
+        assertNull(PageLabelTemplate.parse("ACME{n:6}").toPageLabelRange(1));
+
+        try {
+            PageLabelTemplate.parse("Page {p}");
+            fail("Unknown placeholder should fail");
+        } catch (NuxeoException e) {
+            // Expected
+        }
+    }
 }
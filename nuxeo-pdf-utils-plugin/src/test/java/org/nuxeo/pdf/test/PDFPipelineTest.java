@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFPageNumbering.PAGE_NUMBER_POSITION;
+import org.nuxeo.pdf.pipeline.EncryptionStage;
+import org.nuxeo.pdf.pipeline.MetadataStage;
+import org.nuxeo.pdf.pipeline.PDFPipeline;
+import org.nuxeo.pdf.pipeline.PageNumberStage;
+import org.nuxeo.pdf.pipeline.TextWatermarkStage;
+import org.nuxeo.pdf.service.watermark.WatermarkProperties;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class PDFPipelineTest {
+
+    // WARNING: If you change this pdf, a lot of tests will fail (count pages,
+    // text in the pdf, ...)
+    private static final String THE_PDF = "files/13-pages-no-page-numbers.pdf";
+
+    protected File pdfFile;
+
+    protected FileBlob pdfFileBlob;
+
+    protected TestUtils utils;
+
+    @Before
+    public void setup() {
+
+        utils = new TestUtils();
+
+        pdfFile = FileUtils.getResourceFileFromContext(THE_PDF);
+        pdfFileBlob = new FileBlob(pdfFile);
+    }
+
+    @After
+    public void cleanup() {
+        utils.cleanup();
+    }
+
+    @Test
+    public void testWatermarkNumberAndEncryptInOnePass() throws Exception {
+
+        String watermark = java.util.UUID.randomUUID().toString();
+
+        PDFPipeline pipeline = new PDFPipeline(pdfFileBlob);
+        pipeline.addPageStage(new TextWatermarkStage(watermark, new WatermarkProperties()))
+                .addPageStage(new PageNumberStage(1, 100, null, 0, "#ff0000", PAGE_NUMBER_POSITION.BOTTOM_RIGHT))
+                .addDocumentStage(new MetadataStage("The title", null, null))
+                .addDocumentStage(new EncryptionStage("owner", "user", 128, new AccessPermission()));
+        Blob result = pipeline.run();
+        assertNotNull(result);
+        assertEquals(pdfFileBlob.getFilename(), result.getFilename());
+
+        PDDocument doc = PDDocument.load(result.getStream());
+        utils.track(doc);
+
+        assertTrue(doc.isEncrypted());
+        doc.openProtection(new StandardDecryptionMaterial("user"));
+
+        assertEquals("The title", doc.getDocumentInformation().getTitle());
+
+        int count = doc.getNumberOfPages();
+        assertEquals(13, count);
+        for (int i = 1; i <= count; i++) {
+            String txt = utils.extractText(doc, i, i);
+            assertTrue("Watermark not found for page " + i, txt.indexOf(watermark) > -1);
+            assertTrue("Number not found for page " + i, txt.indexOf("" + (99 + i)) > -1);
+        }
+
+        doc.close();
+        utils.untrack(doc);
+    }
+
+}
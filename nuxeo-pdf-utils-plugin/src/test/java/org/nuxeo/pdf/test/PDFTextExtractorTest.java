@@ -21,8 +21,16 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,9 +39,15 @@ import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.pdf.PDFTextCache;
 import org.nuxeo.pdf.PDFTextExtractor;
+import org.nuxeo.pdf.PDFTextIndex;
+import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.PageWords;
+import org.nuxeo.pdf.TextKeyMatcher;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -47,6 +61,10 @@ public class PDFTextExtractorTest {
 
     private static final String THE_PDF = "files/fakecontract.pdf";
 
+    private static final String ENCRYPTED_PDF = "files/13-pages-no-page-numbers-encrypted-pwd-nuxeo.pdf";
+
+    private static final String ENCRYPTED_PDF_PWD = "nuxeo";
+
     protected File pdfFile;
 
     protected FileBlob pdfFileBlob;
@@ -126,4 +144,263 @@ public class PDFTextExtractorTest {
         assertEquals("123456789", extractedLine);
     }
 
+    @Test
+    public void testExtractPages() throws IOException {
+
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+        StringWriter writer = new StringWriter();
+        textExtractor.extractAll(writer);
+        assertEquals(textExtractor.getAllExtractedLines(), writer.toString());
+
+        // Stop on the first page containing the text
+        final int[] found = { 0 };
+        int count = textExtractor.extractPages(new PDFTextExtractor.PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) {
+                if (inText.contains("Contract Number: ")) {
+                    found[0] = inPageNumber;
+                    return false;
+                }
+                return true;
+            }
+        });
+        assertEquals(1, found[0]);
+        assertEquals(1, count);
+
+        // A range of pages
+        final StringBuilder pages = new StringBuilder();
+        count = textExtractor.extractPages(2, 4, new PDFTextExtractor.PageTextHandler() {
+            @Override
+            public boolean handlePage(int inPageNumber, String inText) {
+                pages.append(inPageNumber);
+                return true;
+            }
+        });
+        assertEquals(3, count);
+        assertEquals("234", pages.toString());
+    }
+
+    @Test
+    public void testExtractLinesOf() throws IOException {
+
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+        TextKeyMatcher matcher = new TextKeyMatcher("Contract Number: ", "Toto", "13.1", "Number");
+        Map<String, String> lines = textExtractor.extractLinesOf(matcher);
+        assertEquals(3, lines.size());
+        assertEquals("Contract Number: 123456789", lines.get("Contract Number: "));
+        assertEquals(textExtractor.extractLineOf("13.1"), lines.get("13.1"));
+        assertEquals("Number: 123456789", lines.get("Number"));
+        assertNull(lines.get("Toto"));
+
+        lines = textExtractor.extractLastPartOfLines(matcher);
+        assertEquals("123456789", lines.get("Contract Number: "));
+
+        // Match on the last line
+        String text = textExtractor.getAllExtractedLines().trim();
+        String lastLine = text.substring(text.lastIndexOf("\n") + 1);
+        assertEquals(lastLine, textExtractor.extractLineOf(lastLine));
+    }
+
+    @Test
+    public void testTextKeyMatcher() {
+
+        TextKeyMatcher matcher = new TextKeyMatcher("he", "she", "his", "hers", "she", "x");
+        int[] found = matcher.findFirst("ushers and his hen");
+        assertArrayEquals(new int[] { 2, 1, 11, 2, 1, -1 }, found);
+    }
+
+    @Test
+    public void testParallelExtraction() throws IOException {
+
+        String expected = new PDFTextExtractor(pdfFileBlob).getAllExtractedLines();
+
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+        textExtractor.setThreadCount(4);
+        assertEquals(expected, textExtractor.getAllExtractedLines());
+
+        textExtractor = new PDFTextExtractor(pdfFileBlob);
+        textExtractor.setThreadCount(3);
+        StringWriter writer = new StringWriter();
+        textExtractor.extractAll(writer);
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testTextCache() throws IOException {
+
+        File dir = Files.createTempDirectory("pdftextcache").toFile();
+        try {
+            PDFTextCache cache = new PDFTextCache(dir, 10 * 1024 * 1024);
+            String expected = new PDFTextExtractor(pdfFileBlob).getAllExtractedLines();
+
+            PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+            textExtractor.setTextCache(cache);
+            assertEquals(expected, textExtractor.getAllExtractedLines());
+            assertTrue(cache.contains(pdfFileBlob));
+            assertTrue(cache.getSize() > 0);
+
+            // From the cache
+            textExtractor = new PDFTextExtractor(pdfFileBlob);
+            textExtractor.setTextCache(cache);
+            assertEquals(expected, textExtractor.getAllExtractedLines());
+            assertEquals("Contract Number: 123456789", textExtractor.extractLineOf("Contract Number: "));
+
+            assertEquals(6, cache.getPageCount(pdfFileBlob, null));
+            StringBuilder pages = new StringBuilder();
+            for (int i = 1; i <= 6; i++) {
+                pages.append(cache.getPageText(pdfFileBlob, i, null));
+            }
+            assertEquals(expected, pages.toString());
+
+            // Reloaded from the directory
+            cache = new PDFTextCache(dir, 10 * 1024 * 1024);
+            assertTrue(cache.contains(pdfFileBlob));
+
+            // Evicted
+            cache.setMaxSize(1);
+            assertFalse(cache.contains(pdfFileBlob));
+            assertEquals(0, cache.getSize());
+        } finally {
+            org.apache.commons.io.FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testTextCacheEncryptedPdf() throws IOException {
+
+        File dir = Files.createTempDirectory("pdftextcache").toFile();
+        try {
+            PDFTextCache cache = new PDFTextCache(dir, 10 * 1024 * 1024);
+            FileBlob encrypted = new FileBlob(FileUtils.getResourceFileFromContext(ENCRYPTED_PDF));
+
+            PDFTextExtractor textExtractor = new PDFTextExtractor(encrypted);
+            textExtractor.setPassword(ENCRYPTED_PDF_PWD);
+            textExtractor.setTextCache(cache);
+            String text = textExtractor.getAllExtractedLines();
+            assertTrue(text.length() > 0);
+            assertEquals(13, cache.getPageCount(encrypted, ENCRYPTED_PDF_PWD));
+
+            // Not written to the disk
+            assertFalse(cache.contains(encrypted));
+            assertEquals(0, cache.getSize());
+
+            // The text was extracted once with the right password, it is still not given without it
+            for (String pwd : new String[] { null, "wrong" }) {
+                try {
+                    cache.getText(encrypted, pwd);
+                    fail("The text must not be returned with password " + pwd);
+                } catch (NuxeoException e) {
+                    // Expected
+                }
+                try {
+                    cache.getPageText(encrypted, 1, pwd);
+                    fail("The text must not be returned with password " + pwd);
+                } catch (NuxeoException e) {
+                    // Expected
+                }
+            }
+        } finally {
+            org.apache.commons.io.FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testExtractWords() throws IOException {
+
+        PDFTextExtractor textExtractor = new PDFTextExtractor(pdfFileBlob);
+        List<PageWords> pages = textExtractor.getAllWords();
+        assertEquals(6, pages.size());
+
+        PageWords words = pages.get(0);
+        assertEquals(1, words.getPage());
+        int idx = words.indexOf("Number:", 0);
+        assertTrue(idx > 0);
+        assertEquals("Contract", words.getText(idx - 1));
+        assertEquals("123456789", words.getText(idx + 1));
+
+        // Same line, left to right
+        assertEquals(words.getY(idx), words.getY(idx + 1), 1f);
+        assertTrue(words.getX(idx - 1) + words.getWidth(idx - 1) <= words.getX(idx));
+        assertTrue(words.getX(idx) + words.getWidth(idx) <= words.getX(idx + 1));
+        assertTrue(words.getWidth(idx) > 0);
+        assertTrue(words.getHeight(idx) > 0);
+        assertTrue(words.getY(idx) > 0 && words.getY(idx) < 842);
+
+        assertEquals(-1, words.indexOf("Toto", 0));
+    }
+
+    @Test
+    public void testTextIndex() throws IOException {
+
+        File dir = Files.createTempDirectory("pdftextindex").toFile();
+        try {
+            PDFTextCache cache = new PDFTextCache(new File(dir, "cache"), 10 * 1024 * 1024);
+            File indexFile = new File(dir, "text.idx");
+            PDFTextIndex index = new PDFTextIndex(indexFile, cache);
+            assertTrue(index.add(pdfFileBlob));
+            FileBlob other = new FileBlob(FileUtils.getResourceFileFromContext("files/13-pages-no-page-numbers.pdf"));
+            assertTrue(index.add(other));
+            assertFalse(index.add(pdfFileBlob));
+            index.save();
+
+            index = new PDFTextIndex(indexFile, cache);
+            assertEquals(2, index.getDocumentCount());
+
+            List<PDFTextIndex.Hit> hits = index.search("CONTRACT number", 10);
+            assertEquals(1, hits.size());
+            PDFTextIndex.Hit hit = hits.get(0);
+            assertEquals(pdfFile.getName(), hit.getFilename());
+            assertEquals(1, hit.getPage());
+            assertTrue(hit.getSnippet().contains("Contract Number: 123456789"));
+
+            // One hit per page (the 2 last pages have no text)
+            hits = index.search("Creative Brief", 100);
+            assertEquals(11, hits.size());
+            assertEquals(2, index.search("Creative Brief", 2).size());
+
+            assertEquals(0, index.search("contract toto", 10).size());
+            assertEquals(0, index.search("", 10).size());
+        } finally {
+            org.apache.commons.io.FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testTextIndexWithOversizedWord() throws Exception {
+
+        // Longer than what DataOutput.writeUTF() accepts
+        String longWord = StringUtils.repeat("x", 70000);
+        PDDocument doc = new PDDocument();
+        utils.track(doc);
+        PDPage page = new PDPage();
+        doc.addPage(page);
+        try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+            content.beginText();
+            content.setFont(PDType1Font.HELVETICA, 1);
+            content.moveTextPositionByAmount(10, 10);
+            content.drawString("Oversized " + longWord);
+            content.endText();
+        }
+        FileBlob blob = PDFUtils.saveInTempFile(doc);
+        doc.close();
+        utils.untrack(doc);
+
+        File dir = Files.createTempDirectory("pdftextindex").toFile();
+        try {
+            PDFTextCache cache = new PDFTextCache(new File(dir, "cache"), 10 * 1024 * 1024);
+            File indexFile = new File(dir, "text.idx");
+            PDFTextIndex index = new PDFTextIndex(indexFile, cache);
+            assertTrue(index.add(blob));
+            index.save();
+
+            index = new PDFTextIndex(indexFile, cache);
+            assertEquals(1, index.search("oversized", 10).size());
+            // The query is truncated the same way
+            assertEquals(1, index.search(longWord, 10).size());
+            assertEquals(1, index.search(longWord.substring(0, PDFTextIndex.MAX_WORD_LENGTH), 10).size());
+        } finally {
+            org.apache.commons.io.FileUtils.deleteQuietly(dir);
+        }
+    }
+
 }
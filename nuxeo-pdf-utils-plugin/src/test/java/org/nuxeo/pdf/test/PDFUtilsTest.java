@@ -34,14 +34,19 @@ import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFAdmissionGate;
+import org.nuxeo.pdf.PDFHeapEstimator;
 import org.nuxeo.pdf.PDFUtils;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -189,6 +194,73 @@ public class PDFUtilsTest {
         utils.untrack(doc);
     }
 
+    @Test
+    public void test_heapEstimator() throws Exception {
+
+        PDFHeapEstimator.Estimate estimate = PDFHeapEstimator.estimate(pdfFileBlob);
+        assertEquals(pdfFile.length(), estimate.getFileSize());
+        assertEquals(78, estimate.getObjectCount());
+        assertEquals(17, estimate.getStreamCount());
+        assertEquals(0, estimate.getImageCount());
+        // The data of the streams is not in the heap when loading with a scratch file
+        assertTrue(estimate.getHeap(true) < estimate.getHeap(false));
+
+        File f = FileUtils.getResourceFileFromContext("files/With-pictures.pdf");
+        estimate = PDFHeapEstimator.estimate(new FileBlob(f));
+        assertTrue(estimate.getImageCount() > 0);
+        assertTrue(estimate.getLargestImageSize() > 0);
+
+        // A blob without file is read once, and gives the same estimate as the cross-reference table
+        PDFHeapEstimator.Estimate read;
+        try (InputStream in = new FileInputStream(f)) {
+            read = PDFHeapEstimator.estimate(in);
+        }
+        assertEquals(read.getObjectCount(), estimate.getObjectCount());
+        assertEquals(read.getStreamSize(), estimate.getStreamSize());
+        assertEquals(read.getLargestImageSize(), estimate.getLargestImageSize());
+
+        // Cached by digest
+        FileBlob blob = new FileBlob(f);
+        blob.setDigest("heap-estimator-test");
+        estimate = PDFHeapEstimator.estimate(blob);
+        assertSame(estimate, PDFHeapEstimator.estimate(blob));
+    }
+
+    @Test
+    public void test_admissionGate() throws Exception {
+
+        // Rejects at once when the budget is exhausted
+        PDFAdmissionGate gate = new PDFAdmissionGate(1000, 0, -1);
+        PDFAdmissionGate.Permit first = gate.acquire("first", 600, false);
+        try {
+            gate.acquire("second", 600, false);
+            fail("The second operation should be rejected");
+        } catch (NuxeoException e) {
+            // Expected
+        }
+        assertEquals(1, gate.getRejectedCount());
+        // An operation called by another one does not reserve heap
+        first.run(() -> {
+            try (PDFAdmissionGate.Permit nested = gate.acquire("nested", 600, false)) {
+                assertEquals(0, nested.getHeap());
+            }
+            return null;
+        });
+        first.close();
+        assertEquals(0, gate.getReservedHeap());
+        gate.acquire("second", 600, false).close();
+
+        // Any PDF is loaded with a scratch file
+        PDFAdmissionGate scratchFileGate = new PDFAdmissionGate(1000, -1, 0);
+        try (PDFAdmissionGate.Permit permit = scratchFileGate.acquire("load", pdfFileBlob)) {
+            assertTrue(permit.isScratchFile());
+            PDDocument doc = permit.run(() -> PDFUtils.load(pdfFileBlob, null));
+            assertEquals(13, doc.getNumberOfPages());
+            doc.close();
+        }
+        assertEquals(0, scratchFileGate.getReservedHeap());
+    }
+
     public static boolean hasImage(Blob inBlob) {
         try (PDDocument doc = PDDocument.load(inBlob.getStream())) {
             for (Object o : doc.getDocumentCatalog().getAllPages()) {
@@ -18,11 +18,13 @@
 package org.nuxeo.pdf.test;
 
 import com.google.inject.Inject;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObject;
 import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.apache.pdfbox.util.PDFOperator;
 import org.apache.pdfbox.util.PDFTextStripper;
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +37,7 @@ import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFUtils;
 import org.nuxeo.pdf.PDFWatermarking;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
@@ -184,6 +187,82 @@ public class PDFWatermarkingTest {
         }
     }
 
+    @Test
+    public void testAddWatermarkWithIncrementalSave() throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(pdfFileBlob);
+
+        String watermark = java.util.UUID.randomUUID().toString();
+
+        pdfw.setText(watermark).setIncrementalSave(true);
+        Blob result = pdfw.watermark();
+
+        checkHasWatermarkOnAllPages(result, watermark);
+
+        // The original bytes are kept as is, the update is appended
+        byte[] original = pdfFileBlob.getByteArray();
+        byte[] updated = result.getByteArray();
+        assertTrue(updated.length > original.length);
+        for (int i = 0; i < original.length; i++) {
+            assertEquals("Byte " + i + " was modified", original[i], updated[i]);
+        }
+    }
+
+    @Test
+    public void testAddWatermarkInParallel() throws Exception {
+
+        PDFWatermarking pdfw = new PDFWatermarking(pdfFileBlob);
+
+        String watermark = java.util.UUID.randomUUID().toString();
+
+        pdfw.setText(watermark).setTextRotation(45).setParallel(true);
+        Blob result = pdfw.watermark();
+
+        checkHasWatermarkOnAllPages(result, watermark);
+    }
+
+    @Test
+    public void testAddWatermarkInParallelOnPagesWithoutContent() throws Exception {
+
+        PDDocument blankDoc = new PDDocument();
+        utils.track(blankDoc);
+        blankDoc.addPage(new PDPage());
+        blankDoc.addPage(new PDPage());
+        Blob blank = PDFUtils.saveInTempFile(blankDoc);
+        blankDoc.close();
+        utils.untrack(blankDoc);
+
+        PDFWatermarking pdfw = new PDFWatermarking(blank);
+        String watermark = java.util.UUID.randomUUID().toString();
+        pdfw.setText(watermark).setParallel(true);
+        Blob result = pdfw.watermark();
+
+        checkHasWatermarkOnAllPages(result, watermark);
+
+        // The content starts with "Q": The "q" must be there even if the page had no content
+        PDDocument doc = PDDocument.load(result.getStream());
+        utils.track(doc);
+        for (Object page : doc.getDocumentCatalog().getAllPages()) {
+            PDFStreamParser parser = new PDFStreamParser(((PDPage) page).getContents());
+            parser.parse();
+            int depth = 0;
+            for (Object token : parser.getTokens()) {
+                if (token instanceof PDFOperator) {
+                    String op = ((PDFOperator) token).getOperation();
+                    if ("q".equals(op)) {
+                        depth++;
+                    } else if ("Q".equals(op)) {
+                        depth--;
+                        assertTrue("Q without q", depth >= 0);
+                    }
+                }
+            }
+            assertEquals(0, depth);
+        }
+        doc.close();
+        utils.untrack(doc);
+    }
+
     @Test
     public void testAddWatermarkWithDefaultValues_PDFWithImages()
             throws Exception {
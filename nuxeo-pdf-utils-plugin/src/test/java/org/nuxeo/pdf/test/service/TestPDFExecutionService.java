@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2016 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.pdf.test.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.pdf.PDFAdmissionGate;
+import org.nuxeo.pdf.PDFMetrics;
+import org.nuxeo.pdf.PDFPageExtractor;
+import org.nuxeo.pdf.PDFUtils;
+import org.nuxeo.pdf.PDFWatermarking;
+import org.nuxeo.pdf.service.PDFExecutionService;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.google.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@Deploy({ "nuxeo-pdf-utils-plugin" })
+public class TestPDFExecutionService {
+
+    private static final String PDF_PATH = "files/13-pages-no-page-numbers.pdf";
+
+    @Inject
+    PDFExecutionService pdfExecutionService;
+
+    @Test
+    public void testOperationRunsOnThePool() throws Exception {
+
+        assertTrue(pdfExecutionService.getThreadCount() > 0);
+
+        long completed = pdfExecutionService.getCompletedCount();
+
+        File f = FileUtils.getResourceFileFromContext(PDF_PATH);
+        PDFPageExtractor pe = new PDFPageExtractor(new FileBlob(f));
+        Blob extracted = pe.extract(2, 5);
+        assertNotNull(extracted);
+        assertEquals(4, PDFUtils.countPages(extracted, null));
+
+        assertEquals(completed + 1, pdfExecutionService.getCompletedCount());
+        assertEquals(0, pdfExecutionService.getRunningCount());
+        assertEquals(0, pdfExecutionService.getQueuedCount());
+        assertEquals(0, PDFAdmissionGate.getDefault().getReservedHeap());
+    }
+
+    @Test
+    public void testNestedAndFailingTasks() throws Exception {
+
+        // A task submitted from a task runs on the same thread, it does not wait for a second one
+        String thread = pdfExecutionService.execute("outer",
+                () -> pdfExecutionService.execute("inner", () -> Thread.currentThread().getName()));
+        assertTrue(thread.startsWith("nuxeo-pdfutils-"));
+
+        long failed = pdfExecutionService.getFailedCount();
+        try {
+            pdfExecutionService.execute("failing", () -> {
+                throw new IOException("failing task");
+            });
+            fail("The exception of the task should be thrown");
+        } catch (IOException e) {
+            assertEquals("failing task", e.getMessage());
+        }
+        assertEquals(failed + 1, pdfExecutionService.getFailedCount());
+    }
+
+    @Test
+    public void testInterruptedCallerWaitsForItsTask() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(PDF_PATH);
+        Blob blob = new FileBlob(f);
+        PDFAdmissionGate gate = PDFAdmissionGate.getDefault();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Thread caller = new Thread(() -> {
+            try {
+                PDFUtils.execute("interrupted", () -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                }, blob);
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        caller.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        long reserved = gate.getReservedHeap();
+        assertTrue(reserved > 0);
+
+        caller.interrupt();
+        caller.join(500);
+        // The task still runs: The caller waits for it, and its heap stays reserved
+        assertTrue(caller.isAlive());
+        assertEquals(reserved, gate.getReservedHeap());
+
+        release.countDown();
+        caller.join(10000);
+        assertFalse(caller.isAlive());
+        assertTrue(error.get() instanceof NuxeoException);
+        assertEquals(0, gate.getReservedHeap());
+        assertEquals(0, pdfExecutionService.getRunningCount());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+
+        Timer total = PDFMetrics.timer("extract", PDFMetrics.TOTAL);
+        Timer parse = PDFMetrics.timer("extract", PDFMetrics.PARSE);
+        Timer save = PDFMetrics.timer("extract", PDFMetrics.SAVE);
+        Histogram bytesIn = PDFMetrics.histogram("extract", PDFMetrics.BYTES_IN);
+        Histogram bytesOut = PDFMetrics.histogram("extract", PDFMetrics.BYTES_OUT);
+        long totalCount = total.getCount();
+        long parseCount = parse.getCount();
+        long saveCount = save.getCount();
+        long bytesInCount = bytesIn.getCount();
+        long bytesOutCount = bytesOut.getCount();
+
+        File f = FileUtils.getResourceFileFromContext(PDF_PATH);
+        new PDFPageExtractor(new FileBlob(f)).extract(2, 5);
+
+        assertEquals(totalCount + 1, total.getCount());
+        assertEquals(parseCount + 1, parse.getCount());
+        assertEquals(saveCount + 1, save.getCount());
+        assertEquals(bytesInCount + 1, bytesIn.getCount());
+        assertEquals(bytesOutCount + 1, bytesOut.getCount());
+
+        // The pages are timed by the operation processing them
+        Timer pages = PDFMetrics.timer("watermark", PDFMetrics.PAGE);
+        long pageCount = pages.getCount();
+        PDFWatermarking wm = new PDFWatermarking(new FileBlob(f));
+        wm.setText("Metrics");
+        wm.watermark();
+        assertEquals(pageCount + 13, pages.getCount());
+
+        assertNotNull(PDFMetrics.getRegistry().getGauges().get("nuxeo.pdfutils.executor.running"));
+    }
+
+}